@@ -0,0 +1,92 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * The in-memory engine before the lock-free InMemoryQueue: one DelayQueue per queue, ordered by visibility and
+ * creation. Kept as a baseline for QueueServiceBenchmark, so it only does push, pull and delete.
+ */
+class DelayQueueBaseline implements QueueServiceBenchmark.PushPullDelete {
+
+	private final ConcurrentHashMap<String, DelayQueue<DelayedRecord>> messageStore = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, DelayedRecord> receiptHandles = new ConcurrentHashMap<>();
+
+	@Override
+	public void push(String qUrl, String messageBody) {
+		messageStore.computeIfAbsent(qName(qUrl), name -> new DelayQueue<>())
+				.add(new DelayedRecord(new Message().withMessageId(UUID.randomUUID().toString()).withBody(messageBody)));
+	}
+
+	@Override
+	public Optional<Message> pull(String qUrl) {
+		DelayQueue<DelayedRecord> queue = messageStore.get(qName(qUrl));
+		if(queue == null) {
+			return Optional.empty();
+		}
+		DelayedRecord record = queue.poll();
+		while(record != null && record.deleted) {
+			record = queue.poll();
+		}
+		if(record == null) {
+			return Optional.empty();
+		}
+		String receiptHandle = "RH-" + UUID.randomUUID().toString();
+		record.message.setReceiptHandle(receiptHandle);
+		record.visibleFromTime = currentTimeMillis() + 30000;
+		receiptHandles.put(receiptHandle, record);
+		queue.add(record);
+		return Optional.of(record.message.clone());
+	}
+
+	@Override
+	public void delete(String qUrl, String receiptHandler) {
+		DelayedRecord record = receiptHandles.remove(receiptHandler);
+		if(record != null) {
+			record.deleted = true;
+		}
+	}
+
+	private String qName(String qUrl) {
+		return Paths.get(qUrl).getFileName().toString();
+	}
+
+	private static class DelayedRecord implements Delayed {
+		private final Message message;
+		private final long creationTime = System.nanoTime();
+		private volatile long visibleFromTime = currentTimeMillis();
+		private volatile boolean deleted;
+
+		private DelayedRecord(Message message) {
+			this.message = message;
+		}
+
+		private boolean isVisible() {
+			return visibleFromTime - currentTimeMillis() <= 0;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(visibleFromTime - currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			DelayedRecord that = (DelayedRecord) other;
+			if(this.isVisible() != that.isVisible()) {
+				return this.isVisible() ? -1 : 1;
+			}
+			return Long.compare(this.creationTime, that.creationTime);
+		}
+	}
+
+}
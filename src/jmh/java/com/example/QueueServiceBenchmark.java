@@ -0,0 +1,189 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency percentiles of push, pull and delete for every QueueService implementation, SQS against the
+ * LocalSqsServer stub, and for DelayQueueBaseline, the engine InMemoryQueueService replaced. Thread count is a JMH
+ * option, e.g. -t 4.
+ *
+ * pushPullDelete keeps the queues at their initial depth. The producerConsumer group pushes from one thread and
+ * pulls and deletes from another.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueServiceBenchmark extends BaseTestClass {
+
+	private static final String Q_URL_BASE = "https://sqs.amazonaws.com/373529781950/benchmark-queue-";
+
+	@Param({"InMemoryQueueService", "DelayQueueBaseline", "FileQueueService", "MappedFileQueueService", "SqsQueueService"})
+	public String implementation;
+
+	@Param({"0", "10000"})
+	public int queueDepth;
+
+	@Param({"100", "10000"})
+	public int messageSize;
+
+	@Param({"1", "8"})
+	public int queues;
+
+	private PushPullDelete queue;
+	private QueueService queueService;
+	private LocalSqsServer sqsServer;
+	private List<String> qUrls;
+	private String body;
+
+	@Setup
+	public void setup() throws Exception {
+		switch(implementation) {
+			case "InMemoryQueueService":
+				queueService = new InMemoryQueueService(new ConcurrentHashMap<>());
+				break;
+			case "DelayQueueBaseline":
+				queue = new DelayQueueBaseline();
+				break;
+			case "FileQueueService":
+				FileQueueServiceTest.deleteAllSubDirectories(Paths.get(FileQueueServiceTest.BASE_PATH));
+				queueService = new FileQueueService(new UniversalUniqueIdGenerator());
+				break;
+			case "MappedFileQueueService":
+				FileQueueServiceTest.deleteAllSubDirectories(Paths.get(FileQueueServiceTest.BASE_PATH));
+				queueService = new FileQueueService(new UniversalUniqueIdGenerator(), 64 * 1024 * 1024, true);
+				break;
+			case "SqsQueueService":
+				sqsServer = new LocalSqsServer();
+				queueService = new SqsQueueService(sqsServer.client());
+				break;
+			default:
+				throw new IllegalArgumentException(implementation);
+		}
+		if(queueService != null) {
+			queue = PushPullDelete.of(queueService);
+		}
+		body = RandomStringUtils.randomAlphanumeric(messageSize);
+		qUrls = new ArrayList<>();
+		for(int i = 0; i < queues; i++) {
+			String qUrl = sqsServer != null ? sqsServer.queueUrl("benchmark-queue-" + i) : Q_URL_BASE + i;
+			qUrls.add(qUrl);
+			fill(qUrl);
+		}
+	}
+
+	private void fill(String qUrl) {
+		if(queueService == null) {
+			for(int depth = 0; depth < queueDepth; depth++) {
+				queue.push(qUrl, body);
+			}
+			return;
+		}
+		List<String> batch = new ArrayList<>();
+		for(int depth = 0; depth < queueDepth; depth++) {
+			batch.add(body);
+			if(batch.size() == QueueService.MAX_BATCH_SIZE) {
+				queueService.pushBatch(qUrl, batch);
+				batch.clear();
+			}
+		}
+		if(!batch.isEmpty()) {
+			queueService.pushBatch(qUrl, batch);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if(sqsServer != null) {
+			sqsServer.close();
+		}
+	}
+
+	@Benchmark
+	public Optional<Message> pushPullDelete() {
+		String qUrl = anyQueue();
+		queue.push(qUrl, body);
+		return pullDelete(qUrl);
+	}
+
+	@Benchmark
+	@Group("producerConsumer")
+	@GroupThreads(1)
+	public void push() {
+		queue.push(anyQueue(), body);
+	}
+
+	@Benchmark
+	@Group("producerConsumer")
+	@GroupThreads(1)
+	public Optional<Message> pullDelete() {
+		return pullDelete(anyQueue());
+	}
+
+	private Optional<Message> pullDelete(String qUrl) {
+		Optional<Message> message = queue.pull(qUrl);
+		message.ifPresent(received -> queue.delete(qUrl, received.getReceiptHandle()));
+		return message;
+	}
+
+	private String anyQueue() {
+		return qUrls.get(ThreadLocalRandom.current().nextInt(qUrls.size()));
+	}
+
+	/**
+	 * The calls measured, so that a baseline need not implement the whole of QueueService.
+	 */
+	interface PushPullDelete {
+
+		void push(String qUrl, String messageBody);
+
+		Optional<Message> pull(String qUrl);
+
+		void delete(String qUrl, String receiptHandler);
+
+		static PushPullDelete of(QueueService queueService) {
+			return new PushPullDelete() {
+				@Override
+				public void push(String qUrl, String messageBody) {
+					queueService.push(qUrl, messageBody);
+				}
+
+				@Override
+				public Optional<Message> pull(String qUrl) {
+					return queueService.pull(qUrl);
+				}
+
+				@Override
+				public void delete(String qUrl, String receiptHandler) {
+					queueService.delete(qUrl, receiptHandler);
+				}
+			};
+		}
+	}
+
+}
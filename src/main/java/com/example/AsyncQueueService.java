@@ -0,0 +1,19 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart of QueueService. Every call returns straight away, failures complete the future
+ * exceptionally instead of being thrown.
+ */
+public interface AsyncQueueService {
+
+	CompletableFuture<Void> push(String qUrl, String messageBody);
+
+	CompletableFuture<Optional<Message>> pull(String qUrl);
+
+	CompletableFuture<Void> delete(String qUrl, String receiptHandler);
+}
@@ -0,0 +1,32 @@
+package com.example;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by a batch call when some of its entries failed while the others went through, as the SQS batch actions
+ * report it. Entries are given by their position in the batch, split into those worth sending again and those that
+ * will fail whatever the number of attempts, such as a body that is too large or a receipt handle that is invalid.
+ */
+class BatchEntriesFailedException extends IllegalStateException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<Integer> retryable;
+	private final List<Integer> permanent;
+
+	BatchEntriesFailedException(String message, List<Integer> retryable, List<Integer> permanent) {
+		super(message);
+		this.retryable = Collections.unmodifiableList(retryable);
+		this.permanent = Collections.unmodifiableList(permanent);
+	}
+
+	List<Integer> retryable() {
+		return retryable;
+	}
+
+	List<Integer> permanent() {
+		return permanent;
+	}
+
+}
@@ -0,0 +1,336 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Client side batching in front of a QueueService, along the lines of the SDK's AmazonSQSBufferedAsyncClient. Meant
+ * for SqsQueueService, where every call is a round trip.
+ *
+ * Pushes and deletes return once buffered. The buffer of a queue goes out as one batch request as soon as it holds
+ * batchSize entries, sent by the caller that filled it, and otherwise at most flushInterval later from a background
+ * thread. When a whole batch request fails its entries are kept at the head of the buffer and sent again with the next
+ * batch. When only some entries failed, as a BatchEntriesFailedException reports, those worth retrying are kept and
+ * those that can never succeed are dropped and counted as droppedBatchEntries, so one bad entry neither blocks the
+ * buffer nor has the entries that went through sent again. Call flush to send everything buffered and see failures,
+ * background sends only retry.
+ *
+ * A pull finding nothing prefetched receives a whole batch and keeps the rest for the next pulls. The visibility
+ * timeout of prefetched messages runs while they wait, so they are dropped once older than prefetchMaxAge, which should
+ * be well below the visibility timeout of the queues pulled from.
+ */
+class BufferedQueueService implements QueueService, InstrumentedQueueService, Closeable {
+
+	private static final long FLUSH_INTERVAL_MS = Long.getLong("bufferedQueueService.flush.interval.ms", 200);
+	private static final int BATCH_SIZE = Integer.getInteger("bufferedQueueService.batch.size", MAX_BATCH_SIZE);
+	private static final long PREFETCH_MAX_AGE_MS = Long.getLong("bufferedQueueService.prefetch.max.age.ms", 15000);
+
+	private final QueueService queueService;
+	private final int batchSize;
+	private final long prefetchMaxAgeMillis;
+	private final ConcurrentHashMap<String, Outbox> pushes = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Outbox> deletes = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, ConcurrentLinkedQueue<Prefetched>> prefetched = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService flusher;
+	private final LongAdder droppedEntries = new LongAdder();
+
+	BufferedQueueService(QueueService queueService) {
+		this(queueService, FLUSH_INTERVAL_MS, BATCH_SIZE, PREFETCH_MAX_AGE_MS);
+	}
+
+	BufferedQueueService(QueueService queueService, long flushIntervalMillis, int batchSize, long prefetchMaxAgeMillis) {
+		QueueService.checkBatchSize(batchSize);
+		this.queueService = queueService;
+		this.batchSize = batchSize;
+		this.prefetchMaxAgeMillis = prefetchMaxAgeMillis;
+		this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "buffered-queue-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flusher.scheduleWithFixedDelay(this::retryingFlush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void push(String qUrl, String messageBody) {
+		pushes.computeIfAbsent(qUrl, url -> new Outbox(url, queueService::pushBatch)).add(messageBody);
+	}
+
+	/**
+	 * Not buffered, batches go out with the delay of the queue.
+	 */
+	@Override
+	public void push(String qUrl, String messageBody, int delaySeconds) {
+		queueService.push(qUrl, messageBody, delaySeconds);
+	}
+
+	/**
+	 * Not buffered, the order of pushes matters within a message group.
+	 */
+	@Override
+	public void push(String qUrl, String messageBody, String messageGroupId, String messageDeduplicationId) {
+		queueService.push(qUrl, messageBody, messageGroupId, messageDeduplicationId);
+	}
+
+	@Override
+	public Optional<Message> pull(String qUrl) {
+		Message message = pollPrefetched(qUrl);
+		if(message != null) {
+			return Optional.of(message);
+		}
+		List<Message> messages = queueService.pullBatch(qUrl, batchSize);
+		if(messages.isEmpty()) {
+			return Optional.empty();
+		}
+		long receivedAt = currentTimeMillis();
+		ConcurrentLinkedQueue<Prefetched> buffer = prefetched.computeIfAbsent(qUrl, url -> new ConcurrentLinkedQueue<>());
+		for(Message extra : messages.subList(1, messages.size())) {
+			buffer.offer(new Prefetched(extra, receivedAt));
+		}
+		return Optional.of(messages.get(0));
+	}
+
+	@Override
+	public Optional<Message> pull(String qUrl, long waitTime, TimeUnit unit) {
+		Message message = pollPrefetched(qUrl);
+		return message != null ? Optional.of(message) : queueService.pull(qUrl, waitTime, unit);
+	}
+
+	@Override
+	public void delete(String qUrl, String receiptHandler) {
+		deletes.computeIfAbsent(qUrl, url -> new Outbox(url, queueService::deleteBatch)).add(receiptHandler);
+	}
+
+	@Override
+	public void pushBatch(String qUrl, List<String> messageBodies) {
+		queueService.pushBatch(qUrl, messageBodies);
+	}
+
+	@Override
+	public List<Message> pullBatch(String qUrl, int maxMessages) {
+		return queueService.pullBatch(qUrl, maxMessages);
+	}
+
+	@Override
+	public void deleteBatch(String qUrl, List<String> receiptHandlers) {
+		queueService.deleteBatch(qUrl, receiptHandlers);
+	}
+
+	@Override
+	public boolean changeMessageVisibility(String qUrl, String receiptHandler, int visibilityTimeout) {
+		return queueService.changeMessageVisibility(qUrl, receiptHandler, visibilityTimeout);
+	}
+
+	@Override
+	public List<String> changeMessageVisibilityBatch(String qUrl, List<String> receiptHandlers, int visibilityTimeout) {
+		return queueService.changeMessageVisibilityBatch(qUrl, receiptHandlers, visibilityTimeout);
+	}
+
+	@Override
+	public void setQueueAttributes(String qUrl, Map<String, String> attributes) {
+		queueService.setQueueAttributes(qUrl, attributes);
+	}
+
+	/**
+	 * Pushes still buffered and messages prefetched are not counted, the latter as in flight.
+	 */
+	@Override
+	public Map<String, String> getQueueAttributes(String qUrl) {
+		return queueService.getQueueAttributes(qUrl);
+	}
+
+	/**
+	 * Pushes still buffered for the queue and messages prefetched from it are dropped as well.
+	 */
+	@Override
+	public void purge(String qUrl) {
+		pushes.remove(qUrl);
+		prefetched.remove(qUrl);
+		queueService.purge(qUrl);
+	}
+
+	@Override
+	public void registerMetrics(MetricsRegistry registry) {
+		registry.counter(null, "droppedBatchEntries", droppedEntries);
+	}
+
+	@Override
+	public void registerQueueMetrics(String qUrl, MetricsRegistry registry) {
+	}
+
+	/**
+	 * Pushes and deletes that failed in a way retrying cannot fix and were dropped from the buffer.
+	 */
+	long droppedEntries() {
+		return droppedEntries.sum();
+	}
+
+	/**
+	 * Sends everything buffered so far, throwing the first failure. Entries that failed stay buffered.
+	 */
+	void flush() {
+		RuntimeException failure = null;
+		for(Outbox outbox : pushes.values()) {
+			failure = flush(outbox, failure);
+		}
+		for(Outbox outbox : deletes.values()) {
+			failure = flush(outbox, failure);
+		}
+		if(failure != null) {
+			throw failure;
+		}
+	}
+
+	@Override
+	public void close() {
+		flusher.shutdown();
+		flush();
+	}
+
+	private static RuntimeException flush(Outbox outbox, RuntimeException failure) {
+		try {
+			outbox.flush();
+		} catch (RuntimeException e) {
+			if(failure == null) {
+				return e;
+			}
+			failure.addSuppressed(e);
+		}
+		return failure;
+	}
+
+	private void retryingFlush() {
+		try {
+			flush();
+		} catch (RuntimeException e) {
+			// the failed entries are still buffered and retried next time, an exception escaping would cancel the
+			// periodic flush
+		}
+	}
+
+	private Message pollPrefetched(String qUrl) {
+		ConcurrentLinkedQueue<Prefetched> buffer = prefetched.get(qUrl);
+		if(buffer == null) {
+			return null;
+		}
+		long staleBefore = currentTimeMillis() - prefetchMaxAgeMillis;
+		Prefetched next;
+		while((next = buffer.poll()) != null) {
+			if(next.receivedAt > staleBefore) {
+				return next.message;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Buffered pushes or deletes of one queue.
+	 */
+	private class Outbox {
+		private final String qUrl;
+		private final BiConsumer<String, List<String>> sendBatch;
+		private List<String> entries = new ArrayList<>();
+
+		private Outbox(String qUrl, BiConsumer<String, List<String>> sendBatch) {
+			this.qUrl = qUrl;
+			this.sendBatch = sendBatch;
+		}
+
+		/**
+		 * Throws when the batch this entry completed failed to go out, the entry is still buffered then.
+		 */
+		void add(String entry) {
+			List<String> full = null;
+			synchronized(this) {
+				entries.add(entry);
+				if(entries.size() >= batchSize) {
+					full = entries.subList(0, batchSize);
+					entries = new ArrayList<>(entries.subList(batchSize, entries.size()));
+				}
+			}
+			if(full != null) {
+				send(new ArrayList<>(full), 0);
+			}
+		}
+
+		void flush() {
+			List<String> pending;
+			synchronized(this) {
+				if(entries.isEmpty()) {
+					return;
+				}
+				pending = entries;
+				entries = new ArrayList<>();
+			}
+			// entries kept after a failure may add up to more than a batch
+			for(int start = 0; start < pending.size(); start += batchSize) {
+				send(pending, start);
+			}
+		}
+
+		/**
+		 * Sends the batch of entries starting at start. When it fails the entries after the batch are kept, and of the
+		 * batch itself those that failed and are worth retrying, or all of them when the request as a whole failed.
+		 */
+		private void send(List<String> entries, int start) {
+			int end = Math.min(start + batchSize, entries.size());
+			List<String> batch = entries.subList(start, end);
+			try {
+				sendBatch.accept(qUrl, batch);
+			} catch (BatchEntriesFailedException e) {
+				List<String> unsent = new ArrayList<>();
+				for(int index : new TreeSet<>(e.retryable())) {
+					unsent.add(batch.get(index));
+				}
+				unsent.addAll(entries.subList(end, entries.size()));
+				keep(unsent);
+				droppedEntries.add(e.permanent().size());
+				throw e;
+			} catch (RuntimeException e) {
+				keep(entries.subList(start, entries.size()));
+				throw e;
+			}
+		}
+
+		/**
+		 * Puts entries that were taken out but not sent back at the head of the buffer, in their order.
+		 */
+		private void keep(List<String> unsent) {
+			if(unsent.isEmpty()) {
+				return;
+			}
+			synchronized(this) {
+				List<String> kept = new ArrayList<>(unsent.size() + entries.size());
+				kept.addAll(unsent);
+				kept.addAll(entries);
+				entries = kept;
+			}
+		}
+	}
+
+	private static class Prefetched {
+		private final Message message;
+		private final long receivedAt;
+
+		private Prefetched(Message message, long receivedAt) {
+			this.message = message;
+			this.receivedAt = receivedAt;
+		}
+	}
+
+}
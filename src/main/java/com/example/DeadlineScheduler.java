@@ -0,0 +1,76 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Runs actions once a message deadline, such as the end of a visibility timeout, has passed. Shared by the in-memory
+ * and file queues.
+ *
+ * Each of the scheduled.task.thread.pool.size threads advances its own TimingWheel every tick, scheduling picks a
+ * wheel by thread so producers rarely contend. Scheduling is O(1) and an action runs at most one tick late. Actions
+ * run on a scheduler thread and must not block. An exception thrown by an action goes to the uncaught exception handler
+ * of the thread, which keeps running.
+ */
+class DeadlineScheduler {
+
+	static final long TICK_MILLIS = 10;
+	private static final int WHEEL_SIZE = 1024;
+	private static final DeadlineScheduler SHARED = new DeadlineScheduler(Integer.valueOf(System.getProperty("scheduled.task.thread.pool.size")));
+
+	private final List<TimingWheel<Expiry>> wheels;
+	private final ScheduledExecutorService executor;
+
+	DeadlineScheduler(int threads) {
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newScheduledThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "deadline-scheduler-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.wheels = new ArrayList<>(threads);
+		long now = currentTimeMillis();
+		for(int i = 0; i < threads; i++) {
+			TimingWheel<Expiry> wheel = new TimingWheel<>(TICK_MILLIS, WHEEL_SIZE, now, DeadlineScheduler::expire);
+			wheels.add(wheel);
+			executor.scheduleAtFixedRate(() -> wheel.advance(currentTimeMillis()), TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	static DeadlineScheduler shared() {
+		return SHARED;
+	}
+
+	void schedule(long deadline, Expiry expiry) {
+		wheels.get((int) (Thread.currentThread().getId() % wheels.size())).schedule(expiry, deadline);
+	}
+
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private static void expire(Expiry expiry, long now) {
+		try {
+			expiry.expired(now);
+		} catch (RuntimeException e) {
+			// an exception escaping would cancel the periodic advance of the whole wheel, hand it to the handler of the
+			// thread instead
+			Thread thread = Thread.currentThread();
+			thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+		}
+	}
+
+	interface Expiry {
+		/**
+		 * @param now time of the tick the deadline passed in
+		 */
+		void expired(long now);
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deduplication ids of a FIFO queue seen within the last WINDOW_MS. Ids are grouped in buckets of BUCKET_MS by the
+ * time they were seen, so old ids are dropped a bucket at a time without a timer or a scan. Time only moves on with
+ * the ids added, an id is remembered for the window and up to a bucket longer.
+ *
+ * At most maxIds are remembered, beyond that the oldest buckets are dropped early.
+ *
+ * Not thread safe.
+ */
+class DeduplicationWindow {
+
+	static final long WINDOW_MS = TimeUnit.MINUTES.toMillis(5);
+	static final int MAX_IDS = Integer.getInteger("queueService.deduplication.max.ids", 100000);
+	private static final long BUCKET_MS = TimeUnit.SECONDS.toMillis(10);
+
+	private final int maxIds;
+	private final Map<String, Long> bucketById = new HashMap<>();
+	private final TreeMap<Long, List<String>> buckets = new TreeMap<>();
+	private long latestBucket = Long.MIN_VALUE;
+
+	DeduplicationWindow() {
+		this(MAX_IDS);
+	}
+
+	DeduplicationWindow(int maxIds) {
+		this.maxIds = maxIds;
+	}
+
+	/**
+	 * Remembers the id as seen at time. Returns false when it was seen within the window before.
+	 */
+	boolean add(String deduplicationId, long time) {
+		long bucket = Math.floorDiv(time, BUCKET_MS);
+		if(bucket > latestBucket) {
+			latestBucket = bucket;
+			dropBucketsBefore(firstLiveBucket());
+		}
+		if(bucket < firstLiveBucket()) {
+			return true;
+		}
+		Long seenIn = bucketById.get(deduplicationId);
+		if(seenIn != null && bucket - seenIn <= WINDOW_MS / BUCKET_MS) {
+			return false;
+		}
+		bucketById.put(deduplicationId, bucket);
+		buckets.computeIfAbsent(bucket, id -> new ArrayList<>()).add(deduplicationId);
+		while(bucketById.size() > maxIds) {
+			dropBucketsBefore(buckets.firstKey() + 1);
+		}
+		return true;
+	}
+
+	int size() {
+		return bucketById.size();
+	}
+
+	private long firstLiveBucket() {
+		return latestBucket - WINDOW_MS / BUCKET_MS;
+	}
+
+	private void dropBucketsBefore(long bucket) {
+		while(!buckets.isEmpty() && buckets.firstKey() < bucket) {
+			long dropped = buckets.firstKey();
+			for(String id : buckets.pollFirstEntry().getValue()) {
+				bucketById.remove(id, dropped);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+
+import java.io.Closeable;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * AsyncQueueService running a blocking QueueService, like FileQueueService or InMemoryQueueService, on a small fixed
+ * pool. Any number of callers can have calls outstanding while only the pool threads ever block.
+ *
+ * Calls wait in a bounded queue. Once it is full a call fails straight away with a RejectedExecutionException in its
+ * future, rather than blocking the caller or queueing without bound.
+ */
+class ExecutorAsyncQueueService implements AsyncQueueService, Closeable {
+
+	private static final int THREADS = Integer.getInteger("asyncQueueService.thread.pool.size", Runtime.getRuntime().availableProcessors());
+	private static final int QUEUE_CAPACITY = Integer.getInteger("asyncQueueService.queue.capacity", 10000);
+
+	private final QueueService queueService;
+	private final ThreadPoolExecutor executor;
+
+	ExecutorAsyncQueueService(QueueService queueService) {
+		this(queueService, THREADS, QUEUE_CAPACITY);
+	}
+
+	ExecutorAsyncQueueService(QueueService queueService, int threads, int queueCapacity) {
+		this.queueService = queueService;
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+			Thread thread = new Thread(runnable, "async-queue-service-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> push(String qUrl, String messageBody) {
+		return submit(() -> {
+			queueService.push(qUrl, messageBody);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Optional<Message>> pull(String qUrl) {
+		return submit(() -> queueService.pull(qUrl));
+	}
+
+	@Override
+	public CompletableFuture<Void> delete(String qUrl, String receiptHandler) {
+		return submit(() -> {
+			queueService.delete(qUrl, receiptHandler);
+			return null;
+		});
+	}
+
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+
+	private <T> CompletableFuture<T> submit(Supplier<T> call) {
+		try {
+			return CompletableFuture.supplyAsync(call, executor);
+		} catch (RejectedExecutionException e) {
+			CompletableFuture<T> rejected = new CompletableFuture<>();
+			rejected.completeExceptionally(e);
+			return rejected;
+		}
+	}
+
+}
@@ -0,0 +1,626 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Storage engine of a single file queue: pushes are appended to a SegmentedLog and receives/deletes to a StateLog.
+ * Before every operation the logs are tailed from where this process last stopped reading, so the cost of an
+ * operation depends on what other processes wrote since, not on the depth of the queue.
+ *
+ * Queue attributes, purges and deletes of messages that outlived the retention period are journaled in the StateLog
+ * as well, so every process sharing the queue applies them.
+ *
+ * Pushes without a delay of their own are delayed by the DelaySeconds attribute when appended, the frame keeps when
+ * they become visible.
+ *
+ * A visibility change is journaled as a line of its own rather than as another receive, it keeps the receipt handle
+ * and receive count.
+ *
+ * How often a message was received is the number of its receive lines, carried over into snapshots. Once that reaches
+ * the maxReceiveCount of the redrive policy a receive parks the message for DEAD_LETTER_PARK_MS instead of returning
+ * it, and hands it to the caller to move to the dead letter queue.
+ *
+ * Pushes whose deduplication id is in the DeduplicationWindow are dropped. The window is filled from the records of
+ * every process as they are read, deleted ones included.
+ *
+ * Not thread safe, callers are expected to hold the queue lock.
+ */
+class FileQueue implements Closeable {
+
+	private static final String LEGACY_MESSAGES_FILE = "messages";
+	private static final long DEAD_LETTER_PARK_MS = 60000;
+
+	private final Path qPath;
+	private final SegmentedLog log;
+	private final StateLog stateLog;
+	private final long stateCompactionBytes;
+	private final DeadlineScheduler scheduler;
+	private final QueueSignal visibleSignal;
+
+	private FileQueueIndex index;
+	private QueueAttributes attributes = QueueAttributes.defaults();
+	private DeduplicationWindow deduplication;
+	private boolean opened;
+	private long segmentId;
+	private long segmentOffset;
+	private long stateGeneration;
+	private long stateOffset;
+	private boolean stateSealed;
+	private LongAdder bytesWritten = new LongAdder();
+	private LongAdder bytesRead = new LongAdder();
+
+	FileQueue(Path qPath, long maxSegmentBytes, long stateCompactionBytes) {
+		this(qPath, maxSegmentBytes, false, stateCompactionBytes);
+	}
+
+	FileQueue(Path qPath, long maxSegmentBytes, boolean mappedSegments, long stateCompactionBytes) {
+		this(qPath, new SegmentedLog(qPath.resolve("segments"), maxSegmentBytes, mappedSegments), stateCompactionBytes,
+				DeadlineScheduler.shared(), FileQueueWatcher.shared().signal(qPath));
+	}
+
+	/**
+	 * @param visibleSignal signalled when the visibility timeout of a message this process knows about ends
+	 */
+	FileQueue(Path qPath, SegmentedLog log, long stateCompactionBytes, DeadlineScheduler scheduler, QueueSignal visibleSignal) {
+		this.qPath = qPath;
+		this.scheduler = scheduler;
+		this.visibleSignal = visibleSignal;
+		this.log = log;
+		this.stateLog = new StateLog(qPath);
+		this.stateCompactionBytes = stateCompactionBytes;
+	}
+
+	/**
+	 * Adds the bytes this queue writes to its logs and reads back for receives to the given counters.
+	 */
+	FileQueue countingBytes(LongAdder bytesWritten, LongAdder bytesRead) {
+		this.bytesWritten = bytesWritten;
+		this.bytesRead = bytesRead;
+		return this;
+	}
+
+	void push(String messageId, String body) {
+		push(Collections.singletonList(Record.toRecord(messageId, body)));
+	}
+
+	/**
+	 * Appends all records with a single write.
+	 */
+	void push(List<Record> records) {
+		catchUp();
+		append(records);
+	}
+
+	/**
+	 * Makes the records pushed so far durable. Receives and deletes are not synced, after a crash they are at worst
+	 * redelivered.
+	 */
+	void sync() {
+		log.force();
+	}
+
+	Optional<Message> receive(int visibilityTimeout, Supplier<String> receiptHandles) {
+		return receive(1, visibilityTimeout, receiptHandles).stream().findFirst();
+	}
+
+	List<Message> receive(int maxMessages, int visibilityTimeout, Supplier<String> receiptHandles) {
+		return receive(maxMessages, visibilityTimeout, receiptHandles, null);
+	}
+
+	/**
+	 * Receives up to maxMessages distinct messages, recording all receives with a single write to the state log.
+	 *
+	 * @param deadLetters gets the messages due for the dead letter queue, with the receipt handle to delete them here
+	 *                    once moved; null to ignore the redrive policy
+	 */
+	List<Message> receive(int maxMessages, int visibilityTimeout, Supplier<String> receiptHandles, List<Record> deadLetters) {
+		catchUp();
+		long now = currentTimeMillis();
+		List<FileQueueIndex.Entry> outlived = new ArrayList<>();
+		List<FileQueueIndex.Entry> entries;
+		while(true) {
+			entries = index.nextVisible(now, maxMessages);
+			int before = outlived.size();
+			for(FileQueueIndex.Entry entry : entries) {
+				if(attributes.expired(entry.creationTime, now)) {
+					outlived.add(entry);
+				}
+			}
+			if(outlived.size() == before) {
+				break;
+			}
+			outlived.subList(before, outlived.size()).forEach(entry -> index.remove(entry.messageId));
+		}
+		journal(deletes(outlived));
+		if(entries.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Message> messages = new ArrayList<>(entries.size());
+		List<String[]> receives = new ArrayList<>(entries.size());
+		for(FileQueueIndex.Entry entry : entries) {
+			Record record = RecordCodec.decode(log.read(entry.segmentId, entry.offset, entry.length));
+			bytesRead.add(entry.length);
+			String receiptHandle = receiptHandles.get();
+			record.getMessage().setReceiptHandle(receiptHandle);
+			long visibleFromTime;
+			if(deadLetters != null && attributes.deadLetter(entry.receiveCount)) {
+				visibleFromTime = now + DEAD_LETTER_PARK_MS;
+				deadLetters.add(record);
+			} else {
+				visibleFromTime = now + visibilityTimeout * 1000L;
+				messages.add(record.getMessage().withAttributes(record.receivedAttributes(entry.receiveCount + 1)));
+			}
+			receives.add(new String[]{StateLog.RECEIVE, entry.messageId, receiptHandle, Long.toString(visibleFromTime)});
+		}
+		journal(receives);
+		for(int i = 0; i < entries.size(); i++) {
+			String[] receive = receives.get(i);
+			index.receive(entries.get(i), receive[2], Long.parseLong(receive[3]), now);
+		}
+		return messages;
+	}
+
+	boolean delete(String receiptHandle) {
+		return delete(Collections.singletonList(receiptHandle)).isEmpty();
+	}
+
+	/**
+	 * Deletes the messages of all known receipt handles with a single write to the state log. Returns the receipt
+	 * handles that are unknown or no longer current.
+	 */
+	List<String> delete(List<String> receiptHandles) {
+		catchUp();
+		List<String> unknown = new ArrayList<>();
+		List<String[]> deletes = new ArrayList<>(receiptHandles.size());
+		for(String receiptHandle : receiptHandles) {
+			FileQueueIndex.Entry entry = index.byReceiptHandle(receiptHandle);
+			if(entry == null) {
+				unknown.add(receiptHandle);
+				continue;
+			}
+			deletes.add(new String[]{StateLog.DELETE, entry.messageId});
+			index.remove(entry.messageId);
+		}
+		journal(deletes);
+		return unknown;
+	}
+
+	/**
+	 * Makes the in-flight messages of all known receipt handles visible visibilityTimeout seconds from now, with a
+	 * single write to the state log. Returns the receipt handles that are unknown or no longer current, or whose
+	 * visibility timeout already ended.
+	 */
+	List<String> changeVisibility(List<String> receiptHandles, int visibilityTimeout) {
+		catchUp();
+		long now = currentTimeMillis();
+		long visibleFromTime = now + visibilityTimeout * 1000L;
+		List<String> failed = new ArrayList<>();
+		List<FileQueueIndex.Entry> entries = new ArrayList<>(receiptHandles.size());
+		List<String[]> changes = new ArrayList<>(receiptHandles.size());
+		for(String receiptHandle : receiptHandles) {
+			FileQueueIndex.Entry entry = index.byReceiptHandle(receiptHandle);
+			if(entry == null || !entry.isInFlight(now)) {
+				failed.add(receiptHandle);
+				continue;
+			}
+			entries.add(entry);
+			changes.add(new String[]{StateLog.VISIBILITY, entry.messageId, receiptHandle, Long.toString(visibleFromTime)});
+		}
+		journal(changes);
+		entries.forEach(entry -> index.changeVisibility(entry, visibleFromTime, now));
+		return failed;
+	}
+
+	/**
+	 * Deletes up to maxMessages messages that outlived the retention period. Returns whether there may be more.
+	 */
+	boolean expire(int maxMessages) {
+		catchUp();
+		Collection<FileQueueIndex.Entry> outlived = index.createdBefore(currentTimeMillis() - attributes.retentionMillis(), maxMessages);
+		outlived.forEach(entry -> index.remove(entry.messageId));
+		journal(deletes(outlived));
+		return outlived.size() == maxMessages;
+	}
+
+	/**
+	 * Deletes every message appended so far, with a single line in the state log. Their segments are reclaimed by the
+	 * next compaction.
+	 */
+	void purge() {
+		catchUp();
+		journal(Collections.singletonList(new String[]{StateLog.PURGE, Long.toString(segmentId), Long.toString(segmentOffset)}));
+		index.removeAppendedBefore(segmentId, segmentOffset);
+	}
+
+	QueueAttributes attributes() {
+		catchUp();
+		return attributes;
+	}
+
+	int visibleCount() {
+		catchUp();
+		return index.visibleCount(currentTimeMillis());
+	}
+
+	int inFlightCount() {
+		catchUp();
+		return index.inFlightCount(currentTimeMillis());
+	}
+
+	int delayedCount() {
+		catchUp();
+		return index.delayedCount(currentTimeMillis());
+	}
+
+	/**
+	 * Corrupt records skipped while reading the segments, see SegmentedLog.corruptFrames.
+	 */
+	long corruptRecords() {
+		return log.corruptFrames();
+	}
+
+	long oldestCreationTime() {
+		catchUp();
+		return index.oldestCreationTime(currentTimeMillis());
+	}
+
+	void setAttributes(Map<String, String> changes) {
+		catchUp();
+		QueueAttributes changed = attributes.with(changes);
+		List<String[]> lines = new ArrayList<>(changes.size());
+		changes.forEach((name, value) -> {
+			if(value.contains("\n") || value.contains(StateLog.SEPARATOR)) {
+				throw new IllegalArgumentException("Value of queue attribute " + name + " can not contain line breaks or " + StateLog.SEPARATOR);
+			}
+			lines.add(new String[]{StateLog.ATTRIBUTE, name, value});
+		});
+		journal(lines);
+		attributes = changed;
+	}
+
+	private void journal(List<String[]> lines) {
+		int bytes = stateLog.append(lines);
+		stateOffset += bytes;
+		bytesWritten.add(bytes);
+	}
+
+	private static List<String[]> deletes(Collection<FileQueueIndex.Entry> entries) {
+		List<String[]> deletes = new ArrayList<>(entries.size());
+		for(FileQueueIndex.Entry entry : entries) {
+			deletes.add(new String[]{StateLog.DELETE, entry.messageId});
+		}
+		return deletes;
+	}
+
+	/**
+	 * Whether there are fully deleted segments to reclaim or the state log has outgrown its snapshot.
+	 */
+	boolean needsCompaction() {
+		return opened && (!index.deadSegments(segmentId, currentTimeMillis()).isEmpty() || stateLogOvergrown());
+	}
+
+	/**
+	 * Drops fully deleted segments and rewrites the state log as a snapshot of the live messages once it has grown
+	 * well beyond that.
+	 */
+	void compact() {
+		catchUp();
+		for(Long deadSegment : index.deadSegments(segmentId, currentTimeMillis())) {
+			log.delete(deadSegment);
+			index.forgetSegment(deadSegment);
+		}
+		if(stateLogOvergrown()) {
+			List<String> snapshot = new ArrayList<>();
+			snapshot.add(String.join(StateLog.SEPARATOR, StateLog.SNAPSHOT, Long.toString(segmentId), Long.toString(segmentOffset)));
+			for(FileQueueIndex.Entry entry : index.entries()) {
+				snapshot.add(entry.receiptHandle == null
+						? String.join(StateLog.SEPARATOR, StateLog.LIVE, entry.messageId)
+						: String.join(StateLog.SEPARATOR, StateLog.LIVE, entry.messageId, entry.receiptHandle, Long.toString(entry.visibleFromTime),
+								Integer.toString(entry.receiveCount)));
+			}
+			snapshot.add(StateLog.SNAPSHOT_END);
+			attributes.toMap().forEach((name, value) -> snapshot.add(String.join(StateLog.SEPARATOR, StateLog.ATTRIBUTE, name, value)));
+			stateLog.compact(snapshot);
+			stateGeneration = stateLog.generation();
+			stateOffset = stateLog.size();
+		}
+	}
+
+	private boolean stateLogOvergrown() {
+		return stateOffset > stateCompactionBytes && stateOffset > 2L * 64 * index.size();
+	}
+
+	private void append(List<Record> records) {
+		records = records.stream()
+				.filter(record -> record.getDeduplicationId() == null || deduplication.add(record.getDeduplicationId(), record.getCreationTime()))
+				.collect(Collectors.toList());
+		if(records.isEmpty()) {
+			return;
+		}
+		ByteArrayOutputStream batch = new ByteArrayOutputStream();
+		int[] lengths = new int[records.size()];
+		int delaySeconds = attributes.delaySeconds();
+		for(int i = 0; i < records.size(); i++) {
+			records.get(i).delay(delaySeconds);
+			byte[] bytes = RecordCodec.encode(records.get(i));
+			lengths[i] = bytes.length;
+			batch.write(bytes, 0, bytes.length);
+		}
+		long appendedTo = log.append(segmentId, segmentOffset, batch.toByteArray());
+		bytesWritten.add(batch.size());
+		if(appendedTo != segmentId) {
+			segmentId = appendedTo;
+			segmentOffset = 0;
+			index.segmentSeen(segmentId);
+		}
+		long now = currentTimeMillis();
+		for(int i = 0; i < records.size(); i++) {
+			Record record = records.get(i);
+			index.add(record.getMessage().getMessageId(), segmentId, segmentOffset, lengths[i], record.getCreationTime(), record.getVisibleFromTime(),
+					record.getMessageGroupId(), now);
+			if(record.getDeduplicationId() != null) {
+				index.keepSegment(segmentId, record.getCreationTime() + DeduplicationWindow.WINDOW_MS);
+			}
+			segmentOffset += lengths[i];
+		}
+	}
+
+	/**
+	 * Brings the index up to date with everything appended to the logs since this process last looked.
+	 */
+	private void catchUp() {
+		if(!opened) {
+			open();
+			return;
+		}
+		scanSegments(null);
+		scanState();
+		if(stateSealed || stateGeneration != stateLog.generation()) {
+			// another process compacted the state log, the snapshot in the new generation replaces our view
+			open();
+		}
+	}
+
+	/**
+	 * Rebuilds the index from the logs, which also recovers from a crash of any process: the partial record or state
+	 * line of an interrupted append is ignored and later overwritten, and the snapshot of an interrupted compaction is
+	 * dropped. The segments behind the newest one are complete and read concurrently.
+	 */
+	private void open() {
+		stateLog.reopen();
+		stateLog.deleteUnpublishedSnapshots();
+		index = new FileQueueIndex(scheduler, visibleSignal::signal);
+		deduplication = new DeduplicationWindow();
+		attributes = QueueAttributes.defaults();
+		stateGeneration = stateLog.generation();
+		stateSealed = false;
+		segmentId = 0;
+		segmentOffset = 0;
+
+		Snapshot snapshot = new Snapshot();
+		stateOffset = stateLog.scan(0, snapshot);
+		if(!snapshot.present) {
+			stateOffset = 0;
+		}
+		List<Long> segmentIds = new ArrayList<>(log.segmentIds());
+		segmentId = segmentIds.isEmpty() ? 0 : segmentIds.get(0);
+		index.segmentSeen(segmentId);
+		long now = currentTimeMillis();
+		if(segmentIds.size() > 1) {
+			List<Long> complete = segmentIds.subList(0, segmentIds.size() - 1);
+			List<List<SegmentedLog.Scanned>> scans = log.scanAll(complete);
+			for(int i = 0; i < complete.size(); i++) {
+				long completeId = complete.get(i);
+				index.segmentSeen(completeId);
+				for(SegmentedLog.Scanned record : scans.get(i)) {
+					deduplicated(record.deduplicationId, completeId, record.creationTime);
+					if(!snapshot.present || !snapshot.deleted(record.messageId, completeId, record.offset)) {
+						index.add(record.messageId, completeId, record.offset, record.length, record.creationTime, record.visibleFromTime,
+								record.messageGroupId, now);
+					}
+				}
+			}
+			segmentId = segmentIds.get(segmentIds.size() - 1);
+			index.segmentSeen(segmentId);
+		}
+		scanSegments(snapshot.present ? snapshot : null);
+		snapshot.live.forEach((messageId, state) -> {
+			FileQueueIndex.Entry entry = index.byMessageId(messageId);
+			if(entry != null && state.length == 3) {
+				index.receive(entry, state[0], Long.parseLong(state[1]), now);
+				entry.receiveCount = Integer.parseInt(state[2]);
+			}
+		});
+		opened = true;
+		scanState();
+		migrateLegacyMessagesFile();
+	}
+
+	private void scanSegments(Snapshot snapshot) {
+		while(true) {
+			boolean[] sealed = {false};
+			long scannedTo = log.scan(segmentId, segmentOffset, (frame, offset, length) -> {
+				if(RecordCodec.isSealed(frame)) {
+					sealed[0] = true;
+					return false;
+				}
+				String messageId = RecordCodec.messageId(frame);
+				long creationTime = RecordCodec.creationTime(frame);
+				deduplicated(RecordCodec.deduplicationId(frame), segmentId, creationTime);
+				if(snapshot == null || !snapshot.deleted(messageId, segmentId, offset)) {
+					index.add(messageId, segmentId, offset, length, creationTime, RecordCodec.visibleFromTime(frame), RecordCodec.messageGroupId(frame),
+							currentTimeMillis());
+				}
+				return true;
+			});
+			if(scannedTo >= 0) {
+				segmentOffset = scannedTo;
+			}
+			if(scannedTo >= 0 && !sealed[0]) {
+				return;
+			}
+			// sealed, or reclaimed by another process while we were reading it
+			Long next = log.segmentIds().higher(segmentId);
+			if(next == null) {
+				if(!sealed[0]) {
+					return;
+				}
+				// sealed by a writer that did not get to start the next segment
+				next = segmentId + 1;
+			}
+			segmentId = next;
+			segmentOffset = 0;
+			index.segmentSeen(segmentId);
+		}
+	}
+
+	/**
+	 * Records a deduplication id read from the log, and keeps its segment while the id is needed.
+	 */
+	private void deduplicated(String deduplicationId, long segmentId, long creationTime) {
+		if(deduplicationId != null) {
+			deduplication.add(deduplicationId, creationTime);
+			index.keepSegment(segmentId, creationTime + DeduplicationWindow.WINDOW_MS);
+		}
+	}
+
+	private void scanState() {
+		long now = currentTimeMillis();
+		stateOffset = stateLog.scan(stateOffset, (line, offset, length) -> {
+			String[] fields = line.split(StateLog.SEPARATOR);
+			switch(fields[0]) {
+				case StateLog.RECEIVE:
+					FileQueueIndex.Entry entry = index.byMessageId(fields[1]);
+					if(entry != null) {
+						index.receive(entry, fields[2], Long.parseLong(fields[3]), now);
+					}
+					return true;
+				case StateLog.VISIBILITY:
+					FileQueueIndex.Entry changed = index.byMessageId(fields[1]);
+					if(changed != null && fields[2].equals(changed.receiptHandle)) {
+						index.changeVisibility(changed, Long.parseLong(fields[3]), now);
+					}
+					return true;
+				case StateLog.DELETE:
+					index.remove(fields[1]);
+					return true;
+				case StateLog.PURGE:
+					index.removeAppendedBefore(Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+					return true;
+				case StateLog.ATTRIBUTE:
+					String[] attribute = line.split(StateLog.SEPARATOR, 3);
+					try {
+						attributes = attributes.with(Collections.singletonMap(attribute[1], attribute[2]));
+					} catch (IllegalArgumentException e) {
+						// set by a newer version that knows attributes we do not
+					}
+					return true;
+				case StateLog.SEALED_MARKER:
+					stateSealed = true;
+					return false;
+				default:
+					return true;
+			}
+		});
+	}
+
+	/**
+	 * Queues written before the segmented log kept all records in a single messages file. Those records are appended
+	 * to the log once, keeping their order, visibility and in-flight state rather than taking the queue's DelaySeconds.
+	 * The file is deleted only after the log is synced, and an open that finds it again skips the records it already
+	 * holds, so a crash in between neither loses nor duplicates messages.
+	 */
+	private void migrateLegacyMessagesFile() {
+		Path legacy = qPath.resolve(LEGACY_MESSAGES_FILE);
+		if(Files.notExists(legacy)) {
+			return;
+		}
+		try(Stream<String> lines = Files.lines(legacy)) {
+			List<Record> records = lines.filter(StringUtils::isNotBlank).map(Record::fromLine).collect(Collectors.toList());
+			// those already indexed were appended by a migration that crashed before deleting the file
+			List<Record> unmigrated = records.stream()
+					.filter(record -> index.byMessageId(record.getMessage().getMessageId()) == null)
+					.map(record -> record.withDelay(0))
+					.collect(Collectors.toList());
+			if(!unmigrated.isEmpty()) {
+				append(unmigrated);
+			}
+			for(Record record : records) {
+				Message message = record.getMessage();
+				FileQueueIndex.Entry entry = index.byMessageId(message.getMessageId());
+				if(!record.isVisible() && !"null".equals(message.getReceiptHandle()) && !message.getReceiptHandle().equals(entry.receiptHandle)) {
+					long visibleFromTime = record.getVisibleFromTime();
+					stateOffset += stateLog.append(StateLog.RECEIVE, message.getMessageId(), message.getReceiptHandle(), Long.toString(visibleFromTime));
+					index.receive(entry, message.getReceiptHandle(), visibleFromTime, currentTimeMillis());
+				}
+			}
+			// the file is all there is of the messages until the segments holding them are on disk
+			log.force();
+			Files.delete(legacy);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		log.close();
+		stateLog.close();
+	}
+
+	/**
+	 * Live messages recorded at the start of a compacted state log generation. Messages appended before the snapshot
+	 * position that are not listed were deleted.
+	 */
+	private class Snapshot implements SegmentedLog.LineConsumer {
+		private final Map<String, String[]> live = new HashMap<>();
+		private boolean present;
+		private long coveredSegmentId;
+		private long coveredOffset;
+
+		@Override
+		public boolean accept(String line, long offset, int length) {
+			String[] fields = line.split(StateLog.SEPARATOR);
+			switch(fields[0]) {
+				case StateLog.SNAPSHOT:
+					present = true;
+					coveredSegmentId = Long.parseLong(fields[1]);
+					coveredOffset = Long.parseLong(fields[2]);
+					return true;
+				case StateLog.LIVE:
+					// snapshots written before receive counts were kept count every received message once
+					live.put(fields[1], fields.length >= 4 ? new String[]{fields[2], fields[3], fields.length > 4 ? fields[4] : "1"} : new String[0]);
+					return true;
+				default:
+					// anything but a snapshot header means there is no snapshot to load
+					return false;
+			}
+		}
+
+		boolean deleted(String messageId, long segmentId, long offset) {
+			boolean covered = segmentId < coveredSegmentId || (segmentId == coveredSegmentId && offset < coveredOffset);
+			return covered && !live.containsKey(messageId);
+		}
+	}
+
+}
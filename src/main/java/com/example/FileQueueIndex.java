@@ -0,0 +1,395 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * In-memory view of a file queue built by replaying its SegmentedLog and StateLog. Holds only positions and state of
+ * the live messages, bodies stay on disk until a message is received.
+ *
+ * Visible messages are ordered by the order they were appended to the log, which is the same for every process
+ * sharing the queue. In-flight messages are handed to the DeadlineScheduler, which queues them up as expired once
+ * their visibility timeout ends; they are moved back to visible by the next caller holding the lock. Delayed messages,
+ * appended with a visibleFromTime still to come, take the same way into the visible ones, so however many there are
+ * they cost receives nothing.
+ *
+ * Messages in a group, those of FIFO queues, are kept per group as well. A group is ready while it has visible messages
+ * appended before its oldest delayed one and none in flight, and nextVisible takes from the ready groups in the order of
+ * their oldest message, so it never walks past messages of blocked groups. As in MessageGroups, a delayed message holds
+ * back the messages of its group appended after it.
+ *
+ * Segments holding deduplication ids are kept until they fall out of the DeduplicationWindow, so a process opening the
+ * queue still sees them.
+ *
+ * Not thread safe apart from the expired queue, callers are expected to hold the queue lock.
+ */
+class FileQueueIndex {
+
+	private final Map<String, Entry> byMessageId = new HashMap<>();
+	private final Map<String, Entry> byReceiptHandle = new HashMap<>();
+	private final TreeMap<Long, Entry> visible = new TreeMap<>();
+	private final ConcurrentLinkedQueue<Entry> expired = new ConcurrentLinkedQueue<>();
+	private final TreeMap<Long, Integer> liveCountBySegment = new TreeMap<>();
+	private final Map<Long, Long> keepSegmentUntil = new HashMap<>();
+	private final Map<String, Group> groups = new HashMap<>();
+	private final TreeMap<Long, Group> readyGroups = new TreeMap<>();
+	private final DeadlineScheduler scheduler;
+	private final Runnable onExpired;
+	private long nextSeq;
+	private int inFlightCount;
+	private int delayedCount;
+
+	/**
+	 * @param onExpired run on the scheduler thread whenever an in-flight message was queued up as expired
+	 */
+	FileQueueIndex(DeadlineScheduler scheduler, Runnable onExpired) {
+		this.scheduler = scheduler;
+		this.onExpired = onExpired;
+	}
+
+	void segmentSeen(long segmentId) {
+		liveCountBySegment.putIfAbsent(segmentId, 0);
+	}
+
+	/**
+	 * @param visibleFromTime when the message becomes visible, later than now when it was delayed
+	 * @param messageGroupId  null unless the message is in a group
+	 */
+	Entry add(String messageId, long segmentId, long offset, int length, long creationTime, long visibleFromTime, String messageGroupId, long now) {
+		Entry entry = new Entry(messageId, segmentId, offset, length, creationTime, nextSeq++);
+		if(messageGroupId != null) {
+			entry.group = groups.computeIfAbsent(messageGroupId, Group::new);
+		}
+		byMessageId.put(messageId, entry);
+		if(visibleFromTime > now) {
+			entry.visibleFromTime = visibleFromTime;
+			setDelayed(entry, true);
+		}
+		showAt(entry, visibleFromTime, now);
+		liveCountBySegment.merge(segmentId, 1, Integer::sum);
+		return entry;
+	}
+
+	void receive(Entry entry, String receiptHandle, long visibleFromTime, long now) {
+		hide(entry);
+		setDelayed(entry, false);
+		if(entry.receiptHandle != null) {
+			byReceiptHandle.remove(entry.receiptHandle);
+		}
+		entry.receiptHandle = receiptHandle;
+		entry.visibleFromTime = visibleFromTime;
+		entry.receiveCount++;
+		byReceiptHandle.put(receiptHandle, entry);
+		setInFlight(entry, visibleFromTime > now);
+		showAt(entry, visibleFromTime, now);
+	}
+
+	/**
+	 * Moves the end of the visibility timeout of a received entry, keeping its receipt handle and receive count.
+	 */
+	void changeVisibility(Entry entry, long visibleFromTime, long now) {
+		entry.visibleFromTime = visibleFromTime;
+		if(visibleFromTime <= now) {
+			setInFlight(entry, false);
+		}
+		showAt(entry, visibleFromTime, now);
+	}
+
+	private void showAt(Entry entry, long visibleFromTime, long now) {
+		if(visibleFromTime <= now) {
+			show(entry);
+		} else {
+			scheduler.schedule(visibleFromTime, tickTime -> {
+				expired.offer(entry);
+				onExpired.run();
+			});
+		}
+	}
+
+	Entry remove(String messageId) {
+		Entry entry = byMessageId.remove(messageId);
+		if(entry == null) {
+			return null;
+		}
+		hide(entry);
+		setInFlight(entry, false);
+		setDelayed(entry, false);
+		if(entry.receiptHandle != null) {
+			byReceiptHandle.remove(entry.receiptHandle);
+		}
+		liveCountBySegment.computeIfPresent(entry.segmentId, (id, count) -> count - 1);
+		if(entry.group != null && entry.group.visible.isEmpty() && entry.group.inFlight == 0 && entry.group.delayed.isEmpty()) {
+			groups.remove(entry.group.id);
+		}
+		return entry;
+	}
+
+	/**
+	 * Moves in-flight messages whose visibility timeout has passed back to visible and returns up to maxEntries of the
+	 * oldest visible ones. Messages in groups only come from ready groups, several of one group in order.
+	 */
+	List<Entry> nextVisible(long now, int maxEntries) {
+		showExpired(now);
+		List<Entry> next = new ArrayList<>(Math.min(maxEntries, visible.size()));
+		if(groups.isEmpty()) {
+			take(visible.values(), maxEntries, next);
+			return next;
+		}
+		for(Group group : readyGroups.values()) {
+			if(next.size() == maxEntries) {
+				break;
+			}
+			take(group.undelayed().values(), maxEntries, next);
+		}
+		return next;
+	}
+
+	/**
+	 * Visible messages, counting those whose visibility timeout or delay ended by now.
+	 */
+	int visibleCount(long now) {
+		showExpired(now);
+		return visible.size();
+	}
+
+	int inFlightCount(long now) {
+		showExpired(now);
+		return inFlightCount;
+	}
+
+	int delayedCount(long now) {
+		showExpired(now);
+		return delayedCount;
+	}
+
+	/**
+	 * Creation time of the first visible message in log order, 0 when there is none.
+	 */
+	long oldestCreationTime(long now) {
+		showExpired(now);
+		Map.Entry<Long, Entry> first = visible.firstEntry();
+		return first == null ? 0 : first.getValue().creationTime;
+	}
+
+	private void showExpired(long now) {
+		Entry entry;
+		while((entry = expired.poll()) != null) {
+			// skip entries deleted, or received again with a later timeout, since they were scheduled
+			if(byMessageId.get(entry.messageId) == entry && entry.visibleFromTime <= now && (entry.inFlight || entry.delayed)) {
+				setInFlight(entry, false);
+				setDelayed(entry, false);
+				show(entry);
+			}
+		}
+	}
+
+	private static void take(Collection<Entry> entries, int maxEntries, List<Entry> next) {
+		for(Entry entry : entries) {
+			if(next.size() == maxEntries) {
+				break;
+			}
+			next.add(entry);
+		}
+	}
+
+	/**
+	 * Up to maxEntries messages created before createdBefore. Visible ones are looked for at the head of the log
+	 * order only, which is close enough to the order of creation.
+	 */
+	Collection<Entry> createdBefore(long createdBefore, int maxEntries) {
+		LinkedHashSet<Entry> found = new LinkedHashSet<>();
+		for(Entry entry : visible.values()) {
+			if(found.size() == maxEntries || entry.creationTime >= createdBefore) {
+				break;
+			}
+			found.add(entry);
+		}
+		for(Entry entry : byReceiptHandle.values()) {
+			if(found.size() == maxEntries) {
+				break;
+			}
+			if(entry.creationTime < createdBefore) {
+				found.add(entry);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Removes every message appended before the given position of the log.
+	 */
+	void removeAppendedBefore(long segmentId, long offset) {
+		List<String> purged = new ArrayList<>();
+		for(Entry entry : byMessageId.values()) {
+			if(entry.segmentId < segmentId || (entry.segmentId == segmentId && entry.offset < offset)) {
+				purged.add(entry.messageId);
+			}
+		}
+		purged.forEach(this::remove);
+	}
+
+	Entry byMessageId(String messageId) {
+		return byMessageId.get(messageId);
+	}
+
+	Entry byReceiptHandle(String receiptHandle) {
+		return byReceiptHandle.get(receiptHandle);
+	}
+
+	/**
+	 * Segments older than the active one that no longer hold any live message, nor deduplication ids still needed at now.
+	 */
+	List<Long> deadSegments(long activeSegmentId, long now) {
+		List<Long> dead = new ArrayList<>();
+		liveCountBySegment.headMap(activeSegmentId).forEach((id, count) -> {
+			if(count <= 0 && keepSegmentUntil.getOrDefault(id, Long.MIN_VALUE) < now) {
+				dead.add(id);
+			}
+		});
+		return dead;
+	}
+
+	void keepSegment(long segmentId, long until) {
+		keepSegmentUntil.merge(segmentId, until, Math::max);
+	}
+
+	void forgetSegment(long segmentId) {
+		liveCountBySegment.remove(segmentId);
+		keepSegmentUntil.remove(segmentId);
+	}
+
+	/**
+	 * Live messages in log order.
+	 */
+	Collection<Entry> entries() {
+		List<Entry> entries = new ArrayList<>(byMessageId.values());
+		entries.sort(Comparator.comparingLong(e -> e.seq));
+		return entries;
+	}
+
+	int size() {
+		return byMessageId.size();
+	}
+
+	private void show(Entry entry) {
+		visible.put(entry.seq, entry);
+		if(entry.group != null) {
+			entry.group.visible.put(entry.seq, entry);
+			refresh(entry.group);
+		}
+	}
+
+	private void hide(Entry entry) {
+		visible.remove(entry.seq);
+		if(entry.group != null) {
+			entry.group.visible.remove(entry.seq);
+			refresh(entry.group);
+		}
+	}
+
+	private void setInFlight(Entry entry, boolean inFlight) {
+		if(entry.inFlight == inFlight) {
+			return;
+		}
+		entry.inFlight = inFlight;
+		inFlightCount += inFlight ? 1 : -1;
+		if(entry.group != null) {
+			entry.group.inFlight += inFlight ? 1 : -1;
+			refresh(entry.group);
+		}
+	}
+
+	private void setDelayed(Entry entry, boolean delayed) {
+		if(entry.delayed == delayed) {
+			return;
+		}
+		entry.delayed = delayed;
+		delayedCount += delayed ? 1 : -1;
+		if(entry.group != null) {
+			if(delayed) {
+				entry.group.delayed.add(entry.seq);
+			} else {
+				entry.group.delayed.remove(entry.seq);
+			}
+			refresh(entry.group);
+		}
+	}
+
+	/**
+	 * Keeps the group among the ready ones, under the sequence of its oldest message, exactly while it is ready.
+	 */
+	private void refresh(Group group) {
+		if(group.readyAt != null) {
+			readyGroups.remove(group.readyAt);
+			group.readyAt = null;
+		}
+		if(group.inFlight == 0 && !group.undelayed().isEmpty()) {
+			group.readyAt = group.visible.firstKey();
+			readyGroups.put(group.readyAt, group);
+		}
+	}
+
+	static class Entry {
+		final String messageId;
+		final long segmentId;
+		final long offset;
+		final int length;
+		final long creationTime;
+		final long seq;
+		String receiptHandle;
+		long visibleFromTime;
+		int receiveCount;
+		private Group group;
+		private boolean inFlight;
+		private boolean delayed;
+
+		private Entry(String messageId, long segmentId, long offset, int length, long creationTime, long seq) {
+			this.messageId = messageId;
+			this.segmentId = segmentId;
+			this.offset = offset;
+			this.length = length;
+			this.creationTime = creationTime;
+			this.seq = seq;
+		}
+
+		String messageGroupId() {
+			return group == null ? null : group.id;
+		}
+
+		/**
+		 * Whether the entry is received and its visibility timeout did not end by now.
+		 */
+		boolean isInFlight(long now) {
+			return inFlight && visibleFromTime > now;
+		}
+	}
+
+	private static class Group {
+		private final String id;
+		private final TreeMap<Long, Entry> visible = new TreeMap<>();
+		private final TreeSet<Long> delayed = new TreeSet<>();
+		private int inFlight;
+		private Long readyAt;
+
+		private Group(String id) {
+			this.id = id;
+		}
+
+		/**
+		 * The visible messages appended before the oldest delayed one.
+		 */
+		private SortedMap<Long, Entry> undelayed() {
+			return delayed.isEmpty() ? visible : visible.headMap(delayed.first());
+		}
+	}
+
+}
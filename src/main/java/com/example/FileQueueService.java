@@ -1,35 +1,154 @@
 package com.example;
 
 import com.amazonaws.services.sqs.model.Message;
-import static org.apache.commons.lang3.StringUtils.*;
-import org.apache.commons.lang3.StringUtils;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import static java.nio.file.StandardOpenOption.*;
 
-class FileQueueService implements QueueService {
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Queues are spread over one or more base paths, typically on different disks, by the hash of their name. Each base
+ * path is a shard with its own lock for setting up queue directories.
+ *
+ * With more than one partition every queue is that many independent file queues, each placed by the hash of its own
+ * name, so a hot queue is spread over the shards as well. Pushes and pulls go round robin over the partitions, and
+ * receipt handles name the partition the message came from. Ordering only holds within a partition, so the messages of
+ * a FIFO queue go to the partition of their group, and are deduplicated within it.
+ *
+ * Time spent waiting for queue locks, bytes written to and read from the logs and deletes whose receipt handle was not
+ * current are metered per service, and read through registerMetrics.
+ */
+class FileQueueService implements QueueService, InstrumentedQueueService {
 
 	private static final String BASE_PATH = System.getProperty("fileQueueService.basePath");
-	private static final String UNIVERSAL_LOCK = BASE_PATH + "/universal-lock";
+	private static final List<Path> BASE_PATHS = Stream.of(System.getProperty("fileQueueService.basePaths", BASE_PATH).split(","))
+			.map(String::trim).filter(path -> !path.isEmpty()).map(path -> Paths.get(path)).collect(Collectors.toList());
+	private static final int PARTITIONS = Integer.getInteger("fileQueueService.partitions", 1);
+	private static final String LOCK_FILE = "queue.lock";
+	private static final String SHARD_LOCK_FILE = "universal.lock";
+	private static final char PARTITION_SEPARATOR = '#';
 	private static final int DEFAULT_VISIBILITY_TIMEOUT = Integer.valueOf(System.getProperty("visibility.timeout.sec"));
+	private static final long MAX_SEGMENT_BYTES = Long.getLong("fileQueueService.segment.max.bytes", 64 * 1024 * 1024);
+	private static final long LOCK_TIMEOUT_MS = Long.getLong("fileQueueService.lock.timeout.ms", 10000);
+	private static final long STATE_COMPACTION_BYTES = Long.getLong("fileQueueService.state.compaction.bytes", 1024 * 1024);
+	private static final boolean MAPPED_SEGMENTS = Boolean.getBoolean("fileQueueService.segment.mmap");
+	private static final Fsync FSYNC = Fsync.valueOf(System.getProperty("fileQueueService.fsync", "never").toUpperCase());
+	private static final long FSYNC_INTERVAL_MS = Long.getLong("fileQueueService.fsync.interval.ms", 1000);
+	private static final int MAX_CACHED_QUEUES = Integer.getInteger("fileQueueService.index.cache.queues", 1024);
+	private static final long EXPIRY_INTERVAL_NANOS = MILLISECONDS.toNanos(Long.getLong("fileQueueService.expiry.interval.ms", 60000));
+	private static final int EXPIRY_BATCH_SIZE = 1000;
+	private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "file-queue-compactor");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final ScheduledExecutorService SYNCER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "file-queue-syncer");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	static {
 		setupBaseDirIfAbsent(BASE_PATH);
+		for(Path basePath : BASE_PATHS) {
+			QueueLock.recoverLegacyLock(basePath.resolve("universal-lock"));
+		}
 	}
 
 	private UniversalUniqueIdGenerator idGenerator;
+	private final long maxSegmentBytes;
+	private final boolean mappedSegments;
+	private final Fsync fsync;
+	private final long fsyncIntervalMillis;
+	private final int maxCachedQueues;
+	private final List<Path> basePaths;
+	private final int partitions;
+	private final ConcurrentHashMap<String, AtomicInteger> nextPartition = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, CachedQueue> queues = new ConcurrentHashMap<>();
+	private final AtomicBoolean pendingEviction = new AtomicBoolean();
+	private final ConcurrentHashMap<String, QueueLock> queueLocks = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, GroupCommit> groupCommits = new ConcurrentHashMap<>();
+	private final Set<String> pendingCompactions = ConcurrentHashMap.newKeySet();
+	private final Set<String> pendingSyncs = ConcurrentHashMap.newKeySet();
+	private final ConcurrentHashMap<String, RuntimeException> syncFailures = new ConcurrentHashMap<>();
+	private final Set<String> pendingExpiries = ConcurrentHashMap.newKeySet();
+	private final LatencyHistogram lockWait = new LatencyHistogram();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder unknownReceiptHandles = new LongAdder();
 
 	FileQueueService(UniversalUniqueIdGenerator idGenerator) {
+		this(idGenerator, MAX_SEGMENT_BYTES);
+	}
+
+	FileQueueService(UniversalUniqueIdGenerator idGenerator, long maxSegmentBytes) {
+		this(idGenerator, maxSegmentBytes, MAPPED_SEGMENTS);
+	}
+
+	/**
+	 * @param mappedSegments whether segments are memory mapped rather than read and written through file channels
+	 */
+	FileQueueService(UniversalUniqueIdGenerator idGenerator, long maxSegmentBytes, boolean mappedSegments) {
+		this(idGenerator, maxSegmentBytes, mappedSegments, FSYNC, FSYNC_INTERVAL_MS);
+	}
+
+	/**
+	 * @param fsyncIntervalMillis how long pushes may stay unsynced with Fsync.INTERVAL
+	 */
+	FileQueueService(UniversalUniqueIdGenerator idGenerator, long maxSegmentBytes, boolean mappedSegments, Fsync fsync, long fsyncIntervalMillis) {
+		this(idGenerator, maxSegmentBytes, mappedSegments, fsync, fsyncIntervalMillis, MAX_CACHED_QUEUES);
+	}
+
+	/**
+	 * @param maxCachedQueues how many queues keep their index in memory, the least recently used are closed beyond that
+	 */
+	FileQueueService(UniversalUniqueIdGenerator idGenerator, long maxSegmentBytes, boolean mappedSegments, Fsync fsync, long fsyncIntervalMillis,
+			int maxCachedQueues) {
+		this(idGenerator, maxSegmentBytes, mappedSegments, fsync, fsyncIntervalMillis, maxCachedQueues, BASE_PATHS, PARTITIONS);
+	}
+
+	/**
+	 * @param basePaths  the shards, queues stay where they are only as long as this list does not change
+	 * @param partitions how many file queues make up every queue
+	 */
+	FileQueueService(UniversalUniqueIdGenerator idGenerator, long maxSegmentBytes, boolean mappedSegments, Fsync fsync, long fsyncIntervalMillis,
+			int maxCachedQueues, List<Path> basePaths, int partitions) {
+		if(basePaths.isEmpty()) {
+			throw new IllegalArgumentException("At least one base path is required");
+		}
+		if(partitions < 1) {
+			throw new IllegalArgumentException("Partitions must be at least 1: " + partitions);
+		}
 		this.idGenerator = idGenerator;
+		this.maxCachedQueues = maxCachedQueues;
+		this.basePaths = new ArrayList<>(basePaths);
+		this.partitions = partitions;
+		this.maxSegmentBytes = maxSegmentBytes;
+		this.mappedSegments = mappedSegments;
+		this.fsync = fsync;
+		this.fsyncIntervalMillis = fsyncIntervalMillis;
 	}
 
 	static void setupBaseDirIfAbsent(String basePath) {
@@ -48,24 +167,37 @@ class FileQueueService implements QueueService {
 	@Override
 	public void push(String qUrl, String body) {
 		String qName = fromQueueUrl(qUrl);
+		QueueService.checkMessageGroup(qName, null);
+		String partition = partitionName(qName, nextPartition(qName));
 
-		setupQueueDirectoryIfAbsent(qName);
+		setupQueueDirectoryIfAbsent(partition);
 		String messageId = idGenerator.nextValue();
-		lockQ(qName);
-		try {
-			appendRecordToFile(qName, Record.toRecord(messageId, body));
-		} finally {
-			unlockQ(qName);
-		}
+		groupCommit(partition).submit(Collections.singletonList(Record.toRecord(messageId, body)));
+		signal(qName).signal();
 	}
 
-	private void appendRecordToFile(String qName, Record record) {
-		Path messagePath = Paths.get(BASE_PATH, qName, "messages");
-		try {
-			Files.write(messagePath, record.toLine().getBytes(), APPEND);
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+	@Override
+	public void push(String qUrl, String messageBody, int delaySeconds) {
+		String qName = fromQueueUrl(qUrl);
+		QueueService.checkMessageGroup(qName, null);
+		QueueService.checkDelay(delaySeconds);
+		String partition = partitionName(qName, nextPartition(qName));
+
+		setupQueueDirectoryIfAbsent(partition);
+		groupCommit(partition).submit(Collections.singletonList(Record.toRecord(idGenerator.nextValue(), messageBody).withDelay(delaySeconds)));
+		signal(qName).signal();
+	}
+
+	@Override
+	public void push(String qUrl, String messageBody, String messageGroupId, String messageDeduplicationId) {
+		String qName = fromQueueUrl(qUrl);
+		QueueService.checkMessageGroup(qName, messageGroupId);
+		String partition = partitionName(qName, Math.floorMod(messageGroupId.hashCode(), partitions));
+
+		setupQueueDirectoryIfAbsent(partition);
+		Record record = Record.toRecord(idGenerator.nextValue(), messageBody).inGroup(messageGroupId, messageDeduplicationId);
+		groupCommit(partition).submit(Collections.singletonList(record));
+		signal(qName).signal();
 	}
 
 	@Override
@@ -74,83 +206,530 @@ class FileQueueService implements QueueService {
 	}
 
 	Optional<Message> pull(String qUrl, int visibilityTimeout) {
+		return receive(qUrl, 1, visibilityTimeout).stream().findFirst();
+	}
+
+	/**
+	 * Between attempts the consumer sleeps until this or another process pushes to the queue, or a visibility timeout
+	 * known to this process ends.
+	 */
+	@Override
+	public Optional<Message> pull(String qUrl, long waitTime, TimeUnit unit) {
+		QueueService.checkWaitTime(waitTime, unit);
+		String qName = fromQueueUrl(qUrl);
+		QueueSignal signal = signal(qName);
+		long deadline = System.nanoTime() + unit.toNanos(waitTime);
+		while(true) {
+			// watching before reading, so a push landing in between is not missed
+			for(String partition : partitionNames(qName)) {
+				setupQueueDirectoryIfAbsent(partition);
+				FileQueueWatcher.shared().watch(queuePath(partition));
+			}
+			long version = signal.startWaiting();
+			try {
+				Optional<Message> message = pull(qUrl);
+				if(message.isPresent() || !signal.await(version, deadline - System.nanoTime(), NANOSECONDS)) {
+					return message;
+				}
+			} finally {
+				signal.stopWaiting();
+			}
+		}
+	}
+
+	@Override
+	public void delete(String qUrl, String receiptHandler) {
+		deleteAll(qUrl, Collections.singletonList(receiptHandler));
+	}
+
+	@Override
+	public void pushBatch(String qUrl, List<String> messageBodies) {
+		QueueService.checkBatchSize(messageBodies.size());
 		String qName = fromQueueUrl(qUrl);
+		QueueService.checkMessageGroup(qName, null);
+		String partition = partitionName(qName, nextPartition(qName));
+
+		setupQueueDirectoryIfAbsent(partition);
+		List<Record> records = new ArrayList<>(messageBodies.size());
+		for(String body : messageBodies) {
+			records.add(Record.toRecord(idGenerator.nextValue(), body));
+		}
+		groupCommit(partition).submit(records);
+		signal(qName).signalAll();
+	}
+
+	@Override
+	public List<Message> pullBatch(String qUrl, int maxMessages) {
+		return pullBatch(qUrl, maxMessages, DEFAULT_VISIBILITY_TIMEOUT);
+	}
+
+	List<Message> pullBatch(String qUrl, int maxMessages, int visibilityTimeout) {
+		QueueService.checkBatchSize(maxMessages);
+		return receive(qUrl, maxMessages, visibilityTimeout);
+	}
+
+	@Override
+	public void deleteBatch(String qUrl, List<String> receiptHandlers) {
+		QueueService.checkBatchSize(receiptHandlers.size());
+		deleteAll(qUrl, receiptHandlers);
+	}
+
+	@Override
+	public boolean changeMessageVisibility(String qUrl, String receiptHandler, int visibilityTimeout) {
+		return changeVisibility(qUrl, Collections.singletonList(receiptHandler), visibilityTimeout).isEmpty();
+	}
+
+	@Override
+	public List<String> changeMessageVisibilityBatch(String qUrl, List<String> receiptHandlers, int visibilityTimeout) {
+		QueueService.checkBatchSize(receiptHandlers.size());
+		return changeVisibility(qUrl, receiptHandlers, visibilityTimeout);
+	}
+
+	@Override
+	public void registerMetrics(MetricsRegistry registry) {
+		registry.histogram(null, "lockWait", lockWait);
+		registry.counter(null, "bytesWritten", bytesWritten);
+		registry.counter(null, "bytesRead", bytesRead);
+		registry.counter(null, "unknownReceiptHandles", unknownReceiptHandles);
+	}
+
+	/**
+	 * Depth gauges, and corrupt records skipped while reading the segments, summed over the partitions, each read under
+	 * the queue lock.
+	 */
+	@Override
+	public void registerQueueMetrics(String qUrl, MetricsRegistry registry) {
+		String qName = fromQueueUrl(qUrl);
+		registry.gauge(qName, "visibleMessages", () -> count(qName, FileQueue::visibleCount));
+		registry.gauge(qName, "inFlightMessages", () -> count(qName, FileQueue::inFlightCount));
+		registry.gauge(qName, "delayedMessages", () -> count(qName, FileQueue::delayedCount));
+		registry.gauge(qName, "corruptRecords", () -> count(qName, FileQueue::corruptRecords));
+	}
+
+	private long count(String qName, ToLongFunction<FileQueue> count) {
+		long total = 0;
+		for(String partition : partitionNames(qName)) {
+			if(Files.notExists(queuePath(partition))) {
+				continue;
+			}
+			lockQ(partition);
+			try {
+				total += count.applyAsLong(queue(partition));
+			} finally {
+				unlockQ(partition);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Validated up front, so an invalid change is not applied to some partitions only.
+	 */
+	@Override
+	public void setQueueAttributes(String qUrl, Map<String, String> attributes) {
+		QueueAttributes.defaults().with(attributes);
+		for(String partition : partitionNames(fromQueueUrl(qUrl))) {
+			setupQueueDirectoryIfAbsent(partition);
+			lockQ(partition);
+			try {
+				queue(partition).setAttributes(attributes);
+			} finally {
+				unlockQ(partition);
+			}
+		}
+	}
+
+	/**
+	 * Counts summed over the partitions, each read under the queue lock from its index, which keeps them as the logs are
+	 * replayed. Only a partition not cached yet has its logs read in full.
+	 */
+	@Override
+	public Map<String, String> getQueueAttributes(String qUrl) {
+		QueueAttributes attributes = null;
+		long visible = 0, inFlight = 0, delayed = 0, oldestCreationTime = 0;
+		for(String partition : partitionNames(fromQueueUrl(qUrl))) {
+			if(Files.notExists(queuePath(partition))) {
+				continue;
+			}
+			lockQ(partition);
+			try {
+				FileQueue queue = queue(partition);
+				if(attributes == null) {
+					attributes = queue.attributes();
+				}
+				visible += queue.visibleCount();
+				inFlight += queue.inFlightCount();
+				delayed += queue.delayedCount();
+				long creationTime = queue.oldestCreationTime();
+				if(creationTime != 0 && (oldestCreationTime == 0 || creationTime < oldestCreationTime)) {
+					oldestCreationTime = creationTime;
+				}
+			} finally {
+				unlockQ(partition);
+			}
+		}
+		return (attributes == null ? QueueAttributes.defaults() : attributes)
+				.withDepth(visible, inFlight, delayed, oldestCreationTime, System.currentTimeMillis());
+	}
+
+	@Override
+	public void purge(String qUrl) {
+		for(String partition : partitionNames(fromQueueUrl(qUrl))) {
+			if(Files.notExists(queuePath(partition))) {
+				continue;
+			}
+			boolean needsCompaction;
+			lockQ(partition);
+			try {
+				FileQueue queue = queue(partition);
+				queue.purge();
+				needsCompaction = queue.needsCompaction();
+			} finally {
+				unlockQ(partition);
+			}
+			if(needsCompaction) {
+				scheduleCompaction(partition);
+			}
+		}
+	}
+
+	private GroupCommit groupCommit(String qName) {
+		return groupCommits.computeIfAbsent(qName, name -> new GroupCommit(records -> commit(name, records)));
+	}
+
+	/**
+	 * Appends the pushes gathered by the GroupCommit of the queue with a single write, and syncs them as the fsync
+	 * policy asks. After a background sync failed the pushes it covered are synced again first, and when that fails
+	 * too these pushes fail with it.
+	 */
+	private void commit(String qName, List<Record> records) {
 		lockQ(qName);
 		try {
-			List<Record> records = readAllRecordsFromFile(qName);
-			Optional<Record> nextVisibleRecord = records.stream().filter(Record::isVisible).findFirst();
-			if (!nextVisibleRecord.isPresent()) {
-				return Optional.empty();
+			FileQueue queue = queue(qName);
+			RuntimeException syncFailure = syncFailures.remove(qName);
+			if(syncFailure != null) {
+				try {
+					queue.sync();
+				} catch (RuntimeException e) {
+					syncFailures.put(qName, syncFailure);
+					throw new IllegalStateException("Syncing queue " + qName + " failed, pushes since its last sync may be lost", e);
+				}
+			}
+			queue.push(records);
+			if(fsync == Fsync.ALWAYS) {
+				queue.sync();
 			}
+		} finally {
+			unlockQ(qName);
+		}
+		if(fsync == Fsync.INTERVAL) {
+			scheduleSync(qName);
+		}
+	}
+
+	/**
+	 * At most one sync per queue is pending at a time, it covers every push committed before it runs. A failure is kept
+	 * for the next commit to the queue, see commit.
+	 */
+	private void scheduleSync(String qName) {
+		if(!pendingSyncs.add(qName)) {
+			return;
+		}
+		SYNCER.schedule(() -> {
+			pendingSyncs.remove(qName);
+			if(Files.notExists(queuePath(qName))) {
+				return;
+			}
+			lockQ(qName);
+			try {
+				queue(qName).sync();
+			} catch (RuntimeException e) {
+				// reported by the next push to the queue
+				syncFailures.put(qName, e);
+			} finally {
+				unlockQ(qName);
+			}
+		}, fsyncIntervalMillis, MILLISECONDS);
+	}
+
+	/**
+	 * Takes from the partitions in turn, starting at the next one, until maxMessages are received.
+	 */
+	private List<Message> receive(String qUrl, int maxMessages, int visibilityTimeout) {
+		String qName = fromQueueUrl(qUrl);
+		if(partitions == 1) {
+			return receiveFromPartition(qName, "RH-", maxMessages, visibilityTimeout);
+		}
+		int first = nextPartition(qName);
+		List<Message> messages = new ArrayList<>();
+		for(int i = 0; i < partitions && messages.size() < maxMessages; i++) {
+			int partition = (first + i) % partitions;
+			messages.addAll(receiveFromPartition(partitionName(qName, partition), "RH" + partition + "-", maxMessages - messages.size(), visibilityTimeout));
+		}
+		return messages;
+	}
+
+	/**
+	 * Messages due for the dead letter queue are moved there after the lock is released, and the receive is tried again
+	 * when they were all it found.
+	 */
+	private List<Message> receiveFromPartition(String partition, String receiptHandlePrefix, int maxMessages, int visibilityTimeout) {
+		if(Files.notExists(queuePath(partition))) {
+			return Collections.emptyList();
+		}
+		while(true) {
+			List<Record> deadLetters = new ArrayList<>();
+			List<Message> messages;
+			String deadLetterQueue;
+			lockQ(partition);
+			try {
+				FileQueue queue = queue(partition);
+				messages = queue.receive(maxMessages, visibilityTimeout, () -> receiptHandlePrefix + idGenerator.nextValue(), deadLetters);
+				deadLetterQueue = queue.attributes().deadLetterQueue();
+			} finally {
+				unlockQ(partition);
+			}
+			if(deadLetters.isEmpty()) {
+				return messages;
+			}
+			moveToDeadLetterQueue(partition, deadLetterQueue, deadLetters);
+			if(!messages.isEmpty()) {
+				return messages;
+			}
+		}
+	}
 
-			nextVisibleRecord.get().setDelayInSec(visibilityTimeout);
-			String receiptHandle = "RH-" + idGenerator.nextValue();
-			nextVisibleRecord.get().getMessage().setReceiptHandle(receiptHandle);
-			writeRecordsToFile(qName, records);
+	/**
+	 * Appends the records to the dead letter queue, then deletes them here. Holding one queue lock at a time rules out
+	 * lock order deadlocks between queues redriving to each other; a crash in between only leaves a message in both.
+	 *
+	 * A FIFO dead letter queue gets them in their group, or in a group of their own when they had none.
+	 */
+	private void moveToDeadLetterQueue(String partition, String deadLetterQueue, List<Record> records) {
+		long now = System.currentTimeMillis();
+		boolean fifo = QueueService.isFifo(deadLetterQueue);
+		Map<String, List<Record>> movedByTarget = new TreeMap<>();
+		List<String> receiptHandles = new ArrayList<>(records.size());
+		for(Record record : records) {
+			Message message = record.getMessage();
+			Record moved = Record.toRecord(message.getMessageId(), message.getBody(), record.getCreationTime(), now);
+			String target;
+			if(fifo) {
+				String groupId = record.getMessageGroupId() != null ? record.getMessageGroupId() : message.getMessageId();
+				moved.inGroup(groupId, null);
+				target = partitionName(deadLetterQueue, Math.floorMod(groupId.hashCode(), partitions));
+			} else {
+				target = partitionName(deadLetterQueue, nextPartition(deadLetterQueue));
+			}
+			movedByTarget.computeIfAbsent(target, name -> new ArrayList<>()).add(moved);
+			receiptHandles.add(message.getReceiptHandle());
+		}
+		movedByTarget.forEach((target, moved) -> {
+			setupQueueDirectoryIfAbsent(target);
+			groupCommit(target).submit(moved);
+		});
+		signal(deadLetterQueue).signalAll();
+		deleteFromPartition(partition, receiptHandles);
+	}
 
-			return Optional.of(nextVisibleRecord.get().getMessage().clone());
+	private List<String> changeVisibility(String qUrl, List<String> receiptHandlers, int visibilityTimeout) {
+		QueueService.checkVisibilityTimeout(visibilityTimeout);
+		String qName = fromQueueUrl(qUrl);
+		List<String> failed;
+		if(partitions == 1) {
+			failed = changeVisibilityInPartition(qName, receiptHandlers, visibilityTimeout);
+		} else {
+			failed = new ArrayList<>();
+			Map<Integer, List<String>> byPartition = receiptHandlers.stream()
+					.collect(Collectors.groupingBy(this::partitionOf, TreeMap::new, Collectors.toList()));
+			for(Map.Entry<Integer, List<String>> partition : byPartition.entrySet()) {
+				failed.addAll(changeVisibilityInPartition(partitionName(qName, partition.getKey()), partition.getValue(), visibilityTimeout));
+			}
+		}
+		if(visibilityTimeout == 0 && failed.size() < receiptHandlers.size()) {
+			signal(qName).signalAll();
+		}
+		return failed;
+	}
+
+	private List<String> changeVisibilityInPartition(String qName, List<String> receiptHandlers, int visibilityTimeout) {
+		if(Files.notExists(queuePath(qName))) {
+			return new ArrayList<>(receiptHandlers);
+		}
+		lockQ(qName);
+		try {
+			return queue(qName).changeVisibility(receiptHandlers, visibilityTimeout);
 		} finally {
 			unlockQ(qName);
 		}
 	}
 
-	@Override
-	public void delete(String qUrl, String receiptHandler) {
+	private void deleteAll(String qUrl, List<String> receiptHandlers) {
 		String qName = fromQueueUrl(qUrl);
+		if(partitions == 1) {
+			deleteFromPartition(qName, receiptHandlers);
+			return;
+		}
+		Map<Integer, List<String>> byPartition = receiptHandlers.stream()
+				.collect(Collectors.groupingBy(this::partitionOf, TreeMap::new, Collectors.toList()));
+		byPartition.forEach((partition, partitionReceiptHandlers) -> deleteFromPartition(partitionName(qName, partition), partitionReceiptHandlers));
+	}
+
+	private void deleteFromPartition(String qName, List<String> receiptHandlers) {
+		if(Files.notExists(queuePath(qName))) {
+			return;
+		}
+		boolean needsCompaction;
 		lockQ(qName);
 		try {
-			List<Record> records = readAllRecordsFromFile(qName);
-			Optional<Record> recordToDelete = records.stream()
-					.filter(r -> isNotBlank(r.getMessage().getReceiptHandle()) && r.getMessage().getReceiptHandle().equals(receiptHandler))
-					.findFirst();
-			if(!recordToDelete.isPresent()) {
-				System.out.println("Message with receiptHandler " + receiptHandler + " is not available for deletion. Visibility timeout might have been executed");
-				return;
-			}
-			records.remove(recordToDelete.get());
-			writeRecordsToFile(qName, records);
+			FileQueue queue = queue(qName);
+			// handles of messages deleted already or received again after their visibility timeout
+			unknownReceiptHandles.add(queue.delete(receiptHandlers).size());
+			needsCompaction = queue.needsCompaction();
 		} finally {
 			unlockQ(qName);
 		}
+		if(needsCompaction) {
+			scheduleCompaction(qName);
+		}
 	}
 
-	private List<Record> readAllRecordsFromFile(String qName) {
-		Path messagePath = Paths.get(BASE_PATH, qName, "messages");
-		if(Files.notExists(messagePath)) {
-			return Collections.emptyList();
+	/**
+	 * Reclaiming segments and compacting the state log happen off the caller's thread. At most one compaction per
+	 * queue is pending at a time.
+	 */
+	private void scheduleCompaction(String qName) {
+		if(!pendingCompactions.add(qName)) {
+			return;
 		}
-		try(Stream<String> stream = Files.lines(messagePath)) {
-			return stream.filter(StringUtils::isNotBlank).map(Record::fromLine).collect(Collectors.toList());
-		} catch(IOException e) {
-			throw new RuntimeException(e);
+		COMPACTOR.execute(() -> {
+			pendingCompactions.remove(qName);
+			if(Files.notExists(queuePath(qName))) {
+				return;
+			}
+			lockQ(qName);
+			try {
+				queue(qName).compact();
+			} finally {
+				unlockQ(qName);
+			}
+		});
+	}
+
+	/**
+	 * Deletes the messages of the queue that outlived the retention period, EXPIRY_BATCH_SIZE at a time so the queue
+	 * lock is never held for long. Runs on the compactor thread, which goes on with the next batch after whatever else
+	 * was queued up meanwhile. At most one expiry per queue is pending at a time.
+	 */
+	private void scheduleExpiry(String qName) {
+		if(pendingExpiries.add(qName)) {
+			COMPACTOR.execute(() -> expire(qName));
 		}
 	}
 
-	private void writeRecordsToFile(String qName, List<Record> records) {
-		Path messagePath = Paths.get(BASE_PATH, qName, "messages");
-		List<String> lines = records.stream().map(Record::toLine).collect(Collectors.toList());
+	private void expire(String qName) {
+		boolean more = false;
+		boolean needsCompaction = false;
 		try {
-			Files.write(messagePath, lines);
-		} catch(IOException e) {
-			throw new RuntimeException(e);
+			if(Files.notExists(queuePath(qName))) {
+				return;
+			}
+			lockQ(qName);
+			try {
+				FileQueue queue = queue(qName);
+				more = queue.expire(EXPIRY_BATCH_SIZE);
+				needsCompaction = queue.needsCompaction();
+			} finally {
+				unlockQ(qName);
+			}
+		} finally {
+			if(more) {
+				COMPACTOR.execute(() -> expire(qName));
+			} else {
+				pendingExpiries.remove(qName);
+			}
+		}
+		if(needsCompaction) {
+			scheduleCompaction(qName);
+		}
+	}
+
+	/**
+	 * Returns the cached FileQueue, which keeps the index of the queue up to date by only reading what was appended
+	 * since its last use. Callers must hold the queue lock.
+	 */
+	private FileQueue queue(String qName) {
+		CachedQueue cached = queues.computeIfAbsent(qName, name -> {
+			QueueLock.recoverLegacyLock(queuePath(name).resolve("lock"));
+			// binds the partitions to the signal of the whole queue before the FileQueue looks its signal up
+			signal(name.substring(0, partitionStart(name)));
+			return new CachedQueue(new FileQueue(queuePath(name), maxSegmentBytes, mappedSegments, STATE_COMPACTION_BYTES).countingBytes(bytesWritten, bytesRead));
+		});
+		long now = System.nanoTime();
+		cached.lastUsed = now;
+		if(now - cached.nextExpiry >= 0) {
+			cached.nextExpiry = now + EXPIRY_INTERVAL_NANOS;
+			scheduleExpiry(qName);
 		}
+		if(queues.size() > maxCachedQueues && pendingEviction.compareAndSet(false, true)) {
+			COMPACTOR.execute(this::evictLeastRecentlyUsed);
+		}
+		return cached.queue;
+	}
+
+	/**
+	 * Closes the least recently used queues until at most maxCachedQueues are left. Runs on the compactor thread, which
+	 * takes one queue lock at a time, as evicting a queue in use would pull it from under its lock holder.
+	 */
+	private void evictLeastRecentlyUsed() {
+		pendingEviction.set(false);
+		while(queues.size() > maxCachedQueues) {
+			String eldest = null;
+			long eldestUse = 0;
+			for(Map.Entry<String, CachedQueue> entry : queues.entrySet()) {
+				if(eldest == null || entry.getValue().lastUsed - eldestUse < 0) {
+					eldest = entry.getKey();
+					eldestUse = entry.getValue().lastUsed;
+				}
+			}
+			if(Files.notExists(queuePath(eldest))) {
+				CachedQueue deleted = queues.remove(eldest);
+				if(deleted != null) {
+					deleted.queue.close();
+				}
+				continue;
+			}
+			lockQ(eldest);
+			try {
+				CachedQueue evicted = queues.remove(eldest);
+				if(evicted != null) {
+					evicted.queue.close();
+				}
+			} finally {
+				unlockQ(eldest);
+			}
+		}
+	}
+
+	int cachedQueues() {
+		return queues.size();
 	}
 
 	private void setupQueueDirectoryIfAbsent(String qName) {
-		Path qPath = Paths.get(BASE_PATH, qName);
-		if(Files.notExists(qPath)) {
-			lock(UNIVERSAL_LOCK);
-			if(Files.exists(qPath)) {
-				unlock(UNIVERSAL_LOCK);
+		Path segmentsPath = queuePath(qName).resolve("segments");
+		if(Files.notExists(segmentsPath)) {
+			QueueLock shardLock = QueueLock.forPath(shard(qName).resolve(SHARD_LOCK_FILE));
+			shardLock.lock(LOCK_TIMEOUT_MS, MILLISECONDS);
+			if(Files.exists(segmentsPath)) {
+				shardLock.unlock();
 				return;
 			}
 			try {
-				Files.createDirectories(qPath);
-				Files.createFile(Paths.get(qPath.toString(), "messages"));
+				Files.createDirectories(segmentsPath);
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			} finally {
-				unlock(UNIVERSAL_LOCK);
+				shardLock.unlock();
 			}
 		}
 	}
@@ -159,30 +738,98 @@ class FileQueueService implements QueueService {
 		return Paths.get(queueUrl).getFileName().toString();
 	}
 
+	private Path shard(String qName) {
+		return basePaths.get(Math.floorMod(qName.hashCode(), basePaths.size()));
+	}
+
+	/**
+	 * The directory of a queue, or of one partition of it.
+	 */
+	private Path queuePath(String qName) {
+		return shard(qName).resolve(qName);
+	}
+
+	private String partitionName(String qName, int partition) {
+		return partitions == 1 ? qName : qName + PARTITION_SEPARATOR + partition;
+	}
+
+	private List<String> partitionNames(String qName) {
+		List<String> names = new ArrayList<>(partitions);
+		for(int partition = 0; partition < partitions; partition++) {
+			names.add(partitionName(qName, partition));
+		}
+		return names;
+	}
+
+	/**
+	 * Where the suffix partitionName added starts. Without partitions there is none, and a separator in the name is
+	 * part of the queue name.
+	 */
+	private int partitionStart(String name) {
+		if(partitions == 1) {
+			return name.length();
+		}
+		int separator = name.lastIndexOf(PARTITION_SEPARATOR);
+		return separator < 0 ? name.length() : separator;
+	}
+
+	private int nextPartition(String qName) {
+		if(partitions == 1) {
+			return 0;
+		}
+		return Math.floorMod(nextPartition.computeIfAbsent(qName, name -> new AtomicInteger()).getAndIncrement(), partitions);
+	}
+
+	/**
+	 * The partition named by a receipt handle of the form RH[partition]-id, 0 for any other.
+	 */
+	private int partitionOf(String receiptHandler) {
+		int separator = receiptHandler.indexOf('-');
+		if(!receiptHandler.startsWith("RH") || separator <= 2) {
+			return 0;
+		}
+		try {
+			int partition = Integer.parseInt(receiptHandler.substring(2, separator));
+			return partition >= 0 && partition < partitions ? partition : 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * One signal for all partitions of a queue, so a long poll wakes up for a push to any of them.
+	 */
+	private QueueSignal signal(String qName) {
+		return FileQueueWatcher.shared().signal(partitionNames(qName).stream().map(this::queuePath).collect(Collectors.toList()));
+	}
+
 	private void lockQ(String qName) {
-		Path lock = Paths.get(BASE_PATH, qName, "lock");
-		lock(lock.toString());
+		QueueLock lock = queueLocks.computeIfAbsent(qName, name -> QueueLock.forPath(queuePath(name).resolve(LOCK_FILE)));
+		long start = System.nanoTime();
+		lock.lock(LOCK_TIMEOUT_MS, MILLISECONDS);
+		lockWait.record(System.nanoTime() - start);
 	}
 
 	private void unlockQ(String qName) {
-		Path lock = Paths.get(BASE_PATH, qName, "lock");
-		unlock(lock.toString());
+		queueLocks.get(qName).unlock();
 	}
 
-	private void lock(String lockPath) {
-		File file = new File(lockPath);
-		while(!file.mkdirs()) {
-			try {
-				Thread.sleep(50);
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
-			}
+	private static class CachedQueue {
+		private final FileQueue queue;
+		private volatile long lastUsed;
+		private long nextExpiry = System.nanoTime();
+
+		private CachedQueue(FileQueue queue) {
+			this.queue = queue;
 		}
 	}
 
-	private void unlock(String lockPath) {
-		File file = new File(lockPath);
-		file.delete();
+	/**
+	 * When pushes are flushed to the storage device: with every commit, at most an interval after it, or whenever the
+	 * operating system gets to it.
+	 */
+	enum Fsync {
+		ALWAYS, INTERVAL, NEVER
 	}
 
 }
@@ -0,0 +1,114 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Turns pushes to a file queue by any process into QueueSignal wake ups, so long polling consumers sleep instead of
+ * taking the queue lock over and over.
+ *
+ * One WatchService per JVM watches the segment directories of queues being long polled, a single daemon thread
+ * dispatches its events. Pushes and visibility timeouts within this JVM signal directly and do not depend on it,
+ * which matters on platforms where the WatchService falls back to polling.
+ */
+class FileQueueWatcher {
+
+	private static final FileQueueWatcher SHARED = new FileQueueWatcher();
+
+	private final ConcurrentHashMap<Path, QueueSignal> signals = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Path, Watch> watches = new ConcurrentHashMap<>();
+	private WatchService watchService;
+
+	static FileQueueWatcher shared() {
+		return SHARED;
+	}
+
+	QueueSignal signal(Path qPath) {
+		return signals.computeIfAbsent(normalize(qPath), path -> new QueueSignal());
+	}
+
+	/**
+	 * One signal shared by several queue directories, such as the partitions of a queue. Directories that already
+	 * have a signal of their own keep it.
+	 */
+	QueueSignal signal(List<Path> qPaths) {
+		QueueSignal signal = signal(qPaths.get(0));
+		for(Path qPath : qPaths.subList(1, qPaths.size())) {
+			signals.putIfAbsent(normalize(qPath), signal);
+		}
+		return signal;
+	}
+
+	/**
+	 * Makes sure changes to the segment directory of the queue, which must exist, signal it.
+	 */
+	void watch(Path qPath) {
+		watches.compute(normalize(qPath), (path, watch) -> {
+			try {
+				Path segments = path.resolve("segments");
+				Object fileKey = Files.readAttributes(segments, BasicFileAttributes.class).fileKey();
+				// a queue directory deleted and created again needs registering again, even before its old key is
+				// cancelled
+				if(watch != null && watch.key.isValid() && fileKey != null && fileKey.equals(watch.fileKey)) {
+					return watch;
+				}
+				return new Watch(segments.register(watchService(), ENTRY_CREATE, ENTRY_MODIFY), fileKey);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+	}
+
+	private synchronized WatchService watchService() throws IOException {
+		if(watchService == null) {
+			watchService = FileSystems.getDefault().newWatchService();
+			Thread dispatcher = new Thread(this::dispatch, "file-queue-watcher");
+			dispatcher.setDaemon(true);
+			dispatcher.start();
+		}
+		return watchService;
+	}
+
+	private void dispatch() {
+		while(true) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			// the events themselves do not matter, including overflows, consumers re-read the queue anyway
+			key.pollEvents();
+			Path qPath = ((Path) key.watchable()).getParent();
+			if(!key.reset()) {
+				watches.computeIfPresent(qPath, (path, watch) -> watch.key == key ? null : watch);
+			}
+			signal(qPath).signalAll();
+		}
+	}
+
+	private static Path normalize(Path qPath) {
+		return qPath.toAbsolutePath().normalize();
+	}
+
+	private static class Watch {
+		private final WatchKey key;
+		private final Object fileKey;
+
+		private Watch(WatchKey key, Object fileKey) {
+			this.key = key;
+			this.fileKey = fileKey;
+		}
+	}
+
+}
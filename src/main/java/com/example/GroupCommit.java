@@ -0,0 +1,76 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Group commit of the pushes to one queue. Pushes arriving while a commit is in progress are gathered and committed
+ * together by one of their callers as soon as it is done, so under concurrency every commit, and with it every lock
+ * round trip, write and fsync, covers a growing number of pushes. Without concurrency a push commits right away.
+ *
+ * Every caller returns once its own records were committed, or throws if committing them failed.
+ */
+class GroupCommit {
+
+	private final Consumer<List<Record>> commit;
+	private Group open = new Group();
+	private boolean committing;
+
+	/**
+	 * @param commit writes a group of records, called by one thread at a time
+	 */
+	GroupCommit(Consumer<List<Record>> commit) {
+		this.commit = commit;
+	}
+
+	void submit(List<Record> records) {
+		Group group;
+		synchronized(this) {
+			group = open;
+			group.records.addAll(records);
+			while(committing && !group.done) {
+				waitForCommit();
+			}
+			if(group.done) {
+				if(group.failure != null) {
+					throw new RuntimeException("Group commit failed", group.failure);
+				}
+				return;
+			}
+			committing = true;
+			open = new Group();
+		}
+		Throwable failure = null;
+		try {
+			commit.accept(group.records);
+		} catch (Throwable e) {
+			failure = e;
+			throw e;
+		} finally {
+			// released whatever was thrown, Errors included, or every later push would wait for this commit forever
+			synchronized(this) {
+				group.done = true;
+				group.failure = failure;
+				committing = false;
+				notifyAll();
+			}
+		}
+	}
+
+	private void waitForCommit() {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static class Group {
+		private final List<Record> records = new ArrayList<>();
+		private boolean done;
+		private Throwable failure;
+	}
+
+}
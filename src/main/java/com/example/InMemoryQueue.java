@@ -0,0 +1,462 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Lock-free engine of a single in-memory queue.
+ *
+ * Visible messages sit in a ConcurrentLinkedQueue in the order they became visible, received messages are handed to
+ * the DeadlineScheduler which puts them back when their visibility timeout ends. Neither takes a lock, so pushes and
+ * receives on one queue scale across cores. Which structure owns a record is decided by compare-and-set on its state,
+ * a record found in the wrong state (deleted, or already moved) is simply skipped.
+ *
+ * Like a standard SQS queue ordering is best effort: a message whose visibility timeout expires rejoins at the tail.
+ *
+ * Messages that outlived the retention period are dropped when they are polled, and pushes sweep them from the head
+ * of the visible messages at most once every EXPIRY_SWEEP_INTERVAL_MS, so a queue nobody consumes stays bounded.
+ *
+ * With a redrive policy a message polled after being received maxReceiveCount times is handed to the dead letter sink
+ * as a fresh copy instead, and deleted here.
+ *
+ * A lease is changed under the lock of its record, which a lease and the end of its visibility timeout take as well,
+ * so a change never applies to a newer lease or to a message already visible again. A timeout only ends the lease
+ * when it is still the latest one scheduled for the record.
+ *
+ * Delayed messages are handed to the DeadlineScheduler until their delay ends, so however many there are they cost
+ * receives of visible messages nothing. A purge bumps the purge count instead of finding them, those pushed before it
+ * are dropped when their delay ends.
+ *
+ * A FIFO queue keeps its messages in MessageGroups instead of the visible queue, and drops pushes whose deduplication
+ * id it saw within the DeduplicationWindow. Outlived messages of a FIFO queue are only dropped when polled.
+ */
+class InMemoryQueue {
+
+	private static final long EXPIRY_SWEEP_INTERVAL_MS = 1000;
+
+	private final ConcurrentLinkedQueue<Record> visible = new ConcurrentLinkedQueue<>();
+	private final DeadlineScheduler scheduler;
+	private final BiConsumer<String, Record> deadLetters;
+	private final ConcurrentHashMap<String, Record> receiptHandles = new ConcurrentHashMap<>();
+	private final LongAdder visibleCount = new LongAdder();
+	private final LongAdder inFlightCount = new LongAdder();
+	private final LongAdder delayedCount = new LongAdder();
+	private final AtomicInteger purges = new AtomicInteger();
+	private final QueueSignal visibleSignal = new QueueSignal();
+	private final AtomicLong nextExpirySweep = new AtomicLong();
+	private final MessageGroups groups;
+	private final DeduplicationWindow deduplication;
+	private volatile QueueAttributes attributes = QueueAttributes.defaults();
+
+	InMemoryQueue() {
+		this(DeadlineScheduler.shared());
+	}
+
+	InMemoryQueue(DeadlineScheduler scheduler) {
+		this(scheduler, null);
+	}
+
+	/**
+	 * @param deadLetters takes the name of the dead letter queue and the record to push there, null to ignore redrive
+	 *                    policies
+	 */
+	InMemoryQueue(DeadlineScheduler scheduler, BiConsumer<String, Record> deadLetters) {
+		this(scheduler, deadLetters, false);
+	}
+
+	/**
+	 * @param fifo whether records are pushed with a message group, and received in order within their group
+	 */
+	InMemoryQueue(DeadlineScheduler scheduler, BiConsumer<String, Record> deadLetters, boolean fifo) {
+		this.scheduler = scheduler;
+		this.deadLetters = deadLetters;
+		this.groups = fifo ? new MessageGroups() : null;
+		this.deduplication = fifo ? new DeduplicationWindow() : null;
+	}
+
+	void push(Record record) {
+		record.delay(attributes.delaySeconds());
+		boolean delayed = record.getVisibleFromTime() > currentTimeMillis();
+		if(groups == null) {
+			if(delayed) {
+				delay(record);
+			} else {
+				makeVisible(record);
+			}
+			sweepExpired();
+			return;
+		}
+		if(record.getDeduplicationId() != null) {
+			synchronized(deduplication) {
+				if(!deduplication.add(record.getDeduplicationId(), record.getCreationTime())) {
+					return;
+				}
+			}
+		}
+		if(delayed) {
+			// added right away, holding back the records pushed to its group after it
+			groups.add(record);
+			delay(record);
+			return;
+		}
+		visibleCount.increment();
+		if(groups.add(record)) {
+			visibleSignal.signal();
+		}
+	}
+
+	/**
+	 * Returns a copy of the next visible message after making it invisible for visibilityTimeout seconds, or null.
+	 */
+	Message receive(int visibilityTimeout, Supplier<String> receiptHandles) {
+		Record record = pollVisible();
+		return record == null ? null : lease(record, currentTimeMillis(), visibilityTimeout, receiptHandles);
+	}
+
+	/**
+	 * Like receive, but parks for up to waitTime until a message becomes visible when there is none.
+	 */
+	Message receive(int visibilityTimeout, Supplier<String> receiptHandles, long waitTime, TimeUnit unit) {
+		Message message = receive(visibilityTimeout, receiptHandles);
+		if(message != null) {
+			return message;
+		}
+		long deadline = System.nanoTime() + unit.toNanos(waitTime);
+		while(true) {
+			long version = visibleSignal.startWaiting();
+			try {
+				message = receive(visibilityTimeout, receiptHandles);
+				if(message != null || !visibleSignal.await(version, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+					return message;
+				}
+			} finally {
+				visibleSignal.stopWaiting();
+			}
+		}
+	}
+
+	/**
+	 * Like receive, for up to maxMessages distinct messages. All are taken before any is leased, so a message whose
+	 * timeout is zero can not come back within the same batch.
+	 */
+	List<Message> receive(int maxMessages, int visibilityTimeout, Supplier<String> receiptHandles) {
+		List<Record> records = new ArrayList<>(maxMessages);
+		if(groups != null) {
+			List<Record> taken;
+			while(records.size() < maxMessages && !(taken = pollGroups(maxMessages - records.size())).isEmpty()) {
+				records.addAll(taken);
+			}
+		} else {
+			Record record;
+			while(records.size() < maxMessages && (record = pollVisible()) != null) {
+				records.add(record);
+			}
+		}
+		long now = currentTimeMillis();
+		List<Message> messages = new ArrayList<>(records.size());
+		for(Record owned : records) {
+			messages.add(lease(owned, now, visibilityTimeout, receiptHandles));
+		}
+		return messages;
+	}
+
+	/**
+	 * Returns false when the receipt handle is unknown or no longer current.
+	 */
+	boolean delete(String receiptHandle) {
+		Record record = receiptHandles.remove(receiptHandle);
+		if(record == null) {
+			return false;
+		}
+		int state = record.markDeleted();
+		if(state == Record.IN_FLIGHT) {
+			inFlightCount.decrement();
+		}
+		if(groups != null && state != Record.DELETED) {
+			if(state == Record.VISIBLE) {
+				visibleCount.decrement();
+			}
+			if(groups.removed(record, state == Record.IN_FLIGHT)) {
+				visibleSignal.signal();
+			}
+		}
+		// a record still queued as visible or scheduled with the DeadlineScheduler is dropped when it surfaces
+		return true;
+	}
+
+	/**
+	 * Makes the in-flight message of the receipt handle visible visibilityTimeout seconds from now. Returns false when
+	 * the receipt handle is unknown or no longer current, or its visibility timeout already ended.
+	 */
+	boolean changeVisibility(String receiptHandle, int visibilityTimeout) {
+		Record record = receiptHandles.get(receiptHandle);
+		if(record == null) {
+			return false;
+		}
+		long now = currentTimeMillis();
+		synchronized(record) {
+			if(!record.isInFlight() || !receiptHandle.equals(record.getMessage().getReceiptHandle()) || record.getVisibleFromTime() <= now) {
+				return false;
+			}
+			record.setVisibleFromTime(now + visibilityTimeout * 1000L);
+		}
+		scheduleVisibilityTimeout(record, now);
+		return true;
+	}
+
+	/**
+	 * Deletes every message, visible or in flight.
+	 */
+	void purge() {
+		purges.incrementAndGet();
+		if(groups != null) {
+			long now = currentTimeMillis();
+			for(Record record : groups.pollAll()) {
+				// still delayed ones are counted as such until their delay ends
+				if(record.getVisibleFromTime() <= now) {
+					visibleCount.decrement();
+				}
+				discard(record);
+			}
+		}
+		Record record;
+		while((record = visible.poll()) != null) {
+			visibleCount.decrement();
+			if(record.transition(Record.VISIBLE, Record.IN_FLIGHT)) {
+				discard(record);
+			}
+		}
+		for(String receiptHandle : receiptHandles.keySet()) {
+			delete(receiptHandle);
+		}
+	}
+
+	synchronized void setAttributes(Map<String, String> changes) {
+		attributes = attributes.with(changes);
+	}
+
+	QueueAttributes attributes() {
+		return attributes;
+	}
+
+	/**
+	 * Oldest visible record, without receiving it.
+	 */
+	Record peek() {
+		return visible.peek();
+	}
+
+	long visibleCount() {
+		return visibleCount.sum();
+	}
+
+	long inFlightCount() {
+		return inFlightCount.sum();
+	}
+
+	long delayedCount() {
+		return delayedCount.sum();
+	}
+
+	/**
+	 * Creation time of the visible message next in line, 0 when there is none. A message whose visibility timeout ended
+	 * rejoins at the tail, so this is the oldest only approximately.
+	 */
+	long oldestCreationTime() {
+		if(groups != null) {
+			return groups.oldestCreationTime();
+		}
+		Record head = visible.peek();
+		return head == null ? 0 : head.getCreationTime();
+	}
+
+	private void delay(Record record) {
+		delayedCount.increment();
+		int purge = purges.get();
+		scheduler.schedule(record.getVisibleFromTime(), tickTime -> delayEnded(record, purge));
+	}
+
+	private void delayEnded(Record record, int purge) {
+		delayedCount.decrement();
+		if(groups == null) {
+			if(purge == purges.get()) {
+				makeVisible(record);
+			} else {
+				record.markDeleted();
+			}
+			return;
+		}
+		// purged
+		if(record.isDeleted()) {
+			return;
+		}
+		visibleCount.increment();
+		if(groups.delayEnded(record)) {
+			visibleSignal.signal();
+		}
+	}
+
+	private Message lease(Record record, long now, int visibilityTimeout, Supplier<String> receiptHandles) {
+		inFlightCount.increment();
+		String previousReceiptHandle = record.getMessage().getReceiptHandle();
+		if(previousReceiptHandle != null) {
+			this.receiptHandles.remove(previousReceiptHandle);
+		}
+		String receiptHandle = receiptHandles.get();
+		Message received;
+		synchronized(record) {
+			record.getMessage().setReceiptHandle(receiptHandle);
+			record.setVisibleFromTime(now + visibilityTimeout * 1000L);
+			int receiveCount = record.incrementReceiveCount();
+			// copied while we still own the record, it may be received again as soon as it is visible
+			received = record.getMessage().clone().withAttributes(record.receivedAttributes(receiveCount));
+		}
+		this.receiptHandles.put(receiptHandle, record);
+		scheduleVisibilityTimeout(record, now);
+		return received;
+	}
+
+	private void scheduleVisibilityTimeout(Record record, long now) {
+		long visibleFromTime = record.getVisibleFromTime();
+		if(visibleFromTime <= now) {
+			visibilityTimedOut(record, visibleFromTime);
+		} else {
+			scheduler.schedule(visibleFromTime, tickTime -> visibilityTimedOut(record, visibleFromTime));
+		}
+	}
+
+	private Record pollVisible() {
+		if(groups != null) {
+			List<Record> taken = pollGroups(1);
+			return taken.isEmpty() ? null : taken.get(0);
+		}
+		long now = currentTimeMillis();
+		Record record;
+		while((record = visible.poll()) != null) {
+			visibleCount.decrement();
+			if(record.transition(Record.VISIBLE, Record.IN_FLIGHT) && keep(record, now)) {
+				return record;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Up to maxRecords from the head of the next ready message group, empty when there is none.
+	 */
+	private List<Record> pollGroups(int maxRecords) {
+		long now = currentTimeMillis();
+		while(true) {
+			List<Record> taken = groups.poll(maxRecords);
+			if(taken.isEmpty()) {
+				return taken;
+			}
+			visibleCount.add(-taken.size());
+			List<Record> kept = new ArrayList<>(taken.size());
+			for(Record record : taken) {
+				if(keep(record, now)) {
+					kept.add(record);
+				}
+			}
+			if(!kept.isEmpty()) {
+				return kept;
+			}
+		}
+	}
+
+	/**
+	 * Whether a record the caller took ownership of is to be received, otherwise it is discarded as outlived or
+	 * handed to the dead letter sink.
+	 */
+	private boolean keep(Record record, long now) {
+		QueueAttributes current = attributes;
+		if(current.expired(record.getCreationTime(), now)) {
+			discard(record);
+			return false;
+		}
+		if(deadLetters != null && current.deadLetter(record.getReceiveCount())) {
+			discard(record);
+			Message message = record.getMessage();
+			Record deadLetter = Record.toRecord(message.getMessageId(), message.getBody(), record.getCreationTime(), now);
+			deadLetters.accept(current.deadLetterQueue(), record.getMessageGroupId() == null ? deadLetter
+					: deadLetter.inGroup(record.getMessageGroupId(), null));
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Drops expired and deleted records from the head of the visible messages.
+	 */
+	private void sweepExpired() {
+		long now = currentTimeMillis();
+		long due = nextExpirySweep.get();
+		if(now < due || !nextExpirySweep.compareAndSet(due, now + EXPIRY_SWEEP_INTERVAL_MS)) {
+			return;
+		}
+		Record head;
+		while((head = visible.peek()) != null && (head.isDeleted() || attributes.expired(head.getCreationTime(), now))) {
+			// a consumer polling it first makes remove fail, and takes care of it
+			if(visible.remove(head)) {
+				visibleCount.decrement();
+				if(head.transition(Record.VISIBLE, Record.IN_FLIGHT)) {
+					discard(head);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes a record the caller took ownership of by moving it to IN_FLIGHT, before it was leased.
+	 */
+	private void discard(Record record) {
+		record.markDeleted();
+		String receiptHandle = record.getMessage().getReceiptHandle();
+		if(receiptHandle != null) {
+			receiptHandles.remove(receiptHandle, record);
+		}
+		if(groups != null && groups.removed(record, true)) {
+			visibleSignal.signal();
+		}
+	}
+
+	/**
+	 * The timeout ending at visibleFromTime ended. It may have been changed since, then the change scheduled its own end.
+	 */
+	private void visibilityTimedOut(Record record, long visibleFromTime) {
+		synchronized(record) {
+			if(record.getVisibleFromTime() != visibleFromTime || !record.transition(Record.IN_FLIGHT, Record.VISIBLE)) {
+				return;
+			}
+		}
+		inFlightCount.decrement();
+		if(groups == null) {
+			makeVisible(record);
+			return;
+		}
+		visibleCount.increment();
+		if(groups.returned(record)) {
+			visibleSignal.signal();
+		}
+	}
+
+	private void makeVisible(Record record) {
+		visible.offer(record);
+		visibleCount.increment();
+		visibleSignal.signal();
+	}
+
+}
@@ -1,36 +1,52 @@
 package com.example;
 
 import com.amazonaws.services.sqs.model.Message;
-import static org.apache.commons.lang3.StringUtils.*;
 
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
 
-class InMemoryQueueService implements QueueService {
+class InMemoryQueueService implements QueueService, InstrumentedQueueService {
 
 	private static final int DEFAULT_VISIBILITY_TIMEOUT = Integer.valueOf(System.getProperty("visibility.timeout.sec"));
 
-	private ConcurrentHashMap<String, DelayQueue<Record>> messageStore;
+	private ConcurrentHashMap<String, InMemoryQueue> messageStore;
 
-	InMemoryQueueService(ConcurrentHashMap<String, DelayQueue<Record>> messageStore) {
+	InMemoryQueueService(ConcurrentHashMap<String, InMemoryQueue> messageStore) {
 		this.messageStore = messageStore;
 	}
 
 	@Override
 	public void push(String qUrl, String body) {
 		String qName = fromQueueUrl(qUrl);
-		synchronized(InMemoryQueueService.class) {
-			messageStore.putIfAbsent(qName, new DelayQueue<>());
-		}
-
+		QueueService.checkMessageGroup(qName, null);
 		Message newMessage = new Message()
-				.withMessageId(UUID.randomUUID().toString())
+				.withMessageId(randomId())
 				.withBody(body);
-		Record record = Record.toRecord(newMessage);
-		messageStore.get(qName).add(record);
+		queue(qName).push(Record.toRecord(newMessage));
+	}
+
+	@Override
+	public void push(String qUrl, String messageBody, int delaySeconds) {
+		String qName = fromQueueUrl(qUrl);
+		QueueService.checkMessageGroup(qName, null);
+		QueueService.checkDelay(delaySeconds);
+		queue(qName).push(Record.toRecord(randomId(), messageBody).withDelay(delaySeconds));
+	}
+
+	@Override
+	public void push(String qUrl, String messageBody, String messageGroupId, String messageDeduplicationId) {
+		String qName = fromQueueUrl(qUrl);
+		QueueService.checkMessageGroup(qName, messageGroupId);
+		queue(qName).push(Record.toRecord(randomId(), messageBody).inGroup(messageGroupId, messageDeduplicationId));
 	}
 
 	@Override
@@ -40,29 +56,152 @@ class InMemoryQueueService implements QueueService {
 
 	Optional<Message> pull(String qUrl, int visibilityTimeout) {
 		String qName = fromQueueUrl(qUrl);
-		if(messageStore.get(qName) == null) {
+		InMemoryQueue queue = messageStore.get(qName);
+		if(queue == null) {
 			return Optional.empty();
 		}
 
-		Record nextVisibleMessage = messageStore.get(qName).poll();
-		if(nextVisibleMessage == null) {
-			return Optional.empty();
-		}
-		nextVisibleMessage.getMessage().setReceiptHandle("RH-" + UUID.randomUUID().toString());
-		nextVisibleMessage.setDelayInSec(visibilityTimeout);
-		//Adding record back to the queue; but it will preserve the order coz ordering is based on creationTime
-		messageStore.get(qName).add(nextVisibleMessage);
+		return Optional.ofNullable(queue.receive(visibilityTimeout, () -> "RH-" + randomId()));
+	}
 
-		return Optional.of(nextVisibleMessage.getMessage().clone());
+	@Override
+	public Optional<Message> pull(String qUrl, long waitTime, TimeUnit unit) {
+		QueueService.checkWaitTime(waitTime, unit);
+		// created up front so a push arriving while we wait finds the queue we wait on
+		InMemoryQueue queue = queue(fromQueueUrl(qUrl));
+		return Optional.ofNullable(queue.receive(DEFAULT_VISIBILITY_TIMEOUT, () -> "RH-" + randomId(), waitTime, unit));
 	}
 
 	@Override
 	public void delete(String qUrl, String receiptHandler) {
+		InMemoryQueue queue = messageStore.get(fromQueueUrl(qUrl));
+		if(queue != null) {
+			queue.delete(receiptHandler);
+		}
+	}
+
+	@Override
+	public void pushBatch(String qUrl, List<String> messageBodies) {
+		QueueService.checkBatchSize(messageBodies.size());
 		String qName = fromQueueUrl(qUrl);
-		Record messageToDelete = messageStore.get(qName).stream()
-				.filter(msg -> isNoneBlank(msg.getMessage().getReceiptHandle()) && msg.getMessage().getReceiptHandle().equals(receiptHandler))
-				.findFirst().orElse(null);
-		messageStore.get(qName).remove(messageToDelete);
+		QueueService.checkMessageGroup(qName, null);
+		InMemoryQueue queue = queue(qName);
+		for(String body : messageBodies) {
+			queue.push(Record.toRecord(randomId(), body));
+		}
+	}
+
+	@Override
+	public List<Message> pullBatch(String qUrl, int maxMessages) {
+		return pullBatch(qUrl, maxMessages, DEFAULT_VISIBILITY_TIMEOUT);
+	}
+
+	List<Message> pullBatch(String qUrl, int maxMessages, int visibilityTimeout) {
+		QueueService.checkBatchSize(maxMessages);
+		InMemoryQueue queue = messageStore.get(fromQueueUrl(qUrl));
+		if(queue == null) {
+			return Collections.emptyList();
+		}
+		return queue.receive(maxMessages, visibilityTimeout, () -> "RH-" + randomId());
+	}
+
+	@Override
+	public void deleteBatch(String qUrl, List<String> receiptHandlers) {
+		QueueService.checkBatchSize(receiptHandlers.size());
+		InMemoryQueue queue = messageStore.get(fromQueueUrl(qUrl));
+		if(queue != null) {
+			receiptHandlers.forEach(queue::delete);
+		}
+	}
+
+	@Override
+	public boolean changeMessageVisibility(String qUrl, String receiptHandler, int visibilityTimeout) {
+		QueueService.checkVisibilityTimeout(visibilityTimeout);
+		InMemoryQueue queue = messageStore.get(fromQueueUrl(qUrl));
+		return queue != null && queue.changeVisibility(receiptHandler, visibilityTimeout);
+	}
+
+	@Override
+	public List<String> changeMessageVisibilityBatch(String qUrl, List<String> receiptHandlers, int visibilityTimeout) {
+		QueueService.checkBatchSize(receiptHandlers.size());
+		QueueService.checkVisibilityTimeout(visibilityTimeout);
+		InMemoryQueue queue = messageStore.get(fromQueueUrl(qUrl));
+		List<String> failed = new ArrayList<>();
+		for(String receiptHandler : receiptHandlers) {
+			if(queue == null || !queue.changeVisibility(receiptHandler, visibilityTimeout)) {
+				failed.add(receiptHandler);
+			}
+		}
+		return failed;
+	}
+
+	@Override
+	public void setQueueAttributes(String qUrl, Map<String, String> attributes) {
+		queue(fromQueueUrl(qUrl)).setAttributes(attributes);
+	}
+
+	/**
+	 * Read from counters the queue keeps as messages come and go, a queue never pushed to is empty.
+	 */
+	@Override
+	public Map<String, String> getQueueAttributes(String qUrl) {
+		InMemoryQueue queue = messageStore.get(fromQueueUrl(qUrl));
+		if(queue == null) {
+			return QueueAttributes.defaults().withDepth(0, 0, 0, 0, System.currentTimeMillis());
+		}
+		return queue.attributes().withDepth(queue.visibleCount(), queue.inFlightCount(), queue.delayedCount(),
+				queue.oldestCreationTime(), System.currentTimeMillis());
+	}
+
+	@Override
+	public void purge(String qUrl) {
+		InMemoryQueue queue = messageStore.get(fromQueueUrl(qUrl));
+		if(queue != null) {
+			queue.purge();
+		}
+	}
+
+	@Override
+	public void registerMetrics(MetricsRegistry registry) {
+	}
+
+	/**
+	 * Depth gauges, read from counters the queue keeps anyway.
+	 */
+	@Override
+	public void registerQueueMetrics(String qUrl, MetricsRegistry registry) {
+		String qName = fromQueueUrl(qUrl);
+		registry.gauge(qName, "visibleMessages", () -> count(qName, InMemoryQueue::visibleCount));
+		registry.gauge(qName, "inFlightMessages", () -> count(qName, InMemoryQueue::inFlightCount));
+		registry.gauge(qName, "delayedMessages", () -> count(qName, InMemoryQueue::delayedCount));
+	}
+
+	private long count(String qName, ToLongFunction<InMemoryQueue> count) {
+		InMemoryQueue queue = messageStore.get(qName);
+		return queue == null ? 0 : count.applyAsLong(queue);
+	}
+
+	/**
+	 * Messages a redrive policy sends to a dead letter queue are pushed to it, creating it when needed. A FIFO dead
+	 * letter queue gets them in their group, or in a group of their own when they had none.
+	 */
+	private InMemoryQueue queue(String qName) {
+		return messageStore.computeIfAbsent(qName, name -> new InMemoryQueue(DeadlineScheduler.shared(), this::deadLetter, QueueService.isFifo(name)));
+	}
+
+	private void deadLetter(String qName, Record record) {
+		if(QueueService.isFifo(qName) && record.getMessageGroupId() == null) {
+			record.inGroup(record.getMessage().getMessageId(), null);
+		}
+		queue(qName).push(record);
+	}
+
+	/**
+	 * UUID.randomUUID() draws from one shared SecureRandom, which would serialize every push and pull.
+	 */
+	private static String randomId() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return new UUID(random.nextLong(), random.nextLong()).toString();
 	}
 
 	private String fromQueueUrl(String queueUrl) {
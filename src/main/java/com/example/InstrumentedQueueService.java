@@ -0,0 +1,19 @@
+package com.example;
+
+/**
+ * A QueueService with meters of its own, such as queue depth or lock waits, that MetricsQueueService publishes next to
+ * the ones it keeps.
+ */
+interface InstrumentedQueueService {
+
+	/**
+	 * Registers the meters of the service as a whole.
+	 */
+	void registerMetrics(MetricsRegistry registry);
+
+	/**
+	 * Registers the meters of the queue, under its name as scope.
+	 */
+	void registerQueueMetrics(String qUrl, MetricsRegistry registry);
+
+}
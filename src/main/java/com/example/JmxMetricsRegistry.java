@@ -0,0 +1,157 @@
+package com.example;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Publishes meters as read-only JMX attributes, one MBean per scope named
+ * com.example:type=QueueService,service=[service] for the service and adding queue=[name] for a queue.
+ *
+ * A histogram shows up as [name]Count, [name]P50, [name]P99, [name]P999 and [name]Max, in nanoseconds. An MBean
+ * already registered under the same name, say by an earlier instance, is replaced.
+ */
+class JmxMetricsRegistry implements MetricsRegistry, Closeable {
+
+	private static final String DOMAIN = "com.example";
+
+	private final MBeanServer server;
+	private final String service;
+	private final ConcurrentHashMap<String, MetricsBean> beans = new ConcurrentHashMap<>();
+
+	JmxMetricsRegistry(String service) {
+		this(ManagementFactory.getPlatformMBeanServer(), service);
+	}
+
+	JmxMetricsRegistry(MBeanServer server, String service) {
+		this.server = server;
+		this.service = service;
+	}
+
+	@Override
+	public void counter(String scope, String name, LongAdder counter) {
+		bean(scope).attributes.put(name, counter::sum);
+	}
+
+	@Override
+	public void gauge(String scope, String name, LongSupplier gauge) {
+		bean(scope).attributes.put(name, gauge);
+	}
+
+	@Override
+	public void histogram(String scope, String name, LatencyHistogram histogram) {
+		Map<String, LongSupplier> attributes = bean(scope).attributes;
+		attributes.put(name + "Count", histogram::count);
+		attributes.put(name + "P50", () -> histogram.percentile(50));
+		attributes.put(name + "P99", () -> histogram.percentile(99));
+		attributes.put(name + "P999", () -> histogram.percentile(99.9));
+		attributes.put(name + "Max", histogram::max);
+	}
+
+	ObjectName objectName(String scope) {
+		try {
+			return new ObjectName(DOMAIN + ":type=QueueService,service=" + ObjectName.quote(service)
+					+ (scope == null ? "" : ",queue=" + ObjectName.quote(scope)));
+		} catch (JMException e) {
+			throw new IllegalArgumentException("Invalid metrics scope " + scope, e);
+		}
+	}
+
+	/**
+	 * Unregisters every MBean this registry registered.
+	 */
+	@Override
+	public void close() {
+		for(String scope : beans.keySet()) {
+			try {
+				server.unregisterMBean(objectName(scope.isEmpty() ? null : scope));
+			} catch (InstanceNotFoundException e) {
+				// unregistered by someone else
+			} catch (JMException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		beans.clear();
+	}
+
+	private MetricsBean bean(String scope) {
+		// ConcurrentHashMap takes no null keys
+		return beans.computeIfAbsent(scope == null ? "" : scope, key -> {
+			MetricsBean bean = new MetricsBean();
+			ObjectName name = objectName(scope);
+			try {
+				if(server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+				server.registerMBean(bean, name);
+			} catch (JMException e) {
+				throw new RuntimeException(e);
+			}
+			return bean;
+		});
+	}
+
+	private static class MetricsBean implements DynamicMBean {
+		private final Map<String, LongSupplier> attributes = new ConcurrentSkipListMap<>();
+
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			LongSupplier value = attributes.get(attribute);
+			if(value == null) {
+				throw new AttributeNotFoundException(attribute);
+			}
+			return value.getAsLong();
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] names) {
+			AttributeList list = new AttributeList();
+			for(String name : names) {
+				LongSupplier value = attributes.get(name);
+				if(value != null) {
+					list.add(new Attribute(name, value.getAsLong()));
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			MBeanAttributeInfo[] infos = attributes.keySet().stream()
+					.map(name -> new MBeanAttributeInfo(name, "long", name, true, false, false))
+					.toArray(MBeanAttributeInfo[]::new);
+			return new MBeanInfo(MetricsBean.class.getName(), "Queue service metrics", infos, null, null, null);
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException("Metrics are read only: " + attribute.getName());
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+			throw new ReflectionException(new NoSuchMethodException(actionName), "Metrics have no operations: " + actionName);
+		}
+	}
+
+}
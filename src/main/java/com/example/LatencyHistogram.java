@@ -0,0 +1,73 @@
+package com.example;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds, laid out like HdrHistogram: values are bucketed by their highest bit and
+ * each power of two is split into SUB_BUCKETS linear sub-buckets, so a percentile is off by at most 1/SUB_BUCKETS.
+ *
+ * Recording is a shift and an atomic increment, it takes no lock and allocates nothing. Reads walk the buckets and
+ * are meant for the occasional metrics poll.
+ */
+class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts.incrementAndGet(index(value));
+		count.increment();
+		max.accumulate(value);
+	}
+
+	long count() {
+		return count.sum();
+	}
+
+	long max() {
+		return max.get();
+	}
+
+	/**
+	 * The value below which the given percentage, 0 to 100, of the recorded values fall. 0 when nothing was recorded.
+	 */
+	long percentile(double percentage) {
+		long total = count.sum();
+		if(total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentage, 100) / 100));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if(seen >= rank) {
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Values below 2 * SUB_BUCKETS have a bucket each, above that magnitude m covers
+	 * [SUB_BUCKETS << m, SUB_BUCKETS << m+1) in SUB_BUCKETS steps of 1 << m.
+	 */
+	private static int index(long value) {
+		int magnitude = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+		return (magnitude << SUB_BUCKET_BITS) + (int) (value >>> magnitude);
+	}
+
+	private static long highestValue(int index) {
+		int magnitude = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+		long lowest = (long) (index - (magnitude << SUB_BUCKET_BITS)) << magnitude;
+		return lowest + (1L << magnitude) - 1;
+	}
+
+}
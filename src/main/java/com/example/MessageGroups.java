@@ -0,0 +1,177 @@
+package com.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Message groups of an in-memory FIFO queue. A group is ready while it has messages and none of them is in flight.
+ * Ready groups wait in a ConcurrentLinkedQueue, so consumers take different groups in parallel and only contend on
+ * the lock of a group when they touch the same one.
+ *
+ * Records are taken from the head of a group by compare-and-set of their state, like InMemoryQueue does, and stay in
+ * the group until removed so one whose visibility timeout ends is received again before the rest of its group.
+ *
+ * A delayed record holds back the records after it. A group whose head is still delayed is passed over by poll and
+ * queued again by delayEnded.
+ */
+class MessageGroups {
+
+	private final ConcurrentHashMap<String, Group> groups = new ConcurrentHashMap<>();
+	private final ConcurrentLinkedQueue<Group> ready = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Returns whether the group of the record became ready.
+	 */
+	boolean add(Record record) {
+		while(true) {
+			Group group = groups.computeIfAbsent(record.getMessageGroupId(), id -> new Group());
+			synchronized(group) {
+				// dropped by removed() between the lookup and the lock
+				if(!group.dropped) {
+					group.records.add(record);
+					return enqueueIfReady(group);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Takes up to maxRecords from the head of the next ready group, moved to IN_FLIGHT. Empty when no group is ready.
+	 */
+	List<Record> poll(int maxRecords) {
+		long now = currentTimeMillis();
+		Group group;
+		while((group = ready.poll()) != null) {
+			List<Record> taken = new ArrayList<>(Math.min(maxRecords, 10));
+			synchronized(group) {
+				group.queued = false;
+				if(group.inFlight > 0) {
+					continue;
+				}
+				for(Record record : group.records) {
+					if(taken.size() == maxRecords || record.getVisibleFromTime() > now) {
+						break;
+					}
+					// a record deleted but not removed yet is skipped
+					if(record.transition(Record.VISIBLE, Record.IN_FLIGHT)) {
+						taken.add(record);
+					}
+				}
+				group.inFlight = taken.size();
+			}
+			if(!taken.isEmpty()) {
+				return taken;
+			}
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Takes every record not in flight, as poll does, from all groups.
+	 */
+	List<Record> pollAll() {
+		List<Record> taken = new ArrayList<>();
+		for(Group group : groups.values()) {
+			synchronized(group) {
+				for(Record record : group.records) {
+					if(record.transition(Record.VISIBLE, Record.IN_FLIGHT)) {
+						taken.add(record);
+						group.inFlight++;
+					}
+				}
+			}
+		}
+		return taken;
+	}
+
+	/**
+	 * A record taken by poll was made VISIBLE again. Returns whether its group became ready.
+	 */
+	boolean returned(Record record) {
+		Group group = groups.get(record.getMessageGroupId());
+		synchronized(group) {
+			group.inFlight--;
+			return enqueueIfReady(group);
+		}
+	}
+
+	/**
+	 * The delay of a record added before it ended. Returns whether its group became ready.
+	 */
+	boolean delayEnded(Record record) {
+		Group group = groups.get(record.getMessageGroupId());
+		if(group == null) {
+			return false;
+		}
+		synchronized(group) {
+			return enqueueIfReady(group);
+		}
+	}
+
+	/**
+	 * A record was deleted, after being taken by poll when wasInFlight. Returns whether its group became ready.
+	 */
+	boolean removed(Record record, boolean wasInFlight) {
+		Group group = groups.get(record.getMessageGroupId());
+		if(group == null) {
+			return false;
+		}
+		synchronized(group) {
+			Iterator<Record> records = group.records.iterator();
+			while(records.hasNext()) {
+				if(records.next() == record) {
+					records.remove();
+					break;
+				}
+			}
+			if(wasInFlight) {
+				group.inFlight--;
+			}
+			if(group.records.isEmpty() && group.inFlight == 0) {
+				group.dropped = true;
+				groups.remove(record.getMessageGroupId(), group);
+				return false;
+			}
+			return enqueueIfReady(group);
+		}
+	}
+
+	/**
+	 * Creation time of the head of the group first in line to be polled, 0 when none is ready. Groups are queued in the
+	 * order they became ready, so this is the oldest ready message only approximately.
+	 */
+	long oldestCreationTime() {
+		Group group = ready.peek();
+		if(group == null) {
+			return 0;
+		}
+		synchronized(group) {
+			Record head = group.records.peek();
+			return head == null ? 0 : head.getCreationTime();
+		}
+	}
+
+	private boolean enqueueIfReady(Group group) {
+		if(group.queued || group.inFlight > 0 || group.records.isEmpty()) {
+			return false;
+		}
+		group.queued = true;
+		ready.offer(group);
+		return true;
+	}
+
+	private static class Group {
+		private final ArrayDeque<Record> records = new ArrayDeque<>();
+		private int inFlight;
+		private boolean queued;
+		private boolean dropped;
+	}
+
+}
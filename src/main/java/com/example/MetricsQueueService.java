@@ -0,0 +1,251 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation in front of a QueueService. Counts messages pushed, received and deleted per queue, receive calls
+ * and those that came back empty, and failed calls, and records the latency of pushes, receives and deletes in
+ * LatencyHistograms. Long polls are counted but their latency is not recorded, it is mostly waiting.
+ *
+ * The meters of a queue are created and registered with the MetricsRegistry on its first call, along with those of
+ * the wrapped service when it is an InstrumentedQueueService. After that a call looks them up by queue URL and
+ * updates LongAdders and histograms, which allocates nothing.
+ */
+class MetricsQueueService implements QueueService {
+
+	private final QueueService queueService;
+	private final MetricsRegistry registry;
+	private final ConcurrentHashMap<String, QueueMetrics> metricsByQueueUrl = new ConcurrentHashMap<>();
+
+	MetricsQueueService(QueueService queueService, MetricsRegistry registry) {
+		this.queueService = queueService;
+		this.registry = registry;
+		if(queueService instanceof InstrumentedQueueService) {
+			((InstrumentedQueueService) queueService).registerMetrics(registry);
+		}
+	}
+
+	@Override
+	public void push(String qUrl, String messageBody) {
+		QueueMetrics metrics = metrics(qUrl);
+		long start = System.nanoTime();
+		try {
+			queueService.push(qUrl, messageBody);
+		} catch (RuntimeException e) {
+			metrics.errors.increment();
+			throw e;
+		}
+		metrics.pushed(1, start);
+	}
+
+	@Override
+	public void push(String qUrl, String messageBody, int delaySeconds) {
+		QueueMetrics metrics = metrics(qUrl);
+		long start = System.nanoTime();
+		try {
+			queueService.push(qUrl, messageBody, delaySeconds);
+		} catch (RuntimeException e) {
+			metrics.errors.increment();
+			throw e;
+		}
+		metrics.pushed(1, start);
+	}
+
+	@Override
+	public void push(String qUrl, String messageBody, String messageGroupId, String messageDeduplicationId) {
+		QueueMetrics metrics = metrics(qUrl);
+		long start = System.nanoTime();
+		try {
+			queueService.push(qUrl, messageBody, messageGroupId, messageDeduplicationId);
+		} catch (RuntimeException e) {
+			metrics.errors.increment();
+			throw e;
+		}
+		metrics.pushed(1, start);
+	}
+
+	@Override
+	public Optional<Message> pull(String qUrl) {
+		QueueMetrics metrics = metrics(qUrl);
+		long start = System.nanoTime();
+		Optional<Message> message;
+		try {
+			message = queueService.pull(qUrl);
+		} catch (RuntimeException e) {
+			metrics.errors.increment();
+			throw e;
+		}
+		metrics.received(message.isPresent() ? 1 : 0);
+		metrics.receiveLatency.record(System.nanoTime() - start);
+		return message;
+	}
+
+	@Override
+	public Optional<Message> pull(String qUrl, long waitTime, TimeUnit unit) {
+		QueueMetrics metrics = metrics(qUrl);
+		Optional<Message> message;
+		try {
+			message = queueService.pull(qUrl, waitTime, unit);
+		} catch (RuntimeException e) {
+			metrics.errors.increment();
+			throw e;
+		}
+		metrics.received(message.isPresent() ? 1 : 0);
+		return message;
+	}
+
+	@Override
+	public void delete(String qUrl, String receiptHandler) {
+		QueueMetrics metrics = metrics(qUrl);
+		long start = System.nanoTime();
+		try {
+			queueService.delete(qUrl, receiptHandler);
+		} catch (RuntimeException e) {
+			metrics.errors.increment();
+			throw e;
+		}
+		metrics.deleted(1, start);
+	}
+
+	@Override
+	public void pushBatch(String qUrl, List<String> messageBodies) {
+		QueueMetrics metrics = metrics(qUrl);
+		long start = System.nanoTime();
+		try {
+			queueService.pushBatch(qUrl, messageBodies);
+		} catch (RuntimeException e) {
+			metrics.errors.increment();
+			throw e;
+		}
+		metrics.pushed(messageBodies.size(), start);
+	}
+
+	@Override
+	public List<Message> pullBatch(String qUrl, int maxMessages) {
+		QueueMetrics metrics = metrics(qUrl);
+		long start = System.nanoTime();
+		List<Message> messages;
+		try {
+			messages = queueService.pullBatch(qUrl, maxMessages);
+		} catch (RuntimeException e) {
+			metrics.errors.increment();
+			throw e;
+		}
+		metrics.received(messages.size());
+		metrics.receiveLatency.record(System.nanoTime() - start);
+		return messages;
+	}
+
+	@Override
+	public void deleteBatch(String qUrl, List<String> receiptHandlers) {
+		QueueMetrics metrics = metrics(qUrl);
+		long start = System.nanoTime();
+		try {
+			queueService.deleteBatch(qUrl, receiptHandlers);
+		} catch (RuntimeException e) {
+			metrics.errors.increment();
+			throw e;
+		}
+		metrics.deleted(receiptHandlers.size(), start);
+	}
+
+	@Override
+	public boolean changeMessageVisibility(String qUrl, String receiptHandler, int visibilityTimeout) {
+		QueueMetrics metrics = metrics(qUrl);
+		try {
+			return queueService.changeMessageVisibility(qUrl, receiptHandler, visibilityTimeout);
+		} catch (RuntimeException e) {
+			metrics.errors.increment();
+			throw e;
+		}
+	}
+
+	@Override
+	public List<String> changeMessageVisibilityBatch(String qUrl, List<String> receiptHandlers, int visibilityTimeout) {
+		QueueMetrics metrics = metrics(qUrl);
+		try {
+			return queueService.changeMessageVisibilityBatch(qUrl, receiptHandlers, visibilityTimeout);
+		} catch (RuntimeException e) {
+			metrics.errors.increment();
+			throw e;
+		}
+	}
+
+	@Override
+	public void setQueueAttributes(String qUrl, Map<String, String> attributes) {
+		queueService.setQueueAttributes(qUrl, attributes);
+	}
+
+	@Override
+	public Map<String, String> getQueueAttributes(String qUrl) {
+		return queueService.getQueueAttributes(qUrl);
+	}
+
+	@Override
+	public void purge(String qUrl) {
+		queueService.purge(qUrl);
+	}
+
+	private QueueMetrics metrics(String qUrl) {
+		QueueMetrics metrics = metricsByQueueUrl.get(qUrl);
+		return metrics != null ? metrics : metricsByQueueUrl.computeIfAbsent(qUrl, this::register);
+	}
+
+	private QueueMetrics register(String qUrl) {
+		QueueMetrics metrics = new QueueMetrics();
+		String qName = Paths.get(qUrl).getFileName().toString();
+		registry.counter(qName, "messagesPushed", metrics.messagesPushed);
+		registry.counter(qName, "messagesReceived", metrics.messagesReceived);
+		registry.counter(qName, "messagesDeleted", metrics.messagesDeleted);
+		registry.counter(qName, "receives", metrics.receives);
+		registry.counter(qName, "emptyReceives", metrics.emptyReceives);
+		registry.counter(qName, "errors", metrics.errors);
+		registry.histogram(qName, "pushLatency", metrics.pushLatency);
+		registry.histogram(qName, "receiveLatency", metrics.receiveLatency);
+		registry.histogram(qName, "deleteLatency", metrics.deleteLatency);
+		if(queueService instanceof InstrumentedQueueService) {
+			((InstrumentedQueueService) queueService).registerQueueMetrics(qUrl, registry);
+		}
+		return metrics;
+	}
+
+	private static class QueueMetrics {
+		private final LongAdder messagesPushed = new LongAdder();
+		private final LongAdder messagesReceived = new LongAdder();
+		private final LongAdder messagesDeleted = new LongAdder();
+		private final LongAdder receives = new LongAdder();
+		private final LongAdder emptyReceives = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LatencyHistogram pushLatency = new LatencyHistogram();
+		private final LatencyHistogram receiveLatency = new LatencyHistogram();
+		private final LatencyHistogram deleteLatency = new LatencyHistogram();
+
+		void pushed(int messages, long start) {
+			messagesPushed.add(messages);
+			pushLatency.record(System.nanoTime() - start);
+		}
+
+		void received(int messages) {
+			receives.increment();
+			if(messages == 0) {
+				emptyReceives.increment();
+			} else {
+				messagesReceived.add(messages);
+			}
+		}
+
+		void deleted(int messages, long start) {
+			messagesDeleted.add(messages);
+			deleteLatency.record(System.nanoTime() - start);
+		}
+	}
+
+}
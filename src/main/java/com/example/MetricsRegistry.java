@@ -0,0 +1,24 @@
+package com.example;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Where MetricsQueueService and the services it wraps publish their meters, so they can be bridged to whatever
+ * monitoring is in use. Meters are created and updated by their owners, a registry only reads them, and each one is
+ * registered once, when its queue is first used, never on the path of a queue call.
+ *
+ * The scope is the name of a queue, or null for meters of the service as a whole.
+ */
+interface MetricsRegistry {
+
+	void counter(String scope, String name, LongAdder counter);
+
+	void gauge(String scope, String name, LongSupplier gauge);
+
+	/**
+	 * Durations in nanoseconds.
+	 */
+	void histogram(String scope, String name, LatencyHistogram histogram);
+
+}
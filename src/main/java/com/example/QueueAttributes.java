@@ -0,0 +1,169 @@
+package com.example;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.amazonaws.util.json.Jackson;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Settings of one queue, named and validated like the SQS queue attributes they stand for. Immutable, a change
+ * returns a new instance.
+ */
+class QueueAttributes {
+
+	static final String MESSAGE_RETENTION_PERIOD = QueueAttributeName.MessageRetentionPeriod.toString();
+	static final String REDRIVE_POLICY = QueueAttributeName.RedrivePolicy.toString();
+	static final String DELAY_SECONDS = QueueAttributeName.DelaySeconds.toString();
+	static final String APPROXIMATE_NUMBER_OF_MESSAGES = QueueAttributeName.ApproximateNumberOfMessages.toString();
+	static final String APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE = QueueAttributeName.ApproximateNumberOfMessagesNotVisible.toString();
+	static final String APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED = QueueAttributeName.ApproximateNumberOfMessagesDelayed.toString();
+	/**
+	 * Named after the CloudWatch metric, SQS has no such queue attribute.
+	 */
+	static final String APPROXIMATE_AGE_OF_OLDEST_MESSAGE = "ApproximateAgeOfOldestMessage";
+
+	private static final int DEFAULT_RETENTION_SECONDS = Integer.getInteger("queueService.message.retention.sec", 345600);
+	private static final int MIN_RETENTION_SECONDS = 60;
+	private static final int MAX_RETENTION_SECONDS = 1209600;
+	private static final int MAX_RECEIVE_COUNT = 1000;
+	private static final Set<String> NAMES = new HashSet<>(Arrays.asList(MESSAGE_RETENTION_PERIOD, REDRIVE_POLICY, DELAY_SECONDS));
+	private static final QueueAttributes DEFAULTS = new QueueAttributes(Collections.emptyMap());
+
+	private final Map<String, String> values;
+	private final long retentionMillis;
+	private final int delaySeconds;
+	private String deadLetterQueue;
+	private int maxReceiveCount;
+
+	private QueueAttributes(Map<String, String> values) {
+		for(String name : values.keySet()) {
+			if(!NAMES.contains(name)) {
+				throw new IllegalArgumentException("Unknown queue attribute " + name);
+			}
+		}
+		this.values = Collections.unmodifiableMap(new TreeMap<>(values));
+		this.retentionMillis = seconds(MESSAGE_RETENTION_PERIOD, DEFAULT_RETENTION_SECONDS, MIN_RETENTION_SECONDS, MAX_RETENTION_SECONDS) * 1000L;
+		this.delaySeconds = seconds(DELAY_SECONDS, 0, 0, QueueService.MAX_DELAY_SECONDS);
+		parseRedrivePolicy(values.get(REDRIVE_POLICY));
+	}
+
+	static QueueAttributes defaults() {
+		return DEFAULTS;
+	}
+
+	/**
+	 * These attributes with the given ones changed. Throws IllegalArgumentException for unknown names or invalid values.
+	 */
+	QueueAttributes with(Map<String, String> changes) {
+		Map<String, String> changed = new TreeMap<>(values);
+		changed.putAll(changes);
+		return new QueueAttributes(changed);
+	}
+
+	/**
+	 * The attributes that were set, defaults are left out.
+	 */
+	Map<String, String> toMap() {
+		return values;
+	}
+
+	/**
+	 * The attributes that were set along with the depth of the queue, as getQueueAttributes returns them.
+	 *
+	 * @param oldestCreationTime creation time of the oldest visible message, 0 when there is none
+	 */
+	Map<String, String> withDepth(long visible, long inFlight, long delayed, long oldestCreationTime, long now) {
+		Map<String, String> attributes = new TreeMap<>(values);
+		attributes.put(APPROXIMATE_NUMBER_OF_MESSAGES, Long.toString(visible));
+		attributes.put(APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE, Long.toString(inFlight));
+		attributes.put(APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED, Long.toString(delayed));
+		long age = oldestCreationTime == 0 ? 0 : Math.max(0, now - oldestCreationTime) / 1000;
+		attributes.put(APPROXIMATE_AGE_OF_OLDEST_MESSAGE, Long.toString(age));
+		return attributes;
+	}
+
+	long retentionMillis() {
+		return retentionMillis;
+	}
+
+	/**
+	 * How long messages pushed without a delay of their own stay invisible.
+	 */
+	int delaySeconds() {
+		return delaySeconds;
+	}
+
+	/**
+	 * Name of the queue messages are moved to once received maxReceiveCount times, null without a redrive policy.
+	 */
+	String deadLetterQueue() {
+		return deadLetterQueue;
+	}
+
+	int maxReceiveCount() {
+		return maxReceiveCount;
+	}
+
+	/**
+	 * Whether a message received receiveCount times so far goes to the dead letter queue instead of being received
+	 * again.
+	 */
+	boolean deadLetter(int receiveCount) {
+		return deadLetterQueue != null && receiveCount >= maxReceiveCount;
+	}
+
+	/**
+	 * Whether a message created at creationTime has outlived the retention period by now.
+	 */
+	boolean expired(long creationTime, long now) {
+		return now - creationTime >= retentionMillis;
+	}
+
+	/**
+	 * A JSON object like {"deadLetterTargetArn":"arn:aws:sqs:us-east-1:123456789012:dlq","maxReceiveCount":"5"}. The
+	 * dead letter queue is the last part of the ARN, or of a queue URL. An empty policy removes it.
+	 */
+	private void parseRedrivePolicy(String policy) {
+		if(policy == null || policy.trim().isEmpty()) {
+			return;
+		}
+		JsonNode json;
+		try {
+			json = Jackson.jsonNodeOf(policy);
+		} catch (AmazonClientException e) {
+			throw new IllegalArgumentException(REDRIVE_POLICY + " is not valid JSON: " + policy, e);
+		}
+		String target = json.path("deadLetterTargetArn").asText("");
+		String name = target.substring(Math.max(target.lastIndexOf(':'), target.lastIndexOf('/')) + 1);
+		int count = json.path("maxReceiveCount").asInt(0);
+		if(name.isEmpty() || count < 1 || count > MAX_RECEIVE_COUNT) {
+			throw new IllegalArgumentException(REDRIVE_POLICY + " needs a deadLetterTargetArn and a maxReceiveCount between 1 and "
+					+ MAX_RECEIVE_COUNT + ": " + policy);
+		}
+		deadLetterQueue = name;
+		maxReceiveCount = count;
+	}
+
+	private int seconds(String name, int defaultValue, int min, int max) {
+		String value = values.get(name);
+		if(value == null) {
+			return defaultValue;
+		}
+		try {
+			int seconds = Integer.parseInt(value.trim());
+			if(seconds >= min && seconds <= max) {
+				return seconds;
+			}
+		} catch (NumberFormatException ignored) {
+		}
+		throw new IllegalArgumentException(name + " must be between " + min + " and " + max + " seconds but was " + value);
+	}
+
+}
@@ -0,0 +1,253 @@
+package com.example;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Lock on a lock file shared by all processes using a queue.
+ *
+ * Threads of one JVM queue up on an in-memory ReentrantLock, one per lock file, so only the thread holding it ever
+ * touches the file. That thread then takes a FileLock for exclusion against other processes. The operating system
+ * drops a FileLock when its process dies, so a crashed process can not leave the queue locked.
+ *
+ * FileLocks are not fair, so processes take turns through a ticket lock kept in the first bytes of the lock file,
+ * which every process maps: the next ticket to hand out and the ticket being served. A process draws a ticket, polls
+ * the mapping until it is served and only then takes the FileLock, and serves the next ticket when it unlocks. A
+ * ticket served for longer than STALLED_TURN_NANOS while nobody holds the FileLock belongs to a process that died or
+ * timed out, and is skipped by the next waiter.
+ */
+class QueueLock {
+
+	private static final ConcurrentHashMap<Path, QueueLock> LOCKS = new ConcurrentHashMap<>();
+	private static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+	private static final long MAX_TURN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long STALLED_TURN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final int NEXT_TICKET = 0;
+	private static final int SERVING = 8;
+	private static final int TICKETS_BYTES = 16;
+	private static final long EXCLUSION = TICKETS_BYTES;
+
+	private final Path lockFile;
+	private final ReentrantLock threadLock = new ReentrantLock();
+	private FileChannel channel;
+	private Object channelFileKey;
+	private MappedByteBuffer tickets;
+	private FileLock fileLock;
+	private long ticket;
+
+	private QueueLock(Path lockFile) {
+		this.lockFile = lockFile;
+	}
+
+	/**
+	 * One instance per lock file and JVM. A second FileChannel on the same file would release our FileLock when closed.
+	 */
+	static QueueLock forPath(Path lockFile) {
+		return LOCKS.computeIfAbsent(lockFile.toAbsolutePath().normalize(), QueueLock::new);
+	}
+
+	/**
+	 * Earlier versions locked by creating a directory, which stays behind when its owner crashes. Nothing creates
+	 * those directories anymore so any that is found is stale.
+	 */
+	static void recoverLegacyLock(Path legacyLockDirectory) {
+		if(Files.isDirectory(legacyLockDirectory)) {
+			FileUtils.deleteQuietly(legacyLockDirectory.toFile());
+		}
+	}
+
+	void lock(long timeout, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		try {
+			if(!threadLock.tryLock(timeout, unit)) {
+				throw new IllegalStateException("Timed out after " + unit.toMillis(timeout) + " ms waiting for " + lockFile + " held by another thread");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		if(threadLock.getHoldCount() > 1) {
+			return;
+		}
+		try {
+			acquireFileLock(deadline);
+		} catch (RuntimeException e) {
+			threadLock.unlock();
+			throw e;
+		}
+	}
+
+	void unlock() {
+		if(threadLock.getHoldCount() == 1 && fileLock != null) {
+			// serving only ever changes under the FileLock, unless the turn was skipped while we were slow to take it
+			if(tickets.getLong(SERVING) == ticket) {
+				tickets.putLong(SERVING, ticket + 1);
+			}
+			try {
+				fileLock.release();
+			} catch (IOException e) {
+				closeChannel();
+			}
+			fileLock = null;
+		}
+		threadLock.unlock();
+	}
+
+	boolean isHeldByCurrentThread() {
+		return threadLock.isHeldByCurrentThread();
+	}
+
+	private void acquireFileLock(long deadline) {
+		while(true) {
+			try {
+				long drawn = drawTicket();
+				if(!awaitTurn(drawn, deadline)) {
+					continue;
+				}
+				FileLock acquired = lockExclusion(deadline);
+				if(isCurrentFile()) {
+					fileLock = acquired;
+					ticket = drawn;
+					return;
+				}
+				// the lock file was deleted or replaced while we held the old one open
+				acquired.release();
+				closeChannel();
+			} catch (IOException e) {
+				closeChannel();
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private long drawTicket() throws IOException {
+		FileChannel channel = channel();
+		FileLock lock = channel.lock(NEXT_TICKET, TICKETS_BYTES, false);
+		try {
+			long drawn = tickets.getLong(NEXT_TICKET);
+			tickets.putLong(NEXT_TICKET, drawn + 1);
+			return drawn;
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * Polls the mapping until the ticket is served. Returns false when it was skipped meanwhile and a new one is needed.
+	 */
+	private boolean awaitTurn(long drawn, long deadline) throws IOException {
+		long backoff = MIN_BACKOFF_NANOS;
+		long observed = tickets.getLong(SERVING);
+		long observedSince = System.nanoTime();
+		while(true) {
+			long serving = tickets.getLong(SERVING);
+			if(serving == drawn) {
+				return true;
+			}
+			if(serving - drawn > 0) {
+				return false;
+			}
+			long now = System.nanoTime();
+			if(serving != observed) {
+				observed = serving;
+				observedSince = now;
+				backoff = MIN_BACKOFF_NANOS;
+			} else if(now - observedSince > STALLED_TURN_NANOS) {
+				skipStalledTurn(serving);
+				observedSince = now;
+			}
+			if(now - deadline > 0) {
+				throw new IllegalStateException("Timed out waiting for " + lockFile + " held by another process");
+			}
+			LockSupport.parkNanos(backoff);
+			backoff = Math.min(backoff * 2, MAX_TURN_BACKOFF_NANOS);
+		}
+	}
+
+	private void skipStalledTurn(long stalled) throws IOException {
+		FileLock exclusion = channel.tryLock(EXCLUSION, 1, false);
+		if(exclusion == null) {
+			// its owner is alive and holds the lock
+			return;
+		}
+		try {
+			if(tickets.getLong(SERVING) == stalled) {
+				tickets.putLong(SERVING, stalled + 1);
+			}
+		} finally {
+			exclusion.release();
+		}
+	}
+
+	/**
+	 * Once served the FileLock is free but for a moment after a skipped turn, or held by a process of an earlier version
+	 * that does not draw tickets.
+	 */
+	private FileLock lockExclusion(long deadline) throws IOException {
+		long backoff = MIN_BACKOFF_NANOS;
+		while(true) {
+			FileLock acquired = channel.tryLock(EXCLUSION, 1, false);
+			if(acquired != null) {
+				return acquired;
+			}
+			if(System.nanoTime() - deadline > 0) {
+				throw new IllegalStateException("Timed out waiting for " + lockFile + " held by another process");
+			}
+			LockSupport.parkNanos(backoff);
+			backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+		}
+	}
+
+	private FileChannel channel() throws IOException {
+		if(channel == null) {
+			Files.createDirectories(lockFile.getParent());
+			channel = FileChannel.open(lockFile, CREATE, READ, WRITE);
+			channelFileKey = fileKey();
+			tickets = channel.map(FileChannel.MapMode.READ_WRITE, 0, TICKETS_BYTES);
+		}
+		return channel;
+	}
+
+	private boolean isCurrentFile() throws IOException {
+		if(channelFileKey == null) {
+			return Files.exists(lockFile);
+		}
+		try {
+			return Objects.equals(channelFileKey, fileKey());
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+
+	private Object fileKey() throws IOException {
+		return Files.readAttributes(lockFile, BasicFileAttributes.class).fileKey();
+	}
+
+	private void closeChannel() {
+		if(channel != null) {
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+			}
+			channel = null;
+			tickets = null;
+		}
+	}
+
+}
@@ -2,7 +2,10 @@ package com.example;
 
 import com.amazonaws.services.sqs.model.Message;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implementation classes are package private.
@@ -12,9 +15,143 @@ import java.util.Optional;
  */
 public interface QueueService {
 
+	/**
+	 * Most entries a batch call accepts or returns, the limit of the SQS batch actions.
+	 */
+	int MAX_BATCH_SIZE = 10;
+
+	/**
+	 * Longest a long polling pull may wait, the SQS limit for WaitTimeSeconds.
+	 */
+	int MAX_WAIT_SECONDS = 20;
+
+	/**
+	 * Longest a visibility timeout may be, the SQS limit of 12 hours.
+	 */
+	int MAX_VISIBILITY_TIMEOUT_SECONDS = 43200;
+
+	/**
+	 * Longest a message may be delayed, the SQS limit of 15 minutes.
+	 */
+	int MAX_DELAY_SECONDS = 900;
+
+	/**
+	 * As in SQS, a queue whose name ends with this is a FIFO queue.
+	 */
+	String FIFO_SUFFIX = ".fifo";
+
+	/**
+	 * The message becomes visible once the DelaySeconds queue attribute, 0 by default, has passed.
+	 */
 	void push(String qUrl, String messageBody);
 
+	/**
+	 * Pushes a message that becomes visible delaySeconds, at most MAX_DELAY_SECONDS, from now whatever the DelaySeconds
+	 * of the queue. As in SQS, FIFO queues are only delayed per queue.
+	 */
+	void push(String qUrl, String messageBody, int delaySeconds);
+
+	/**
+	 * Pushes to a FIFO queue. Messages of a group are received in the order they were pushed, and none while another of
+	 * the group is in flight, while other groups are received in parallel. A push whose deduplication id was pushed in
+	 * the last five minutes is accepted but dropped, null leaves the message undeduplicated.
+	 */
+	void push(String qUrl, String messageBody, String messageGroupId, String messageDeduplicationId);
+
 	Optional<Message> pull(String qUrl);
 
 	void delete(String qUrl, String receiptHandler);
+
+	/**
+	 * Long polling pull: waits up to waitTime, at most MAX_WAIT_SECONDS, for a message to become visible instead of
+	 * returning empty straight away.
+	 */
+	Optional<Message> pull(String qUrl, long waitTime, TimeUnit unit);
+
+	/**
+	 * Pushes up to MAX_BATCH_SIZE messages with a single request, lock or write.
+	 */
+	void pushBatch(String qUrl, List<String> messageBodies);
+
+	/**
+	 * Receives up to maxMessages, at most MAX_BATCH_SIZE, visible messages. Returns an empty list when there are none.
+	 */
+	List<Message> pullBatch(String qUrl, int maxMessages);
+
+	/**
+	 * Deletes up to MAX_BATCH_SIZE messages with a single request, lock or write.
+	 */
+	void deleteBatch(String qUrl, List<String> receiptHandlers);
+
+	/**
+	 * Makes the received message invisible for visibilityTimeout seconds from now instead of until its current timeout
+	 * ends, 0 makes it visible right away. The receipt handle stays valid. Returns false when the receipt handle is
+	 * unknown or no longer current, or the message is no longer in flight.
+	 */
+	boolean changeMessageVisibility(String qUrl, String receiptHandler, int visibilityTimeout);
+
+	/**
+	 * Changes the visibility timeout of up to MAX_BATCH_SIZE messages with a single request, lock or write. Returns the
+	 * receipt handles changeMessageVisibility would have returned false for.
+	 */
+	List<String> changeMessageVisibilityBatch(String qUrl, List<String> receiptHandlers, int visibilityTimeout);
+
+	/**
+	 * Changes attributes of the queue, named as in SQS such as MessageRetentionPeriod. Attributes not given keep their
+	 * value.
+	 */
+	void setQueueAttributes(String qUrl, Map<String, String> attributes);
+
+	/**
+	 * The attributes that were set, along with the approximate depth of the queue: ApproximateNumberOfMessages,
+	 * ApproximateNumberOfMessagesNotVisible, ApproximateNumberOfMessagesDelayed and, where the backend knows it,
+	 * ApproximateAgeOfOldestMessage in seconds. The counts are kept as messages come and go, so this is cheap enough to
+	 * poll every second.
+	 */
+	Map<String, String> getQueueAttributes(String qUrl);
+
+	/**
+	 * Deletes every message in the queue. Messages pushed while the purge runs may or may not be deleted.
+	 */
+	void purge(String qUrl);
+
+	static void checkBatchSize(int size) {
+		if(size < 1 || size > MAX_BATCH_SIZE) {
+			throw new IllegalArgumentException("Batch size must be between 1 and " + MAX_BATCH_SIZE + " but was " + size);
+		}
+	}
+
+	static void checkVisibilityTimeout(int visibilityTimeout) {
+		if(visibilityTimeout < 0 || visibilityTimeout > MAX_VISIBILITY_TIMEOUT_SECONDS) {
+			throw new IllegalArgumentException("Visibility timeout must be between 0 and " + MAX_VISIBILITY_TIMEOUT_SECONDS + " seconds but was " + visibilityTimeout);
+		}
+	}
+
+	static void checkDelay(int delaySeconds) {
+		if(delaySeconds < 0 || delaySeconds > MAX_DELAY_SECONDS) {
+			throw new IllegalArgumentException("Delay must be between 0 and " + MAX_DELAY_SECONDS + " seconds but was " + delaySeconds);
+		}
+	}
+
+	static boolean isFifo(String qName) {
+		return qName.endsWith(FIFO_SUFFIX);
+	}
+
+	/**
+	 * FIFO queues take messages with a group only, standard queues only messages without.
+	 */
+	static void checkMessageGroup(String qName, String messageGroupId) {
+		if(isFifo(qName) && messageGroupId == null) {
+			throw new IllegalArgumentException("Messages pushed to FIFO queue " + qName + " need a message group id");
+		}
+		if(!isFifo(qName) && messageGroupId != null) {
+			throw new IllegalArgumentException("Queue " + qName + " takes no message group id, FIFO queue names end with " + FIFO_SUFFIX);
+		}
+	}
+
+	static void checkWaitTime(long waitTime, TimeUnit unit) {
+		if(waitTime < 0 || unit.toMillis(waitTime) > TimeUnit.SECONDS.toMillis(MAX_WAIT_SECONDS)) {
+			throw new IllegalArgumentException("Wait time must be between 0 and " + MAX_WAIT_SECONDS + " seconds but was " + waitTime + " " + unit);
+		}
+	}
 }
@@ -0,0 +1,96 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wakes consumers long polling a queue once a message may have become visible.
+ *
+ * A consumer finding the queue empty registers with startWaiting, tries to receive once more and then waits for the
+ * version it got to change. A signal after registering is never lost, and while nobody is registered signalling is
+ * a single read, so producers stay lock-free when no consumer long polls.
+ *
+ * <pre>
+ * long version = signal.startWaiting();
+ * try {
+ *     // receive, and if there is nothing: signal.await(version, timeout, unit)
+ * } finally {
+ *     signal.stopWaiting();
+ * }
+ * </pre>
+ */
+class QueueSignal {
+
+	private final AtomicLong version = new AtomicLong();
+	private final AtomicInteger waiters = new AtomicInteger();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+
+	/**
+	 * Wakes one waiting consumer, for a single message made visible.
+	 */
+	void signal() {
+		if(waiters.get() > 0) {
+			version.incrementAndGet();
+			lock.lock();
+			try {
+				changed.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Wakes all waiting consumers, for changes that may have made any number of messages visible.
+	 */
+	void signalAll() {
+		if(waiters.get() > 0) {
+			version.incrementAndGet();
+			lock.lock();
+			try {
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Registers the caller as waiting and returns the version to await. Must be followed by stopWaiting.
+	 */
+	long startWaiting() {
+		waiters.incrementAndGet();
+		return version.get();
+	}
+
+	void stopWaiting() {
+		waiters.decrementAndGet();
+	}
+
+	/**
+	 * Waits until signalled after seenVersion was read, or at most timeout. Returns false when the time ran out.
+	 */
+	boolean await(long seenVersion, long timeout, TimeUnit unit) {
+		long nanos = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while(version.get() == seenVersion) {
+				if(nanos <= 0) {
+					return false;
+				}
+				nanos = changed.awaitNanos(nanos);
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
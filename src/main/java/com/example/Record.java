@@ -2,31 +2,44 @@ package com.example;
 
 import com.amazonaws.services.sqs.model.Message;
 
-import java.util.concurrent.Delayed;
-import java.util.concurrent.TimeUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import static java.lang.System.currentTimeMillis;
 
 /**
  * Record class used by both InMemory and FileQueueService to hold a Message
  */
-class Record implements Delayed {
+class Record {
+
+	static final int VISIBLE = 0;
+	static final int IN_FLIGHT = 1;
+	static final int DELETED = 2;
+	static final String APPROXIMATE_RECEIVE_COUNT = "ApproximateReceiveCount";
+	static final String MESSAGE_GROUP_ID = "MessageGroupId";
 
 	private static final String NEW_LINE = System.getProperty("line.separator");
+	private static final AtomicIntegerFieldUpdater<Record> STATE = AtomicIntegerFieldUpdater.newUpdater(Record.class, "state");
 
 	private Message message;
 	private long creationTime;
-	private long visibleFromTime;
+	private volatile long visibleFromTime;
+	private volatile int state = VISIBLE;
+	private int receiveCount;
+	private String messageGroupId;
+	private String deduplicationId;
+	private int delaySeconds = -1;
 
 	private Record(Message message) {
 		this.message = message;
-		this.creationTime = System.nanoTime();
+		this.creationTime = currentTimeMillis();
 		this.visibleFromTime = currentTimeMillis();
 	}
 
 	private Record(String messageId, String body) {
 		this.message = new Message().withMessageId(messageId).withBody(body);
-		this.creationTime = System.nanoTime();
+		this.creationTime = currentTimeMillis();
 		this.visibleFromTime = currentTimeMillis();
 	}
 
@@ -44,39 +57,45 @@ class Record implements Delayed {
 		return new Record(message);
 	}
 
+	static Record toRecord(String messageId, String body, long creationTime, long visibleFromTime) {
+		return new Record(new Message().withMessageId(messageId).withBody(body), creationTime, visibleFromTime);
+	}
+
+	/**
+	 * Text format of the messages file of queues written before the segmented log, see RecordCodec for the current one.
+	 */
 	static Record fromLine(String line) {
-		String[] fields = line.split("::");
+		String[] fields = line.split("::", 5);
 		Message message = new Message().withMessageId(fields[0]).withReceiptHandle(fields[3]).withBody(fields[4]);
 		return new Record(message, Long.parseLong(fields[2]), Long.parseLong(fields[1]));
 	}
 
-	String toLine() {
-		return message.getMessageId() + "::" + visibleFromTime + "::" + creationTime + "::" + message.getReceiptHandle() + "::" + message.getBody() + NEW_LINE;
+	/**
+	 * Puts the record in a message group of a FIFO queue, deduplicated by deduplicationId unless that is null.
+	 */
+	Record inGroup(String messageGroupId, String deduplicationId) {
+		this.messageGroupId = messageGroupId;
+		this.deduplicationId = deduplicationId;
+		return this;
 	}
 
 	/**
-	 * Sort by visibility and creationTime to preserve FIFO order in DelayQueue
+	 * Gives the record a delay of its own instead of the DelaySeconds of its queue.
 	 */
-	@Override
-	public int compareTo(Delayed other) {
-		if(this.isVisible() && !((Record) other).isVisible()) {
-			return -1;
-		}
-		if(!this.isVisible() && ((Record) other).isVisible()) {
-			return 1;
-		}
-		if(this.creationTime < ((Record) other).creationTime) {
-			return -1;
-		}
-		if(this.creationTime > ((Record) other).creationTime) {
-			return 1;
-		}
-		return 0;
+	Record withDelay(int delaySeconds) {
+		this.delaySeconds = delaySeconds;
+		return this;
 	}
 
-	@Override
-	public long getDelay(TimeUnit unit) {
-		return unit.convert(visibleFromTime - currentTimeMillis(), TimeUnit.MILLISECONDS);
+	/**
+	 * Moves the visibleFromTime of a record being pushed back by its own delay, or by queueDelaySeconds when it has none.
+	 */
+	void delay(int queueDelaySeconds) {
+		visibleFromTime += (delaySeconds >= 0 ? delaySeconds : queueDelaySeconds) * 1000L;
+	}
+
+	String toLine() {
+		return message.getMessageId() + "::" + visibleFromTime + "::" + creationTime + "::" + message.getReceiptHandle() + "::" + message.getBody() + NEW_LINE;
 	}
 
 	@Override
@@ -88,10 +107,80 @@ class Record implements Delayed {
 		return message;
 	}
 
+	long getCreationTime() {
+		return creationTime;
+	}
+
 	void setDelayInSec(int delayInSec) {
 		this.visibleFromTime = currentTimeMillis() + (delayInSec * 1000);
 	}
 
+	/**
+	 * How often the record was received so far, only changed by the thread that owns it in IN_FLIGHT.
+	 */
+	int getReceiveCount() {
+		return receiveCount;
+	}
+
+	int incrementReceiveCount() {
+		return ++receiveCount;
+	}
+
+	String getMessageGroupId() {
+		return messageGroupId;
+	}
+
+	String getDeduplicationId() {
+		return deduplicationId;
+	}
+
+	/**
+	 * System attributes of the record when received for the receiveCount-th time.
+	 */
+	Map<String, String> receivedAttributes(int receiveCount) {
+		Map<String, String> attributes = new HashMap<>(4);
+		attributes.put(APPROXIMATE_RECEIVE_COUNT, Integer.toString(receiveCount));
+		if(messageGroupId != null) {
+			attributes.put(MESSAGE_GROUP_ID, messageGroupId);
+		}
+		return attributes;
+	}
+
+	long getVisibleFromTime() {
+		return visibleFromTime;
+	}
+
+	void setVisibleFromTime(long visibleFromTime) {
+		this.visibleFromTime = visibleFromTime;
+	}
+
+	/**
+	 * Lock-free state change, only the thread that won the transition may act on the record.
+	 */
+	boolean transition(int from, int to) {
+		return STATE.compareAndSet(this, from, to);
+	}
+
+	/**
+	 * Returns the state the record was deleted from, or DELETED if it already was.
+	 */
+	int markDeleted() {
+		while(true) {
+			int current = state;
+			if(current == DELETED || STATE.compareAndSet(this, current, DELETED)) {
+				return current;
+			}
+		}
+	}
+
+	boolean isInFlight() {
+		return state == IN_FLIGHT;
+	}
+
+	boolean isDeleted() {
+		return state == DELETED;
+	}
+
 	boolean isVisible() {
 		return this.visibleFromTime - currentTimeMillis() <= 0;
 	}
@@ -0,0 +1,255 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Binary layout of the records in the segments of the SegmentedLog. Every record is a frame of
+ *
+ * <pre>
+ * int   length        of the rest of the frame
+ * int   crc           CRC32 of everything after this field
+ * byte  version
+ * byte  type          RECORD or SEALED
+ * short idLength
+ * long  creationTime
+ * long  visibleFromTime
+ * byte[idLength]      message id, UTF-8
+ * byte[]              body, UTF-8, up to the end of the frame
+ * </pre>
+ *
+ * Records in a message group of a FIFO queue are written as GROUPED_VERSION, which has two more fields after
+ * visibleFromTime, short groupIdLength and short deduplicationIdLength (-1 for none), and the group id and
+ * deduplication id between message id and body.
+ *
+ * Bodies may contain any character, and frames are decoded straight from the buffer they were read into.
+ */
+class RecordCodec {
+
+	static final byte VERSION = 1;
+	static final byte GROUPED_VERSION = 2;
+	static final byte RECORD = 0;
+	static final byte SEALED = 1;
+	static final int HEADER_BYTES = 4 + 4 + 1 + 1 + 2 + 8 + 8;
+	/**
+	 * What frameLength returns for a length prefix no frame can have.
+	 */
+	static final int CORRUPT_LENGTH = -2;
+
+	private static final int CRC_OFFSET = 4;
+	private static final int VERSION_OFFSET = 8;
+	private static final int TYPE_OFFSET = 9;
+	private static final int ID_LENGTH_OFFSET = 10;
+	private static final int CREATION_TIME_OFFSET = 12;
+	private static final int VISIBLE_FROM_TIME_OFFSET = 20;
+	private static final int GROUP_ID_LENGTH_OFFSET = 28;
+	private static final int DEDUPLICATION_ID_LENGTH_OFFSET = 30;
+
+	private RecordCodec() {
+	}
+
+	static byte[] encode(Record record) {
+		Message message = record.getMessage();
+		return encode(RECORD, message.getMessageId().getBytes(StandardCharsets.UTF_8), bytes(record.getMessageGroupId()),
+				bytes(record.getDeduplicationId()), message.getBody().getBytes(StandardCharsets.UTF_8), record.getCreationTime(), record.getVisibleFromTime());
+	}
+
+	/**
+	 * The frame closing a full segment.
+	 */
+	static byte[] sealed() {
+		return encode(SEALED, new byte[0], null, null, new byte[0], 0, 0);
+	}
+
+	private static byte[] encode(byte type, byte[] id, byte[] groupId, byte[] deduplicationId, byte[] body, long creationTime, long visibleFromTime) {
+		checkLength("Message id", id);
+		int groupBytes = 0;
+		if(groupId != null) {
+			checkLength("Message group id", groupId);
+			groupBytes = 4 + groupId.length;
+			if(deduplicationId != null) {
+				checkLength("Message deduplication id", deduplicationId);
+				groupBytes += deduplicationId.length;
+			}
+		}
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + groupBytes + id.length + body.length);
+		frame.putInt(frame.capacity() - 4)
+				.putInt(0)
+				.put(groupId == null ? VERSION : GROUPED_VERSION)
+				.put(type)
+				.putShort((short) id.length)
+				.putLong(creationTime)
+				.putLong(visibleFromTime);
+		if(groupId != null) {
+			frame.putShort((short) groupId.length)
+					.putShort((short) (deduplicationId == null ? -1 : deduplicationId.length));
+		}
+		frame.put(id);
+		if(groupId != null) {
+			frame.put(groupId);
+			if(deduplicationId != null) {
+				frame.put(deduplicationId);
+			}
+		}
+		frame.put(body);
+		frame.putInt(CRC_OFFSET, crc(frame, 0, frame.capacity()));
+		return frame.array();
+	}
+
+	/**
+	 * Length of the frame starting at the position of the buffer, -1 when not even its length prefix is there, 0 when
+	 * nothing was written there yet and CORRUPT_LENGTH when the prefix can not be that of a frame.
+	 */
+	static int frameLength(ByteBuffer buffer) {
+		if(buffer.remaining() < 4) {
+			return -1;
+		}
+		int length = buffer.getInt(buffer.position());
+		if(length == 0) {
+			return 0;
+		}
+		if(length < HEADER_BYTES - 4 || length > Integer.MAX_VALUE - 4) {
+			return CORRUPT_LENGTH;
+		}
+		return length + 4;
+	}
+
+	/**
+	 * Length of the frame starting at the position of the buffer when it is complete and intact, 0 otherwise. Cheap
+	 * header checks come before the checksum, so it can be tried at every offset when looking for the next frame past
+	 * a corrupt one.
+	 */
+	static int intactFrameLength(ByteBuffer buffer) {
+		int length = frameLength(buffer);
+		if(length < HEADER_BYTES || length > buffer.remaining()) {
+			return 0;
+		}
+		int start = buffer.position();
+		byte version = buffer.get(start + VERSION_OFFSET);
+		byte type = buffer.get(start + TYPE_OFFSET);
+		short idLength = buffer.getShort(start + ID_LENGTH_OFFSET);
+		if(version != VERSION && version != GROUPED_VERSION || type != RECORD && type != SEALED || idLength < 0 || idLength > length) {
+			return 0;
+		}
+		ByteBuffer frame = buffer.slice();
+		frame.limit(length);
+		return isIntact(frame) ? length : 0;
+	}
+
+	/**
+	 * Whether the checksum of the frame, between the position and the limit of the buffer, matches.
+	 */
+	static boolean isIntact(ByteBuffer frame) {
+		return frame.remaining() >= HEADER_BYTES && frame.getInt(frame.position() + CRC_OFFSET) == crc(frame, frame.position(), frame.limit());
+	}
+
+	static boolean isSealed(ByteBuffer frame) {
+		return type(frame) == SEALED;
+	}
+
+	static String messageId(ByteBuffer frame) {
+		return string(frame, idStart(frame), idLength(frame));
+	}
+
+	/**
+	 * Null unless the record is in a message group.
+	 */
+	static String messageGroupId(ByteBuffer frame) {
+		if(!isGrouped(frame)) {
+			return null;
+		}
+		return string(frame, idStart(frame) + idLength(frame), frame.getShort(frame.position() + GROUP_ID_LENGTH_OFFSET));
+	}
+
+	static String deduplicationId(ByteBuffer frame) {
+		if(!isGrouped(frame) || frame.getShort(frame.position() + DEDUPLICATION_ID_LENGTH_OFFSET) < 0) {
+			return null;
+		}
+		return string(frame, idStart(frame) + idLength(frame) + frame.getShort(frame.position() + GROUP_ID_LENGTH_OFFSET),
+				frame.getShort(frame.position() + DEDUPLICATION_ID_LENGTH_OFFSET));
+	}
+
+	static long creationTime(ByteBuffer frame) {
+		return frame.getLong(frame.position() + CREATION_TIME_OFFSET);
+	}
+
+	static long visibleFromTime(ByteBuffer frame) {
+		return frame.getLong(frame.position() + VISIBLE_FROM_TIME_OFFSET);
+	}
+
+	/**
+	 * Decodes the record framed between the position and the limit of the buffer.
+	 */
+	static Record decode(ByteBuffer frame) {
+		if(!isIntact(frame)) {
+			throw new IllegalStateException("Corrupt record, checksum mismatch");
+		}
+		if(type(frame) != RECORD) {
+			throw new IllegalStateException("Not a message record: " + type(frame));
+		}
+		int start = frame.position();
+		String messageId = messageId(frame);
+		String groupId = messageGroupId(frame);
+		String deduplicationId = deduplicationId(frame);
+		int bodyStart = idStart(frame) + idLength(frame);
+		if(groupId != null) {
+			bodyStart += frame.getShort(start + GROUP_ID_LENGTH_OFFSET) + Math.max(frame.getShort(start + DEDUPLICATION_ID_LENGTH_OFFSET), 0);
+		}
+		String body = string(frame, bodyStart, frame.limit() - bodyStart);
+		Record record = Record.toRecord(messageId, body, frame.getLong(start + CREATION_TIME_OFFSET), frame.getLong(start + VISIBLE_FROM_TIME_OFFSET));
+		return groupId == null ? record : record.inGroup(groupId, deduplicationId);
+	}
+
+	private static byte type(ByteBuffer frame) {
+		byte version = frame.get(frame.position() + VERSION_OFFSET);
+		if(version != VERSION && version != GROUPED_VERSION) {
+			throw new IllegalStateException("Unsupported record version " + version);
+		}
+		return frame.get(frame.position() + TYPE_OFFSET);
+	}
+
+	private static boolean isGrouped(ByteBuffer frame) {
+		return frame.get(frame.position() + VERSION_OFFSET) == GROUPED_VERSION;
+	}
+
+	private static int idStart(ByteBuffer frame) {
+		return frame.position() + (isGrouped(frame) ? HEADER_BYTES + 4 : HEADER_BYTES);
+	}
+
+	private static void checkLength(String name, byte[] bytes) {
+		if(bytes.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException(name + " is too long: " + bytes.length + " bytes");
+		}
+	}
+
+	private static byte[] bytes(String value) {
+		return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static int idLength(ByteBuffer frame) {
+		return frame.getShort(frame.position() + ID_LENGTH_OFFSET);
+	}
+
+	private static int crc(ByteBuffer frame, int start, int end) {
+		CRC32 crc = new CRC32();
+		ByteBuffer checked = frame.duplicate();
+		checked.limit(end).position(start + VERSION_OFFSET);
+		crc.update(checked);
+		return (int) crc.getValue();
+	}
+
+	private static String string(ByteBuffer frame, int offset, int length) {
+		if(frame.hasArray()) {
+			return new String(frame.array(), frame.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+		}
+		byte[] bytes = new byte[length];
+		ByteBuffer source = frame.duplicate();
+		source.position(offset);
+		source.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
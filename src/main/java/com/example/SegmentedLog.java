@@ -0,0 +1,458 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append-only log of pushed records split into numbered segment files. Records are only ever appended to the newest
+ * segment; once it grows past maxSegmentBytes it is sealed with a marker record and a new segment is started, so older
+ * segments can be dropped as a whole once all their messages are deleted. Records are framed by RecordCodec.
+ *
+ * Segments are read and written through cached FileChannels, or when mapped through cached MappedByteBuffers: records
+ * are then appended into the mapping and read in place. A mapped segment is grown to maxSegmentBytes up front, the
+ * zero length prefix after the last record marks the end of the data for readers in either mode. Writers append where
+ * the caller's scan ended rather than at the end of the file for the same reason.
+ *
+ * Not thread safe, callers are expected to hold the queue lock.
+ */
+class SegmentedLog implements Closeable {
+
+	private static final byte[] SEALED_MARKER = RecordCodec.sealed();
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final int READ_CHUNK_SIZE = 64 * 1024;
+
+	private final Path dir;
+	private final long maxSegmentBytes;
+	private final boolean mapped;
+	private final Map<Long, FileChannel> channels = new HashMap<>();
+	private final Map<Long, MappedByteBuffer> mappings = new HashMap<>();
+	private final Set<Long> unsynced = new HashSet<>();
+	private final LongAdder corruptFrames = new LongAdder();
+
+	SegmentedLog(Path dir, long maxSegmentBytes) {
+		this(dir, maxSegmentBytes, false);
+	}
+
+	SegmentedLog(Path dir, long maxSegmentBytes, boolean mapped) {
+		if(mapped && maxSegmentBytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Mapped segments are limited to " + Integer.MAX_VALUE + " bytes");
+		}
+		this.dir = dir;
+		this.maxSegmentBytes = maxSegmentBytes;
+		this.mapped = mapped;
+	}
+
+	/**
+	 * Appends one or more encoded records to the given segment, which must be the newest one and hold segmentSize bytes
+	 * of records. Returns the id of the segment the records ended up in; that is a new segment when the given one was
+	 * full. Records written together are never split across segments.
+	 */
+	long append(long segmentId, long segmentSize, byte[] bytes) {
+		if(segmentSize > 0 && segmentSize + bytes.length > maxSegmentBytes) {
+			write(segmentId, segmentSize, SEALED_MARKER);
+			segmentId++;
+			segmentSize = 0;
+		}
+		write(segmentId, segmentSize, bytes);
+		return segmentId;
+	}
+
+	/**
+	 * Writes the bytes followed by a zero length prefix. Whatever a writer that crashed mid-append left behind is then
+	 * never read, however much of it the new records overwrite.
+	 */
+	private void write(long segmentId, long position, byte[] records) {
+		unsynced.add(segmentId);
+		byte[] bytes = Arrays.copyOf(records, records.length + 4);
+		try {
+			if(mapped) {
+				ByteBuffer target = mapping(segmentId, position + bytes.length, true).duplicate();
+				target.position((int) position);
+				target.put(bytes);
+				return;
+			}
+			FileChannel channel = channel(segmentId, true);
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			while(buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Flushes everything appended since the last call to the storage device.
+	 */
+	void force() {
+		try {
+			for(Long segmentId : unsynced) {
+				MappedByteBuffer mapping = mappings.get(segmentId);
+				if(mapped && mapping != null) {
+					mapping.force();
+				} else {
+					FileChannel channel = channels.get(segmentId);
+					if(channel != null) {
+						channel.force(false);
+					}
+				}
+			}
+			unsynced.clear();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Reads the frame of a single record, or returns null when the segment is gone. Mapped segments return a view of
+	 * the mapping.
+	 */
+	ByteBuffer read(long segmentId, long offset, int length) {
+		try {
+			if(mapped) {
+				MappedByteBuffer mapping = mapping(segmentId, offset + length, false);
+				if(mapping == null) {
+					return null;
+				}
+				ByteBuffer frame = mapping.duplicate();
+				frame.limit((int) offset + length).position((int) offset);
+				return frame.slice();
+			}
+			FileChannel channel = channel(segmentId, false);
+			if(channel == null) {
+				return null;
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			while(buffer.hasRemaining()) {
+				if(channel.read(buffer, offset + buffer.position()) < 0) {
+					return null;
+				}
+			}
+			buffer.flip();
+			return buffer;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Reads complete records of a segment starting at offset and returns the offset after the last complete record, or
+	 * -1 when the segment does not exist.
+	 */
+	long scan(long segmentId, long offset, FrameConsumer consumer) {
+		try {
+			FileChannel channel = channel(segmentId, false);
+			return channel == null ? -1 : scanFrames(segmentId, channel, mapped, offset, consumer);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Reads the records of whole segments concurrently, each through a channel of its own, and returns them per
+	 * segment in the given order. Segments that do not exist have no records.
+	 */
+	List<List<Scanned>> scanAll(List<Long> segmentIds) {
+		return segmentIds.parallelStream().map(segmentId -> {
+			List<Scanned> records = new ArrayList<>();
+			try(FileChannel channel = FileChannel.open(segmentPath(segmentId), READ)) {
+				scanFrames(segmentId, channel, false, 0, (frame, offset, length) -> {
+					if(RecordCodec.isSealed(frame)) {
+						return false;
+					}
+					records.add(new Scanned(RecordCodec.messageId(frame), RecordCodec.messageGroupId(frame), RecordCodec.deduplicationId(frame),
+							RecordCodec.creationTime(frame), RecordCodec.visibleFromTime(frame), offset, length));
+					return true;
+				});
+			} catch (NoSuchFileException e) {
+				return records;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return records;
+		}).collect(Collectors.toList());
+	}
+
+	/**
+	 * Corrupt frames scans skipped so far. A frame is counted each time it is skipped, by every scan passing it.
+	 */
+	long corruptFrames() {
+		return corruptFrames.sum();
+	}
+
+	TreeSet<Long> segmentIds() {
+		TreeSet<Long> ids = new TreeSet<>();
+		if(Files.notExists(dir)) {
+			return ids;
+		}
+		try(Stream<Path> files = Files.list(dir)) {
+			files.map(path -> path.getFileName().toString())
+					.filter(name -> name.endsWith(SEGMENT_SUFFIX))
+					.forEach(name -> ids.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()))));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return ids;
+	}
+
+	void delete(long segmentId) {
+		closeChannel(segmentId);
+		try {
+			Files.deleteIfExists(segmentPath(segmentId));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	Path segmentPath(long segmentId) {
+		return dir.resolve(String.format("%020d", segmentId) + SEGMENT_SUFFIX);
+	}
+
+	private FileChannel channel(long segmentId, boolean create) throws IOException {
+		FileChannel channel = channels.get(segmentId);
+		if(channel != null) {
+			return channel;
+		}
+		Path path = segmentPath(segmentId);
+		if(create) {
+			Files.createDirectories(dir);
+		}
+		try {
+			channel = create ? FileChannel.open(path, CREATE, READ, WRITE) : FileChannel.open(path, READ, WRITE);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		channels.put(segmentId, channel);
+		return channel;
+	}
+
+	/**
+	 * Returns a mapping of the segment covering at least minCapacity bytes, or null when the segment is not that large.
+	 * Writers map maxSegmentBytes or more, which grows the file, readers map what is there. Mappings replaced are
+	 * released by the garbage collector, Java offers no way to unmap them.
+	 */
+	private MappedByteBuffer mapping(long segmentId, long minCapacity, boolean create) throws IOException {
+		MappedByteBuffer mapping = mappings.get(segmentId);
+		if(mapping != null && mapping.capacity() >= minCapacity) {
+			return mapping;
+		}
+		FileChannel channel = channel(segmentId, create);
+		if(channel == null) {
+			return null;
+		}
+		long capacity = create ? Math.max(Math.max(minCapacity, maxSegmentBytes), channel.size()) : channel.size();
+		if(capacity < minCapacity) {
+			return null;
+		}
+		if(capacity > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Segment " + segmentId + " is too large to map: " + capacity + " bytes");
+		}
+		mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		mappings.put(segmentId, mapping);
+		return mapping;
+	}
+
+	private void closeChannel(long segmentId) {
+		unsynced.remove(segmentId);
+		mappings.remove(segmentId);
+		FileChannel channel = channels.remove(segmentId);
+		if(channel != null) {
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		new TreeSet<>(channels.keySet()).forEach(this::closeChannel);
+		mappings.clear();
+	}
+
+	/**
+	 * A frame failing its checksum, or whose length prefix is impossible or runs past the end of the file, is what a
+	 * writer that crashed mid-append left behind, or one still being written, when no intact frame follows it. It then
+	 * ends the scan like an incomplete frame. Otherwise it is corruption: the scan resumes at the next intact frame and
+	 * the skipped frame is counted in corruptFrames.
+	 */
+	private long scanFrames(long segmentId, FileChannel channel, boolean mapped, long offset, FrameConsumer consumer) throws IOException {
+		long size = channel.size();
+		ByteBuffer buffer;
+		if(mapped) {
+			if(offset >= size) {
+				return offset;
+			}
+			buffer = mapping(segmentId, size, false).duplicate();
+			buffer.limit((int) size).position((int) offset);
+		} else {
+			buffer = ByteBuffer.allocate(READ_CHUNK_SIZE);
+			buffer.flip();
+		}
+		long position = offset;
+		while(true) {
+			int length = RecordCodec.frameLength(buffer);
+			if(length == 0) {
+				// the end of the data, or space a mapped writer reserved but did not fill yet
+				return position;
+			}
+			boolean fits = length > 0 && position + length <= size;
+			if(length == -1 || fits && length > buffer.remaining()) {
+				long readFrom = position + buffer.remaining();
+				if(mapped || readFrom >= size) {
+					return position;
+				}
+				if(length > buffer.capacity()) {
+					buffer = ByteBuffer.allocate(length).put(buffer);
+				} else {
+					buffer.compact();
+				}
+				int read = channel.read(buffer, readFrom);
+				buffer.flip();
+				if(read <= 0) {
+					return position;
+				}
+				continue;
+			}
+			ByteBuffer frame = null;
+			if(fits) {
+				frame = buffer.slice();
+				frame.limit(length);
+			}
+			if(frame == null || !RecordCodec.isIntact(frame)) {
+				long next = nextIntactFrame(channel, position + 1, size);
+				if(next < 0) {
+					return position;
+				}
+				corruptFrames.increment();
+				if(mapped) {
+					buffer.position((int) next);
+				} else {
+					buffer.position(buffer.limit());
+				}
+				position = next;
+				continue;
+			}
+			boolean proceed = consumer.accept(frame, position, length);
+			buffer.position(buffer.position() + length);
+			position += length;
+			if(!proceed) {
+				return position;
+			}
+		}
+	}
+
+	/**
+	 * Offset of the first intact frame at or after from, or -1 when there is none before the end of the file. Only
+	 * called past a corrupt frame, so trying every offset is fine. A zero length prefix is no reason to stop, the
+	 * corrupt data may hold zeros as well.
+	 */
+	private static long nextIntactFrame(FileChannel channel, long from, long size) throws IOException {
+		if(from + RecordCodec.HEADER_BYTES > size) {
+			return -1;
+		}
+		ByteBuffer rest = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(size - from, Integer.MAX_VALUE));
+		for(int candidate = 0; candidate + RecordCodec.HEADER_BYTES <= rest.limit(); candidate++) {
+			rest.position(candidate);
+			if(RecordCodec.intactFrameLength(rest) > 0) {
+				return from + candidate;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Scans the newline terminated text of the state log.
+	 */
+	static long scanLines(FileChannel channel, long offset, LineConsumer consumer) throws IOException {
+		long size = channel.size();
+		ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK_SIZE);
+		byte[] pending = new byte[0];
+		long position = offset;
+		long consumed = offset;
+		while(position < size) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if(read <= 0) {
+				break;
+			}
+			position += read;
+			byte[] chunk = new byte[pending.length + read];
+			System.arraycopy(pending, 0, chunk, 0, pending.length);
+			System.arraycopy(buffer.array(), 0, chunk, pending.length, read);
+			int lineStart = 0;
+			for(int i = 0; i < chunk.length; i++) {
+				if(chunk[i] == '\n') {
+					int length = i + 1 - lineStart;
+					boolean proceed = consumer.accept(new String(chunk, lineStart, i - lineStart, StandardCharsets.UTF_8), consumed, length);
+					consumed += length;
+					lineStart = i + 1;
+					if(!proceed) {
+						return consumed;
+					}
+				}
+			}
+			pending = new byte[chunk.length - lineStart];
+			System.arraycopy(chunk, lineStart, pending, 0, pending.length);
+		}
+		return consumed;
+	}
+
+	/**
+	 * Location of a record found by scanAll.
+	 */
+	static class Scanned {
+		final String messageId;
+		final String messageGroupId;
+		final String deduplicationId;
+		final long creationTime;
+		final long visibleFromTime;
+		final long offset;
+		final int length;
+
+		private Scanned(String messageId, String messageGroupId, String deduplicationId, long creationTime, long visibleFromTime, long offset, int length) {
+			this.messageId = messageId;
+			this.messageGroupId = messageGroupId;
+			this.deduplicationId = deduplicationId;
+			this.creationTime = creationTime;
+			this.visibleFromTime = visibleFromTime;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Returning false stops the scan after the current record. The frame is only valid during the call.
+	 */
+	interface FrameConsumer {
+		boolean accept(ByteBuffer frame, long offset, int length);
+	}
+
+	/**
+	 * Returning false stops the scan after the current line.
+	 */
+	interface LineConsumer {
+		boolean accept(String line, long offset, int length);
+	}
+
+}
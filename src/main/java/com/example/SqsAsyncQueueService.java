@@ -0,0 +1,59 @@
+package com.example;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AmazonSQSAsyncClient;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * AsyncQueueService on the SDK's async client. The futures are completed from its callbacks, callers never wait.
+ */
+class SqsAsyncQueueService implements AsyncQueueService {
+
+  private AmazonSQSAsyncClient sqs;
+
+  SqsAsyncQueueService(AmazonSQSAsyncClient sqs) {
+    this.sqs = sqs;
+  }
+
+  @Override
+  public CompletableFuture<Void> push(String qUrl, String messageBody) {
+    CompletableFuture<Void> pushed = new CompletableFuture<>();
+    sqs.sendMessageAsync(new SendMessageRequest(qUrl, messageBody), completing(pushed, result -> null));
+    return pushed;
+  }
+
+  @Override
+  public CompletableFuture<Optional<Message>> pull(String qUrl) {
+    CompletableFuture<Optional<Message>> pulled = new CompletableFuture<>();
+    sqs.receiveMessageAsync(new ReceiveMessageRequest(qUrl), completing(pulled, result -> result.getMessages().stream().findFirst()));
+    return pulled;
+  }
+
+  @Override
+  public CompletableFuture<Void> delete(String qUrl, String receiptHandler) {
+    CompletableFuture<Void> deleted = new CompletableFuture<>();
+    sqs.deleteMessageAsync(new DeleteMessageRequest(qUrl, receiptHandler), completing(deleted, result -> null));
+    return deleted;
+  }
+
+  private static <Q extends AmazonWebServiceRequest, R, T> AsyncHandler<Q, R> completing(CompletableFuture<T> future, Function<R, T> mapper) {
+    return new AsyncHandler<Q, R>() {
+      @Override
+      public void onError(Exception exception) {
+        future.completeExceptionally(exception);
+      }
+
+      @Override
+      public void onSuccess(Q request, R result) {
+        future.complete(mapper.apply(result));
+      }
+    };
+  }
+}
@@ -1,11 +1,27 @@
 package com.example;
 
 import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
 import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageNotInflightException;
+import com.amazonaws.services.sqs.model.PurgeQueueRequest;
+import com.amazonaws.services.sqs.model.ReceiptHandleIsInvalidException;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 class SqsQueueService implements QueueService {
 
+  private static final String MESSAGE_DEDUPLICATION_ID = "MessageDeduplicationId";
+
   private AmazonSQSClient sqs;
 
   SqsQueueService(AmazonSQSClient sqs) {
@@ -17,6 +33,25 @@ class SqsQueueService implements QueueService {
     sqs.sendMessage(qUrl, messageBody);
   }
 
+  @Override
+  public void push(String qUrl, String messageBody, int delaySeconds) {
+    QueueService.checkDelay(delaySeconds);
+    sqs.sendMessage(new SendMessageRequest(qUrl, messageBody).withDelaySeconds(delaySeconds));
+  }
+
+  /**
+   * This SDK predates FIFO queues, the group and deduplication ids go out as custom query parameters.
+   */
+  @Override
+  public void push(String qUrl, String messageBody, String messageGroupId, String messageDeduplicationId) {
+    SendMessageRequest request = new SendMessageRequest(qUrl, messageBody);
+    request.putCustomQueryParameter(Record.MESSAGE_GROUP_ID, messageGroupId);
+    if (messageDeduplicationId != null) {
+      request.putCustomQueryParameter(MESSAGE_DEDUPLICATION_ID, messageDeduplicationId);
+    }
+    sqs.sendMessage(request);
+  }
+
   @Override
   public Optional<Message> pull(String qUrl) {
     return sqs.receiveMessage(qUrl).getMessages().stream().findFirst();
@@ -26,4 +61,110 @@ class SqsQueueService implements QueueService {
   public void delete(String qUrl, String receiptHandler) {
     sqs.deleteMessage(qUrl, receiptHandler);
   }
+
+  /**
+   * SQS waits in whole seconds, a shorter remainder is dropped.
+   */
+  @Override
+  public Optional<Message> pull(String qUrl, long waitTime, TimeUnit unit) {
+    QueueService.checkWaitTime(waitTime, unit);
+    ReceiveMessageRequest request = new ReceiveMessageRequest(qUrl).withWaitTimeSeconds((int) unit.toSeconds(waitTime));
+    return sqs.receiveMessage(request).getMessages().stream().findFirst();
+  }
+
+  @Override
+  public void pushBatch(String qUrl, List<String> messageBodies) {
+    QueueService.checkBatchSize(messageBodies.size());
+    List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+    for (int i = 0; i < messageBodies.size(); i++) {
+      entries.add(new SendMessageBatchRequestEntry(Integer.toString(i), messageBodies.get(i)));
+    }
+    failIfAny(sqs.sendMessageBatch(qUrl, entries).getFailed());
+  }
+
+  @Override
+  public List<Message> pullBatch(String qUrl, int maxMessages) {
+    QueueService.checkBatchSize(maxMessages);
+    return sqs.receiveMessage(new ReceiveMessageRequest(qUrl).withMaxNumberOfMessages(maxMessages)).getMessages();
+  }
+
+  @Override
+  public void deleteBatch(String qUrl, List<String> receiptHandlers) {
+    QueueService.checkBatchSize(receiptHandlers.size());
+    List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+    for (int i = 0; i < receiptHandlers.size(); i++) {
+      entries.add(new DeleteMessageBatchRequestEntry(Integer.toString(i), receiptHandlers.get(i)));
+    }
+    failIfAny(sqs.deleteMessageBatch(qUrl, entries).getFailed());
+  }
+
+  /**
+   * SQS throws for a receipt handle it does not know or whose message is no longer in flight, taken as false.
+   */
+  @Override
+  public boolean changeMessageVisibility(String qUrl, String receiptHandler, int visibilityTimeout) {
+    QueueService.checkVisibilityTimeout(visibilityTimeout);
+    try {
+      sqs.changeMessageVisibility(qUrl, receiptHandler, visibilityTimeout);
+      return true;
+    } catch (ReceiptHandleIsInvalidException | MessageNotInflightException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public List<String> changeMessageVisibilityBatch(String qUrl, List<String> receiptHandlers, int visibilityTimeout) {
+    QueueService.checkBatchSize(receiptHandlers.size());
+    QueueService.checkVisibilityTimeout(visibilityTimeout);
+    List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>();
+    for (int i = 0; i < receiptHandlers.size(); i++) {
+      entries.add(new ChangeMessageVisibilityBatchRequestEntry(Integer.toString(i), receiptHandlers.get(i)).withVisibilityTimeout(visibilityTimeout));
+    }
+    List<String> failed = new ArrayList<>();
+    for (BatchResultErrorEntry entry : sqs.changeMessageVisibilityBatch(qUrl, entries).getFailed()) {
+      failed.add(receiptHandlers.get(Integer.parseInt(entry.getId())));
+    }
+    return failed;
+  }
+
+  @Override
+  public void setQueueAttributes(String qUrl, Map<String, String> attributes) {
+    sqs.setQueueAttributes(qUrl, attributes);
+  }
+
+  /**
+   * Asks for all attributes. SQS has no ApproximateAgeOfOldestMessage attribute, that is a CloudWatch metric only.
+   */
+  @Override
+  public Map<String, String> getQueueAttributes(String qUrl) {
+    return sqs.getQueueAttributes(new GetQueueAttributesRequest(qUrl).withAttributeNames("All")).getAttributes();
+  }
+
+  /**
+   * SQS allows one purge per queue every 60 seconds and takes up to that long to complete.
+   */
+  @Override
+  public void purge(String qUrl) {
+    sqs.purgeQueue(new PurgeQueueRequest(qUrl));
+  }
+
+  /**
+   * Batch actions report failed entries in the result instead of throwing like the single message actions do. Entries
+   * failed through a fault of the sender fail again when retried, the others are worth sending again.
+   */
+  private static void failIfAny(List<BatchResultErrorEntry> failed) {
+    if (!failed.isEmpty()) {
+      List<Integer> retryable = new ArrayList<>();
+      List<Integer> permanent = new ArrayList<>();
+      for (BatchResultErrorEntry entry : failed) {
+        if (Boolean.TRUE.equals(entry.getSenderFault())) {
+          permanent.add(Integer.parseInt(entry.getId()));
+        } else {
+          retryable.add(Integer.parseInt(entry.getId()));
+        }
+      }
+      BatchResultErrorEntry first = failed.get(0);
+      throw new BatchEntriesFailedException(failed.size() + " batch entries failed, entry " + first.getId() + ": " + first.getCode() + " " + first.getMessage(), retryable, permanent);
+    }
+  }
 }
@@ -0,0 +1,225 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Journal of state changes (receive, visibility change, delete, purge, queue attributes) applied on top of the
+ * messages in the SegmentedLog.
+ *
+ * The journal is a sequence of generations, state-N.log. Compaction writes the next generation starting with a
+ * snapshot of the live messages and then seals the current one, which tells readers in other processes to rebuild
+ * from the new generation.
+ *
+ * Lines are appended after the last complete line a scan found rather than at the end of the file, so the partial
+ * line of a writer that crashed mid-append is overwritten instead of corrupting the next line.
+ *
+ * Not thread safe, callers are expected to hold the queue lock.
+ */
+class StateLog implements Closeable {
+
+	static final String RECEIVE = "R";
+	static final String VISIBILITY = "V";
+	static final String DELETE = "D";
+	static final String PURGE = "P";
+	static final String ATTRIBUTE = "A";
+	static final String SNAPSHOT = "S";
+	static final String LIVE = "L";
+	static final String SNAPSHOT_END = "E";
+	static final String SEALED_MARKER = "#SEALED";
+	static final String SEPARATOR = "::";
+
+	private static final String PREFIX = "state-";
+	private static final String SUFFIX = ".log";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final Path dir;
+	private long generation;
+	private FileChannel channel;
+	private long end = -1;
+
+	StateLog(Path dir) {
+		this.dir = dir;
+		this.generation = latestGeneration();
+	}
+
+	long generation() {
+		return generation;
+	}
+
+	/**
+	 * Re-opens the newest generation, used after the current one was found sealed.
+	 */
+	void reopen() {
+		close();
+		generation = latestGeneration();
+	}
+
+	/**
+	 * Returns the number of bytes appended.
+	 */
+	int append(String... fields) {
+		return append(Collections.singletonList(fields));
+	}
+
+	/**
+	 * Appends one line per entry with a single write. Returns the number of bytes appended.
+	 */
+	int append(List<String[]> entries) {
+		StringBuilder lines = new StringBuilder();
+		for(String[] fields : entries) {
+			lines.append(String.join(SEPARATOR, fields)).append('\n');
+		}
+		byte[] bytes = lines.toString().getBytes(StandardCharsets.UTF_8);
+		if(bytes.length > 0) {
+			write(bytes);
+		}
+		return bytes.length;
+	}
+
+	long scan(long offset, SegmentedLog.LineConsumer consumer) {
+		try {
+			boolean[] stopped = {false};
+			long scanned = SegmentedLog.scanLines(channel(), offset, (line, lineOffset, length) -> {
+				stopped[0] = !consumer.accept(line, lineOffset, length);
+				return !stopped[0];
+			});
+			if(!stopped[0]) {
+				end = scanned;
+			}
+			return scanned;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	long size() {
+		try {
+			return channel().size();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Writes the snapshot lines as the next generation, atomically publishes it and seals the current generation.
+	 */
+	void compact(List<String> snapshotLines) {
+		Path next = path(generation + 1);
+		Path temp = dir.resolve(next.getFileName() + TEMP_SUFFIX);
+		try {
+			Files.write(temp, snapshotLines, StandardCharsets.UTF_8);
+			Files.move(temp, next, StandardCopyOption.ATOMIC_MOVE);
+			write((SEALED_MARKER + "\n").getBytes(StandardCharsets.UTF_8));
+			Path previous = path(generation);
+			reopen();
+			Files.deleteIfExists(previous);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void write(byte[] bytes) {
+		try {
+			FileChannel channel = channel();
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			long position = end >= 0 ? end : channel.size();
+			while(buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			end = position;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Removes the snapshot of a compaction that did not get to publish it.
+	 */
+	void deleteUnpublishedSnapshots() {
+		if(Files.notExists(dir)) {
+			return;
+		}
+		try(Stream<Path> files = Files.list(dir)) {
+			for(Path file : (Iterable<Path>) files::iterator) {
+				String name = file.getFileName().toString();
+				if(name.startsWith(PREFIX) && name.endsWith(SUFFIX + TEMP_SUFFIX)) {
+					Files.deleteIfExists(file);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private FileChannel channel() {
+		if(channel == null) {
+			try {
+				channel = FileChannel.open(path(generation), READ, WRITE);
+			} catch (NoSuchFileException e) {
+				long latest = latestGeneration();
+				if(latest > generation) {
+					// compacted away by another process since we listed the directory
+					generation = latest;
+					return channel();
+				}
+				channel = create();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return channel;
+	}
+
+	private FileChannel create() {
+		try {
+			Files.createDirectories(dir);
+			return FileChannel.open(path(generation), CREATE, READ, WRITE);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private long latestGeneration() {
+		if(Files.notExists(dir)) {
+			return 0;
+		}
+		try(Stream<Path> files = Files.list(dir)) {
+			return files.map(path -> path.getFileName().toString())
+					.filter(name -> name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+					.mapToLong(name -> Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())))
+					.max().orElse(0);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	Path path(long generation) {
+		return dir.resolve(PREFIX + generation + SUFFIX);
+	}
+
+	@Override
+	public void close() {
+		if(channel != null) {
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+			}
+			channel = null;
+		}
+		end = -1;
+	}
+
+}
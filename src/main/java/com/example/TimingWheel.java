@@ -0,0 +1,110 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Hashed timing wheel firing items once their deadline has passed, at tick granularity and never early.
+ *
+ * Scheduling is lock-free and O(1): items are queued and only placed into a bucket by the thread advancing the
+ * wheel. Advancing visits one bucket per elapsed tick; items more than one revolution away carry a round count and
+ * are passed over until it runs out. Only one thread advances at a time, others return straight away.
+ *
+ * The expiry callback gets the time of the tick being fired, so callers need not read the clock per item.
+ */
+class TimingWheel<T> {
+
+	private final long tickMillis;
+	private final int mask;
+	private final List<List<Timeout<T>>> buckets;
+	private final ObjLongConsumer<T> onExpiry;
+	private final ConcurrentLinkedQueue<Timeout<T>> pending = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean advancing = new AtomicBoolean();
+	private final long startTime;
+	private long currentTick;
+
+	/**
+	 * @param wheelSize rounded up to a power of two
+	 */
+	TimingWheel(long tickMillis, int wheelSize, long startTime, ObjLongConsumer<T> onExpiry) {
+		int size = Integer.highestOneBit(Math.max(wheelSize, 1) * 2 - 1);
+		this.tickMillis = tickMillis;
+		this.mask = size - 1;
+		this.buckets = new ArrayList<>(size);
+		for(int i = 0; i < size; i++) {
+			buckets.add(new ArrayList<>());
+		}
+		this.startTime = startTime;
+		this.onExpiry = onExpiry;
+	}
+
+	void schedule(T item, long deadline) {
+		pending.offer(new Timeout<>(item, deadline));
+	}
+
+	/**
+	 * Fires everything due up to now. Returns false without doing anything when another thread is advancing.
+	 */
+	boolean advance(long now) {
+		if(!advancing.compareAndSet(false, true)) {
+			return false;
+		}
+		try {
+			long targetTick = (now - startTime) / tickMillis;
+			drainPending(now);
+			while(currentTick < targetTick) {
+				currentTick++;
+				expireBucket(buckets.get((int) (currentTick & mask)), startTime + currentTick * tickMillis);
+			}
+			return true;
+		} finally {
+			advancing.set(false);
+		}
+	}
+
+	private void drainPending(long now) {
+		Timeout<T> timeout;
+		while((timeout = pending.poll()) != null) {
+			long tick = ceilDiv(timeout.deadline - startTime, tickMillis);
+			if(tick <= currentTick) {
+				onExpiry.accept(timeout.item, now);
+				continue;
+			}
+			timeout.rounds = (tick - currentTick - 1) / buckets.size();
+			buckets.get((int) (tick & mask)).add(timeout);
+		}
+	}
+
+	private void expireBucket(List<Timeout<T>> bucket, long tickTime) {
+		int kept = 0;
+		for(int i = 0; i < bucket.size(); i++) {
+			Timeout<T> timeout = bucket.get(i);
+			if(timeout.rounds > 0) {
+				timeout.rounds--;
+				bucket.set(kept++, timeout);
+			} else {
+				onExpiry.accept(timeout.item, tickTime);
+			}
+		}
+		bucket.subList(kept, bucket.size()).clear();
+	}
+
+	private static long ceilDiv(long value, long divisor) {
+		return -Math.floorDiv(-value, divisor);
+	}
+
+	private static class Timeout<T> {
+		private final T item;
+		private final long deadline;
+		private long rounds;
+
+		private Timeout(T item, long deadline) {
+			this.item = item;
+			this.deadline = deadline;
+		}
+	}
+
+}
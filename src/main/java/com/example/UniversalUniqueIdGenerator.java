@@ -1,49 +1,179 @@
 package com.example;
 
-import org.apache.commons.lang3.RandomStringUtils;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  * UniversalUniqueIdGenerator is a file based unique id generator. However a batch of sequences are cached to reduce
  * I/O operation.
  *
  * This is used to generate unique messageId and receiptHandler.
+ *
+ * Ids within a batch are handed out with a single atomic increment. Once half of a batch is used the next one is
+ * reserved in the background, and its size adapts so a batch lasts about a second at the current rate of use.
  */
 class UniversalUniqueIdGenerator {
 
-	static final int TOTAL_CACHE = 100;
-	private final Path SEQUENCE_FILE_PATH;
+	static final int MIN_BATCH_SIZE = 100;
+	static final int MAX_BATCH_SIZE = 1 << 20;
+	private static final long TARGET_BATCH_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private static final boolean COMPACT_IDS = Boolean.getBoolean("idGenerator.compact");
+	private static final char[] ALPHANUMERIC = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+	private static final ExecutorService PREFETCHER = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "id-batch-prefetcher");
+		thread.setDaemon(true);
+		return thread;
+	});
 
-	private int remainingCacheCount = 0;
-	private long currentValue;
+	private final Path SEQUENCE_FILE_PATH;
+	private final boolean compact;
+	private final AtomicReference<Batch> current = new AtomicReference<>(new Batch(0, 0));
+	private CompletableFuture<Batch> prefetched;
+	private int batchSize = MIN_BATCH_SIZE;
 
 	UniversalUniqueIdGenerator() {
+		this(COMPACT_IDS);
+	}
+
+	/**
+	 * @param compact whether ids are the bare sequence number in base 36 rather than the number with a random suffix
+	 */
+	UniversalUniqueIdGenerator(boolean compact) {
 		String basePath = System.getProperty("fileQueueService.basePath");
 		SEQUENCE_FILE_PATH = Paths.get(basePath, "sequence");
+		this.compact = compact;
+	}
+
+	String nextValue() {
+		long value = nextLong();
+		if(compact) {
+			return Long.toString(value, Character.MAX_RADIX);
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return new StringBuilder(28).append(value).append("-sq-")
+				.append(ALPHANUMERIC[random.nextInt(ALPHANUMERIC.length)])
+				.append(ALPHANUMERIC[random.nextInt(ALPHANUMERIC.length)])
+				.append(ALPHANUMERIC[random.nextInt(ALPHANUMERIC.length)])
+				.append(ALPHANUMERIC[random.nextInt(ALPHANUMERIC.length)])
+				.toString();
+	}
+
+	/**
+	 * The next sequence number, unique across all processes sharing the sequence file.
+	 */
+	long nextLong() {
+		while(true) {
+			Batch batch = current.get();
+			long value = batch.next.getAndIncrement();
+			if(value < batch.end) {
+				if(value == batch.prefetchAt) {
+					prefetch(batch);
+				}
+				return value;
+			}
+			advance(batch);
+		}
 	}
 
-	synchronized String nextValue() {
-		if(remainingCacheCount == 0) {
-			fetchAndCacheNextSequenceBatch();
+	private synchronized void prefetch(Batch batch) {
+		if(prefetched == null && current.get() == batch) {
+			int size = adaptBatchSize(batch, 2 * (System.nanoTime() - batch.reservedAt));
+			prefetched = CompletableFuture.supplyAsync(() -> reserve(size), PREFETCHER);
 		}
-		remainingCacheCount--;
-		return currentValue++ + "-sq-" + RandomStringUtils.randomAlphanumeric(4);
 	}
 
-	private void fetchAndCacheNextSequenceBatch() {
-		try (RandomAccessFile file = new RandomAccessFile(SEQUENCE_FILE_PATH.toFile(), "rw")) {
-			FileLock lock = file.getChannel().lock();
-			currentValue = Long.parseLong(file.readLine());
-			remainingCacheCount = TOTAL_CACHE;
-			Files.write(SEQUENCE_FILE_PATH, Long.toString(currentValue + TOTAL_CACHE).getBytes());
-			lock.release();
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+	private synchronized void advance(Batch exhausted) {
+		if(current.get() != exhausted) {
+			return;
+		}
+		Batch next = null;
+		if(prefetched != null) {
+			try {
+				next = prefetched.join();
+			} catch (CompletionException e) {
+				// reserved again below, which throws if the sequence file is still unusable
+			}
+			prefetched = null;
+		}
+		if(next == null) {
+			next = reserve(adaptBatchSize(exhausted, System.nanoTime() - exhausted.reservedAt));
+		}
+		current.set(next);
+	}
+
+	/**
+	 * Doubles the batch size when a batch lasted less than half the target, halves it when it lasted more than twice
+	 * as long.
+	 */
+	private int adaptBatchSize(Batch batch, long lifetimeNanos) {
+		if(batch.end > batch.start) {
+			if(lifetimeNanos < TARGET_BATCH_NANOS / 2) {
+				batchSize = Math.min(batchSize * 2, MAX_BATCH_SIZE);
+			} else if(lifetimeNanos > TARGET_BATCH_NANOS * 2) {
+				batchSize = Math.max(batchSize / 2, MIN_BATCH_SIZE);
+			}
+		}
+		return batchSize;
+	}
+
+	/**
+	 * Takes the next size numbers from the sequence file. The FileLock excludes other processes, the class lock other
+	 * generators of this JVM, which the FileLock does not.
+	 */
+	private Batch reserve(int size) {
+		synchronized(UniversalUniqueIdGenerator.class) {
+			try(FileChannel channel = FileChannel.open(SEQUENCE_FILE_PATH, READ, WRITE)) {
+				FileLock lock = channel.lock();
+				try {
+					ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+					while(buffer.hasRemaining()) {
+						if(channel.read(buffer) < 0) {
+							break;
+						}
+					}
+					long start = Long.parseLong(new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8).trim());
+					byte[] end = Long.toString(start + size).getBytes(StandardCharsets.UTF_8);
+					// never shorter than the number it replaces, so the file holds a valid number at all times
+					channel.write(ByteBuffer.wrap(end), 0);
+					channel.truncate(end.length);
+					return new Batch(start, start + size);
+				} finally {
+					lock.release();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private static class Batch {
+		private final long start;
+		private final long end;
+		private final long prefetchAt;
+		private final long reservedAt = System.nanoTime();
+		private final AtomicLong next;
+
+		private Batch(long start, long end) {
+			this.start = start;
+			this.end = end;
+			this.prefetchAt = start + (end - start) / 2;
+			this.next = new AtomicLong(start);
 		}
 	}
 
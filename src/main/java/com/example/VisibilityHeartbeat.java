@@ -0,0 +1,107 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side lease keeping for consumers whose work may outlast the visibility timeout. Messages handed to track
+ * have their visibility timeout set to visibilityTimeout seconds again every interval, with one batch call per queue
+ * and MAX_BATCH_SIZE messages, until untracked or deleted through the heartbeat.
+ *
+ * A message whose lease could not be extended, because its timeout ended before a beat or because the call failed, is
+ * dropped and reported by isHeld, its consumer should stop working on it. The interval should leave a beat or two
+ * before the timeout ends.
+ */
+class VisibilityHeartbeat implements Closeable {
+
+	private final QueueService queueService;
+	private final int visibilityTimeout;
+	private final ConcurrentHashMap<String, Set<String>> tracked = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService beats;
+
+	VisibilityHeartbeat(QueueService queueService, int visibilityTimeout, long intervalMillis) {
+		QueueService.checkVisibilityTimeout(visibilityTimeout);
+		this.queueService = queueService;
+		this.visibilityTimeout = visibilityTimeout;
+		this.beats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "visibility-heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+		beats.scheduleWithFixedDelay(this::beat, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	void track(String qUrl, Message message) {
+		tracked.computeIfAbsent(qUrl, url -> ConcurrentHashMap.newKeySet()).add(message.getReceiptHandle());
+	}
+
+	/**
+	 * Stops extending the lease, which then ends with the timeout set by the last beat.
+	 */
+	void untrack(String qUrl, String receiptHandler) {
+		Set<String> receiptHandles = tracked.get(qUrl);
+		if(receiptHandles != null) {
+			receiptHandles.remove(receiptHandler);
+		}
+	}
+
+	/**
+	 * Untracks the message and deletes it.
+	 */
+	void delete(String qUrl, String receiptHandler) {
+		untrack(qUrl, receiptHandler);
+		queueService.delete(qUrl, receiptHandler);
+	}
+
+	/**
+	 * Whether the lease of the receipt handle is still kept, false once untracked or lost.
+	 */
+	boolean isHeld(String qUrl, String receiptHandler) {
+		Set<String> receiptHandles = tracked.get(qUrl);
+		return receiptHandles != null && receiptHandles.contains(receiptHandler);
+	}
+
+	/**
+	 * Extends the leases of all tracked messages now.
+	 */
+	void beat() {
+		tracked.forEach((qUrl, receiptHandles) -> {
+			List<String> batch = new ArrayList<>(QueueService.MAX_BATCH_SIZE);
+			for(String receiptHandle : receiptHandles) {
+				batch.add(receiptHandle);
+				if(batch.size() == QueueService.MAX_BATCH_SIZE) {
+					extend(qUrl, receiptHandles, batch);
+					batch = new ArrayList<>(QueueService.MAX_BATCH_SIZE);
+				}
+			}
+			if(!batch.isEmpty()) {
+				extend(qUrl, receiptHandles, batch);
+			}
+		});
+	}
+
+	@Override
+	public void close() {
+		beats.shutdown();
+	}
+
+	private void extend(String qUrl, Set<String> receiptHandles, List<String> batch) {
+		List<String> lost;
+		try {
+			lost = queueService.changeMessageVisibilityBatch(qUrl, batch, visibilityTimeout);
+		} catch (RuntimeException e) {
+			// the leases may end before the next beat gets through, their owners learn it from isHeld
+			lost = batch;
+		}
+		receiptHandles.removeAll(lost);
+	}
+
+}
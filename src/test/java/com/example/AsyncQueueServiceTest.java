@@ -0,0 +1,89 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+@RunWith(value = Parameterized.class)
+public class AsyncQueueServiceTest extends BaseTestClass {
+
+	@Parameterized.Parameters
+	public static Collection<String> getParameters() {
+		return Arrays.asList("InMemoryQueueService", "FileQueueService", "SqsQueueService");
+	}
+
+	private String queueServiceImplClass;
+	private AsyncQueueService queueService;
+	private LocalSqsServer sqsServer;
+	private String qUrl = "https://sqs.amazonaws.com/373529781950/Test-Queue";
+
+	public AsyncQueueServiceTest(String queueServiceImplClass) {
+		this.queueServiceImplClass = queueServiceImplClass;
+	}
+
+	@Before
+	public void before() throws Exception {
+		if(queueServiceImplClass.equals("InMemoryQueueService")) {
+			queueService = new ExecutorAsyncQueueService(new InMemoryQueueService(new ConcurrentHashMap<>()), 2, 10000);
+		}
+		if(queueServiceImplClass.equals("FileQueueService")) {
+			FileQueueServiceTest.deleteAllSubDirectories(Paths.get(FileQueueServiceTest.BASE_PATH));
+			queueService = new ExecutorAsyncQueueService(new FileQueueService(new UniversalUniqueIdGenerator()), 2, 10000);
+		}
+		if(queueServiceImplClass.equals("SqsQueueService")) {
+			sqsServer = new LocalSqsServer();
+			queueService = new SqsAsyncQueueService(sqsServer.asyncClient());
+			qUrl = sqsServer.queueUrl("Test-Queue");
+		}
+	}
+
+	@After
+	public void after() {
+		if(sqsServer != null) {
+			sqsServer.close();
+		}
+	}
+
+	@Test
+	public void testManyOutstandingCalls() throws Exception {
+		List<CompletableFuture<Void>> pushes = new ArrayList<>();
+		for(int i = 0; i < 200; i++) {
+			pushes.add(queueService.push(qUrl, "body " + i));
+		}
+		CompletableFuture.allOf(pushes.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+
+		List<CompletableFuture<Void>> deletes = new ArrayList<>();
+		Set<String> bodies = ConcurrentHashMap.newKeySet();
+		List<CompletableFuture<Optional<Message>>> pulls = new ArrayList<>();
+		for(int i = 0; i < 200; i++) {
+			pulls.add(queueService.pull(qUrl));
+		}
+		for(CompletableFuture<Optional<Message>> pull : pulls) {
+			Message message = pull.get(30, TimeUnit.SECONDS).orElse(null);
+			bodies.add(message.getBody());
+			deletes.add(queueService.delete(qUrl, message.getReceiptHandle()));
+		}
+		CompletableFuture.allOf(deletes.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+
+		assertThat(bodies.size(), equalTo(200));
+		assertThat(queueService.pull(qUrl).get(30, TimeUnit.SECONDS).isPresent(), is(false));
+	}
+
+}
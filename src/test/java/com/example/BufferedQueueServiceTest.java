@@ -0,0 +1,176 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class BufferedQueueServiceTest extends BaseTestClass {
+
+	private LocalSqsServer sqsServer;
+	private BufferedQueueService queueService;
+	private String qUrl;
+
+	@Before
+	public void before() throws Exception {
+		sqsServer = new LocalSqsServer();
+		queueService = new BufferedQueueService(new SqsQueueService(sqsServer.client()), 60000, QueueService.MAX_BATCH_SIZE, 15000);
+		qUrl = sqsServer.queueUrl("test-queue");
+	}
+
+	@After
+	public void after() {
+		queueService.close();
+		sqsServer.close();
+	}
+
+	@Test
+	public void push_shouldSendOneBatchRequest_whenBatchSizeIsReached() {
+		for(int i = 0; i < 25; i++) {
+			queueService.push(qUrl, "body " + i);
+		}
+		assertThat(sqsServer.requestCount("SendMessageBatch"), equalTo(2));
+
+		queueService.flush();
+		assertThat(sqsServer.requestCount("SendMessageBatch"), equalTo(3));
+		assertThat(sqsServer.requestCount("SendMessage"), equalTo(0));
+	}
+
+	@Test
+	public void push_shouldBeSent_afterFlushInterval() throws Exception {
+		try(BufferedQueueService shortInterval = new BufferedQueueService(new SqsQueueService(sqsServer.client()), 20, QueueService.MAX_BATCH_SIZE, 15000)) {
+			shortInterval.push(qUrl, "body");
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while(sqsServer.requestCount("SendMessageBatch") == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertThat(sqsServer.requestCount("SendMessageBatch"), equalTo(1));
+		}
+	}
+
+	@Test
+	public void pull_shouldServeFromPrefetchedBatch() {
+		for(int i = 0; i < 10; i++) {
+			queueService.push(qUrl, "body " + i);
+		}
+
+		List<String> bodies = new ArrayList<>();
+		Optional<Message> message;
+		while((message = queueService.pull(qUrl)).isPresent()) {
+			bodies.add(message.get().getBody());
+			queueService.delete(qUrl, message.get().getReceiptHandle());
+		}
+		queueService.flush();
+
+		assertThat(bodies.size(), equalTo(10));
+		assertThat(bodies, hasItems("body 0", "body 9"));
+		// one receive for the whole batch, one finding the queue empty
+		assertThat(sqsServer.requestCount("ReceiveMessage"), equalTo(2));
+		assertThat(sqsServer.requestCount("DeleteMessageBatch"), equalTo(1));
+		assertThat(sqsServer.requestCount("DeleteMessage"), equalTo(0));
+	}
+
+	@Test
+	public void flush_shouldKeepEntriesOfAFailedBatch_andSendThemWithTheNext() {
+		AtomicBoolean failing = new AtomicBoolean(true);
+		QueueService backend = new InMemoryQueueService(new ConcurrentHashMap<>()) {
+			@Override
+			public void pushBatch(String qUrl, List<String> messageBodies) {
+				if(failing.get()) {
+					throw new IllegalStateException("Unavailable");
+				}
+				super.pushBatch(qUrl, messageBodies);
+			}
+		};
+		try(BufferedQueueService buffered = new BufferedQueueService(backend, 60000, 2, 15000)) {
+			buffered.push(qUrl, "body 0");
+			try {
+				buffered.push(qUrl, "body 1");
+				fail("The full batch should have failed");
+			} catch (IllegalStateException expected) {
+			}
+			try {
+				buffered.flush();
+				fail("The flush should have failed");
+			} catch (IllegalStateException expected) {
+			}
+
+			failing.set(false);
+			buffered.push(qUrl, "body 2");
+			buffered.flush();
+			List<String> bodies = backend.pullBatch(qUrl, 10).stream().map(Message::getBody).collect(Collectors.toList());
+			assertThat(bodies, contains("body 0", "body 1", "body 2"));
+		}
+	}
+
+	@Test
+	public void flush_shouldRetryOnlyRetryableFailedEntries_andDropPermanentOnes() {
+		AtomicBoolean flaky = new AtomicBoolean(true);
+		QueueService backend = new InMemoryQueueService(new ConcurrentHashMap<>()) {
+			@Override
+			public void pushBatch(String qUrl, List<String> messageBodies) {
+				List<String> accepted = new ArrayList<>();
+				List<Integer> retryable = new ArrayList<>();
+				List<Integer> permanent = new ArrayList<>();
+				for(int i = 0; i < messageBodies.size(); i++) {
+					if(messageBodies.get(i).equals("too large")) {
+						permanent.add(i);
+					} else if(messageBodies.get(i).equals("throttled") && flaky.getAndSet(false)) {
+						retryable.add(i);
+					} else {
+						accepted.add(messageBodies.get(i));
+					}
+				}
+				if(!accepted.isEmpty()) {
+					super.pushBatch(qUrl, accepted);
+				}
+				if(!retryable.isEmpty() || !permanent.isEmpty()) {
+					throw new BatchEntriesFailedException("Entries failed", retryable, permanent);
+				}
+			}
+		};
+		try(BufferedQueueService buffered = new BufferedQueueService(backend, 60000, QueueService.MAX_BATCH_SIZE, 15000)) {
+			buffered.push(qUrl, "body 0");
+			buffered.push(qUrl, "too large");
+			buffered.push(qUrl, "throttled");
+			buffered.push(qUrl, "body 1");
+			try {
+				buffered.flush();
+				fail("The flush should have failed");
+			} catch (BatchEntriesFailedException expected) {
+			}
+
+			buffered.flush();
+			List<String> bodies = backend.pullBatch(qUrl, 10).stream().map(Message::getBody).collect(Collectors.toList());
+			assertThat(bodies, contains("body 0", "body 1", "throttled"));
+			assertThat(buffered.droppedEntries(), is(1L));
+		}
+	}
+
+	@Test
+	public void pull_shouldDropPrefetchedMessages_olderThanPrefetchMaxAge() throws Exception {
+		try(BufferedQueueService shortPrefetch = new BufferedQueueService(new SqsQueueService(sqsServer.client()), 60000, QueueService.MAX_BATCH_SIZE, 50)) {
+			shortPrefetch.pushBatch(qUrl, Arrays.asList("body 0", "body 1", "body 2"));
+			assertThat(shortPrefetch.pull(qUrl).isPresent(), is(true));
+
+			Thread.sleep(100);
+			// the other two were prefetched and are still in flight
+			assertThat(shortPrefetch.pull(qUrl).isPresent(), is(false));
+			assertThat(sqsServer.requestCount("ReceiveMessage"), equalTo(2));
+		}
+	}
+
+}
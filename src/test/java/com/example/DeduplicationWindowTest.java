@@ -0,0 +1,44 @@
+package com.example;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class DeduplicationWindowTest {
+
+	@Test
+	public void add_shouldRejectId_whenSeenWithinWindow() {
+		DeduplicationWindow window = new DeduplicationWindow();
+
+		assertThat(window.add("id-1", 1000), is(true));
+		assertThat(window.add("id-2", 2000), is(true));
+		assertThat(window.add("id-1", 1000 + DeduplicationWindow.WINDOW_MS - 1), is(false));
+	}
+
+	@Test
+	public void add_shouldAcceptIdAgain_andDropOldBuckets_onceWindowHasPassed() {
+		DeduplicationWindow window = new DeduplicationWindow();
+		window.add("id-1", 1000);
+		window.add("id-2", 1000);
+
+		long later = 1000 + DeduplicationWindow.WINDOW_MS * 2;
+		assertThat(window.add("id-1", later), is(true));
+		assertThat(window.size(), equalTo(1));
+		assertThat(window.add("id-1", later + 1), is(false));
+	}
+
+	@Test
+	public void add_shouldDropOldestBucket_whenMaxIdsExceeded() {
+		DeduplicationWindow window = new DeduplicationWindow(3);
+		window.add("id-1", 0);
+		window.add("id-2", 0);
+		window.add("id-3", 60000);
+		window.add("id-4", 60000);
+
+		assertThat(window.size(), equalTo(2));
+		assertThat(window.add("id-1", 60000), is(true));
+		assertThat(window.add("id-3", 60000), is(false));
+	}
+
+}
@@ -0,0 +1,42 @@
+package com.example;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class ExecutorAsyncQueueServiceTest extends BaseTestClass {
+
+	@Test
+	public void push_shouldFailFast_whenQueueIsFull() throws Exception {
+		QueueService blocking = mock(QueueService.class);
+		CountDownLatch release = new CountDownLatch(1);
+		doAnswer(invocation -> release.await(10, TimeUnit.SECONDS)).when(blocking).push(anyString(), anyString());
+		try(ExecutorAsyncQueueService bounded = new ExecutorAsyncQueueService(blocking, 1, 1)) {
+			CompletableFuture<Void> running = bounded.push("qUrl", "running");
+			CompletableFuture<Void> queued = bounded.push("qUrl", "queued");
+			CompletableFuture<Void> rejected = bounded.push("qUrl", "rejected");
+
+			try {
+				rejected.get(1, TimeUnit.SECONDS);
+				fail("expected the call to be rejected");
+			} catch (ExecutionException e) {
+				assertThat(e.getCause(), instanceOf(RejectedExecutionException.class));
+			}
+			release.countDown();
+			running.get(10, TimeUnit.SECONDS);
+			queued.get(10, TimeUnit.SECONDS);
+		}
+	}
+
+}
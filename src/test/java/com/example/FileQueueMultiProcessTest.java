@@ -0,0 +1,110 @@
+package com.example;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Stress test forking JVMs that push to and pull from one queue at the same time, see FileQueueWorker.
+ */
+public class FileQueueMultiProcessTest extends BaseTestClass {
+
+	private static final int PRODUCERS = 2;
+	private static final int CONSUMERS = 3;
+	private static final int MESSAGES_PER_PRODUCER = 1000;
+
+	private final String qUrl = "https://sqs.amazonaws.com/373529781950/multi-process-queue";
+	private final Path control = Paths.get(FileQueueServiceTest.BASE_PATH, "multi-process-control");
+	private final List<Process> workers = new ArrayList<>();
+
+	@Before
+	public void before() throws Exception {
+		FileQueueServiceTest.deleteAllSubDirectories(Paths.get(FileQueueServiceTest.BASE_PATH));
+		Files.createDirectories(control);
+	}
+
+	@Test
+	public void pull_shouldDeliverEveryMessageOnceAndServeEveryConsumer_whenProcessesShareQueue() throws Exception {
+		List<Process> producers = new ArrayList<>();
+		for(int i = 0; i < PRODUCERS; i++) {
+			producers.add(fork("push", "producer" + i, String.valueOf(MESSAGES_PER_PRODUCER)));
+		}
+		List<Process> consumers = new ArrayList<>();
+		for(int i = 0; i < CONSUMERS; i++) {
+			consumers.add(fork("pull", "consumer" + i));
+		}
+		try {
+			awaitReady(PRODUCERS + CONSUMERS);
+			Files.createFile(control.resolve("go"));
+			for(Process producer : producers) {
+				assertThat(awaitExit(producer), equalTo(0));
+			}
+			Files.createFile(control.resolve("stop"));
+			for(Process consumer : consumers) {
+				assertThat(awaitExit(consumer), equalTo(0));
+			}
+		} finally {
+			workers.forEach(Process::destroyForcibly);
+		}
+
+		int total = PRODUCERS * MESSAGES_PER_PRODUCER;
+		Set<String> received = new HashSet<>();
+		for(int i = 0; i < CONSUMERS; i++) {
+			List<String> bodies = Files.readAllLines(control.resolve("consumer" + i + ".out"), StandardCharsets.UTF_8);
+			assertThat("consumer" + i + " starved", bodies.size(), greaterThan(total / CONSUMERS / 4));
+			for(String body : bodies) {
+				assertThat("received twice: " + body, received.add(body), is(true));
+			}
+		}
+		assertThat(received.size(), equalTo(total));
+	}
+
+	private Process fork(String role, String name, String... args) throws Exception {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(FileQueueWorker.class.getName());
+		command.add(role);
+		command.add(qUrl);
+		command.add(control.toString());
+		command.add(name);
+		for(String arg : args) {
+			command.add(arg);
+		}
+		Process process = new ProcessBuilder(command)
+				.directory(new File(System.getProperty("user.dir")))
+				.redirectOutput(control.resolve(name + ".out").toFile())
+				.redirectError(control.resolve(name + ".err").toFile())
+				.start();
+		workers.add(process);
+		return process;
+	}
+
+	private void awaitReady(int count) throws Exception {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+		while(Files.list(control).filter(path -> path.getFileName().toString().startsWith("ready-")).count() < count) {
+			assertThat("workers did not start", System.nanoTime() - deadline, lessThan(0L));
+			Thread.sleep(10);
+		}
+	}
+
+	private int awaitExit(Process process) throws Exception {
+		assertThat("worker did not finish", process.waitFor(120, TimeUnit.SECONDS), is(true));
+		return process.exitValue();
+	}
+
+}
@@ -11,9 +11,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 
@@ -45,9 +53,9 @@ public class FileQueueServiceTest extends BaseTestClass {
 
 		queueService.push(qUrlBase + qName, body);
 
-		List<String> lines = readAllLinesFromQueue(qName);
-		assertThat(lines.size(), equalTo(1));
-		assertThat(lines.get(0), containsString(body));
+		List<Record> records = readAllRecordsFromQueue(qName);
+		assertThat(records.size(), equalTo(1));
+		assertThat(records.get(0).getMessage().getBody(), equalTo(body));
 	}
 
 	@Test
@@ -59,10 +67,10 @@ public class FileQueueServiceTest extends BaseTestClass {
 		queueService.push(qUrlBase + qName, body1);
 		queueService.push(qUrlBase + qName, body2);
 
-		List<String> lines = readAllLinesFromQueue(qName);
-		assertThat(lines.size(), equalTo(2));
-		assertThat(lines.get(0), containsString(body1));
-		assertThat(lines.get(1), containsString(body2));
+		List<Record> records = readAllRecordsFromQueue(qName);
+		assertThat(records.size(), equalTo(2));
+		assertThat(records.get(0).getMessage().getBody(), equalTo(body1));
+		assertThat(records.get(1).getMessage().getBody(), equalTo(body2));
 	}
 
 	@Test
@@ -71,10 +79,13 @@ public class FileQueueServiceTest extends BaseTestClass {
 		String body1 = "Test Message body 1";
 		queueService.push(qUrlBase + qName, body1);
 		Message message = queueService.pull(qUrlBase + qName).orElse(null);
-		String[] fields = readAllLinesFromQueue(qName).get(0).split("::");
-		assertThat(fields[0], equalTo(message.getMessageId()));
-		assertThat(fields[3], equalTo(message.getReceiptHandle()));
-		assertThat(fields[4], equalTo(message.getBody()));
+		Message stored = readAllRecordsFromQueue(qName).get(0).getMessage();
+		String[] stateFields = readAllStateLinesFromQueue(qName).get(0).split("::");
+		assertThat(stored.getMessageId(), equalTo(message.getMessageId()));
+		assertThat(stored.getBody(), equalTo(message.getBody()));
+		assertThat(stateFields[0], equalTo(StateLog.RECEIVE));
+		assertThat(stateFields[1], equalTo(message.getMessageId()));
+		assertThat(stateFields[2], equalTo(message.getReceiptHandle()));
 	}
 
 	@Test
@@ -82,12 +93,12 @@ public class FileQueueServiceTest extends BaseTestClass {
 		String qName = "test-queue";
 		String body1 = "Test Message body 1";
 		queueService.push(qUrlBase + qName, body1);
-		String[] fieldsBeforePush = readAllLinesFromQueue(qName).get(0).split("::");
+		Record recordBeforePull = readAllRecordsFromQueue(qName).get(0);
 
 		queueService.pull(qUrlBase + qName).orElse(null);
-		String[] fieldsAfterPush = readAllLinesFromQueue(qName).get(0).split("::");
+		String[] stateFieldsAfterPush = readAllStateLinesFromQueue(qName).get(0).split("::");
 
-		assertThat(Long.parseLong(fieldsBeforePush[1]), lessThan(Long.parseLong(fieldsAfterPush[1])));
+		assertThat(recordBeforePull.getVisibleFromTime(), lessThan(Long.parseLong(stateFieldsAfterPush[3])));
 	}
 
 	@Test
@@ -127,11 +138,12 @@ public class FileQueueServiceTest extends BaseTestClass {
 		String qName = "test-queue";
 		String body = "test message body";
 		queueService.push(qUrlBase + qName, body);
-		Optional<Message> message = queueService.pull(qUrlBase + qName);
+		Optional<Message> message = ((FileQueueService)queueService).pull(qUrlBase + qName, 0);
 		queueService.delete(qUrlBase + qName, message.orElse(null).getReceiptHandle());
 
-		List<String> lines = readAllLinesFromQueue(qName);
-		assertThat(lines.isEmpty(), is(true));
+		List<String> stateLines = readAllStateLinesFromQueue(qName);
+		assertThat(stateLines.get(stateLines.size() - 1), equalTo(StateLog.DELETE + "::" + message.orElse(null).getMessageId()));
+		assertThat(new FileQueueService(sequence).pull(qUrlBase + qName, 0).isPresent(), is(false));
 	}
 
 	@Test
@@ -148,12 +160,268 @@ public class FileQueueServiceTest extends BaseTestClass {
 
 		queueService.delete(qUrlBase + qName, msg2.orElse(null).getReceiptHandle());
 
-		List<String> lines = readAllLinesFromQueue(qName);
-		assertThat(lines.size(), is(1));
-		String[] fields = lines.get(0).split("::");
-		assertThat(fields[0], equalTo(msg1.getMessageId()));
-		assertThat(fields[3], equalTo(msg1.getReceiptHandle()));
-		assertThat(fields[4], equalTo(msg1.getBody()));
+		List<String> stateLines = readAllStateLinesFromQueue(qName);
+		assertThat(stateLines, hasItem(StateLog.DELETE + "::" + msg2.orElse(null).getMessageId()));
+		assertThat(stateLines, not(hasItem(StateLog.DELETE + "::" + msg1.getMessageId())));
+		assertThat(readAllRecordsFromQueue(qName).get(0).getMessage().getMessageId(), equalTo(msg1.getMessageId()));
+	}
+
+	@Test
+	public void delete_shouldIgnoreUnknownReceiptHandle() {
+		String qName = "test-queue";
+		queueService.push(qUrlBase + qName, "test message body");
+		queueService.delete(qUrlBase + qName, "RH-unknown");
+
+		assertThat(readAllStateLinesFromQueue(qName).isEmpty(), is(true));
+	}
+
+	@Test
+	public void batch_shouldAppendOneStateLineForEachMessage() {
+		String qName = "test-queue";
+		queueService.pushBatch(qUrlBase + qName, Arrays.asList("body 1", "body 2", "body 3"));
+		assertThat(readAllRecordsFromQueue(qName).size(), equalTo(3));
+
+		List<Message> messages = ((FileQueueService)queueService).pullBatch(qUrlBase + qName, 3, 0);
+		List<String> receiptHandles = messages.stream().map(Message::getReceiptHandle).collect(Collectors.toList());
+		assertThat(receiptHandles.stream().distinct().count(), equalTo(3L));
+		queueService.deleteBatch(qUrlBase + qName, receiptHandles);
+
+		List<String> stateLines = readAllStateLinesFromQueue(qName);
+		assertThat(stateLines.stream().filter(line -> line.startsWith(StateLog.RECEIVE + "::")).count(), equalTo(3L));
+		assertThat(stateLines.stream().filter(line -> line.startsWith(StateLog.DELETE + "::")).count(), equalTo(3L));
+		assertThat(new FileQueueService(sequence).pull(qUrlBase + qName, 0).isPresent(), is(false));
+	}
+
+	@Test
+	public void pull_shouldWakeUp_whenAnotherProcessPushes() throws Exception {
+		String qName = "test-queue";
+		queueService.push(qUrlBase + qName, "first");
+		queueService.pull(qUrlBase + qName);
+		// a FileQueue of its own writes like another process would, without signalling this JVM's consumers
+		FileQueue otherProcess = new FileQueue(Paths.get(BASE_PATH, qName), 1024 * 1024, 1024 * 1024);
+		ExecutorService producer = Executors.newSingleThreadExecutor();
+		producer.submit(() -> {
+			TimeUnit.MILLISECONDS.sleep(200);
+			otherProcess.push("other-process-id", "pushed by other process");
+			return null;
+		});
+
+		Optional<Message> message = queueService.pull(qUrlBase + qName, 5, TimeUnit.SECONDS);
+		producer.shutdown();
+		otherProcess.close();
+
+		assertThat(message.orElse(null).getBody(), equalTo("pushed by other process"));
+	}
+
+	@Test
+	public void pull_shouldWakeUpOnPush_whenTheQueueNameContainsThePartitionSeparator() throws Exception {
+		String qUrl = qUrlBase + "orders#eu";
+		queueService.push(qUrl, "first");
+		queueService.pull(qUrl);
+		ExecutorService producer = Executors.newSingleThreadExecutor();
+		producer.submit(() -> {
+			TimeUnit.MILLISECONDS.sleep(200);
+			queueService.push(qUrl, "second");
+			return null;
+		});
+
+		long start = System.nanoTime();
+		Optional<Message> message = queueService.pull(qUrl, 10, TimeUnit.SECONDS);
+		producer.shutdown();
+
+		assertThat(message.orElse(null).getBody(), equalTo("second"));
+		assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), lessThan(5L));
+	}
+
+	@Test
+	public void pull_shouldWakeUp_whenVisibilityTimeoutEnds() {
+		String qName = "test-queue";
+		queueService.push(qUrlBase + qName, "test message body");
+		String receiptHandle = ((FileQueueService)queueService).pull(qUrlBase + qName, 1).orElse(null).getReceiptHandle();
+
+		Message message = queueService.pull(qUrlBase + qName, 5, TimeUnit.SECONDS).orElse(null);
+
+		assertThat(message.getBody(), equalTo("test message body"));
+		assertThat(message.getReceiptHandle(), not(equalTo(receiptHandle)));
+	}
+
+	@Test
+	public void push_shouldStoreMessages_whenSyncingEveryCommitOrPeriodically() throws Exception {
+		for(FileQueueService.Fsync fsync : FileQueueService.Fsync.values()) {
+			String qUrl = qUrlBase + "test-queue-" + fsync;
+			QueueService syncing = new FileQueueService(sequence, 1024 * 1024, false, fsync, 10);
+			ExecutorService pushers = Executors.newFixedThreadPool(4);
+			for(int i = 0; i < 20; i++) {
+				String body = "body " + i;
+				pushers.submit(() -> syncing.push(qUrl, body));
+			}
+			pushers.shutdown();
+			pushers.awaitTermination(10, TimeUnit.SECONDS);
+
+			List<Message> messages = ((FileQueueService)syncing).pullBatch(qUrl, 10, 30);
+			messages.addAll(((FileQueueService)syncing).pullBatch(qUrl, 10, 30));
+			assertThat(messages.stream().map(Message::getBody).distinct().count(), equalTo(20L));
+		}
+	}
+
+	@Test
+	public void pull_shouldReopenQueue_whenEvictedFromIndexCache() throws Exception {
+		FileQueueService smallCache = new FileQueueService(sequence, 1024 * 1024, false, FileQueueService.Fsync.NEVER, 1000, 2);
+		for(int i = 0; i < 5; i++) {
+			smallCache.push(qUrlBase + "test-queue-" + i, "body " + i);
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while(smallCache.cachedQueues() > 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(smallCache.cachedQueues(), lessThanOrEqualTo(2));
+
+		for(int i = 0; i < 5; i++) {
+			assertThat(smallCache.pull(qUrlBase + "test-queue-" + i).orElse(null).getBody(), equalTo("body " + i));
+		}
+	}
+
+	@Test
+	public void push_shouldRollOverToNewSegment_whenSegmentIsFull() throws Exception {
+		String qName = "test-queue";
+		QueueService smallSegments = new FileQueueService(sequence, 100);
+		for(int i = 0; i < 5; i++) {
+			smallSegments.push(qUrlBase + qName, "Test Message body " + i);
+		}
+
+		assertThat(readAllSegmentsOfQueue(qName).size(), greaterThan(1));
+		assertThat(readAllRecordsFromQueue(qName).size(), equalTo(5));
+	}
+
+	@Test
+	public void delete_shouldReclaimSegments_whenAllTheirMessagesAreDeleted() throws Exception {
+		String qName = "test-queue";
+		QueueService smallSegments = new FileQueueService(sequence, 100);
+		for(int i = 0; i < 5; i++) {
+			smallSegments.push(qUrlBase + qName, "Test Message body " + i);
+		}
+		int segmentsBeforeDelete = readAllSegmentsOfQueue(qName).size();
+		for(int i = 0; i < 5; i++) {
+			smallSegments.delete(qUrlBase + qName, smallSegments.pull(qUrlBase + qName).orElse(null).getReceiptHandle());
+		}
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while(readAllSegmentsOfQueue(qName).size() > 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(segmentsBeforeDelete, greaterThan(1));
+		assertThat(readAllSegmentsOfQueue(qName).size(), equalTo(1));
+	}
+
+	@Test
+	public void pull_shouldSeeMessagesPushedThroughAnotherInstance() {
+		String qName = "test-queue";
+		QueueService other = new FileQueueService(new UniversalUniqueIdGenerator());
+		queueService.push(qUrlBase + qName, "pushed by this");
+		queueService.pull(qUrlBase + qName);
+		other.push(qUrlBase + qName, "pushed by other");
+
+		Message message = queueService.pull(qUrlBase + qName).orElse(null);
+		assertThat(message.getBody(), equalTo("pushed by other"));
+
+		other.delete(qUrlBase + qName, message.getReceiptHandle());
+		assertThat(((FileQueueService)queueService).pull(qUrlBase + qName, 0).isPresent(), is(false));
+	}
+
+	@Test
+	public void push_shouldPlaceEveryQueueOnOneShard_whenSeveralBasePaths() {
+		List<Path> shards = Arrays.asList(Paths.get(BASE_PATH, "shard-0"), Paths.get(BASE_PATH, "shard-1"));
+		QueueService sharded = new FileQueueService(sequence, 1024 * 1024, false, FileQueueService.Fsync.NEVER, 1000, 1024, shards, 1);
+		for(int i = 0; i < 10; i++) {
+			sharded.push(qUrlBase + "test-queue-" + i, "body " + i);
+		}
+
+		for(int i = 0; i < 10; i++) {
+			String qName = "test-queue-" + i;
+			assertThat(shards.stream().filter(shard -> Files.exists(shard.resolve(qName))).count(), equalTo(1L));
+			assertThat(sharded.pull(qUrlBase + qName).orElse(null).getBody(), equalTo("body " + i));
+		}
+		for(Path shard : shards) {
+			assertThat(shard.toFile().list((dir, name) -> name.startsWith("test-queue-")).length, greaterThan(0));
+		}
+	}
+
+	@Test
+	public void pull_shouldTakeFromEveryPartition_whenQueueIsPartitioned() {
+		String qName = "test-queue";
+		QueueService partitioned = new FileQueueService(sequence, 1024 * 1024, false, FileQueueService.Fsync.NEVER, 1000, 1024,
+				Collections.singletonList(Paths.get(BASE_PATH)), 3);
+		for(int i = 0; i < 6; i++) {
+			partitioned.push(qUrlBase + qName, "body " + i);
+		}
+		for(int partition = 0; partition < 3; partition++) {
+			assertThat(readAllRecordsFromQueue(qName + "#" + partition).size(), equalTo(2));
+		}
+
+		List<Message> messages = partitioned.pullBatch(qUrlBase + qName, 10);
+		assertThat(messages.stream().map(Message::getBody).collect(Collectors.toSet()).size(), equalTo(6));
+		partitioned.deleteBatch(qUrlBase + qName, messages.stream().map(Message::getReceiptHandle).collect(Collectors.toList()));
+		assertThat(partitioned.pull(qUrlBase + qName).isPresent(), is(false));
+		for(int partition = 0; partition < 3; partition++) {
+			assertThat(readAllStateLinesFromQueue(qName + "#" + partition).stream().filter(line -> line.startsWith(StateLog.DELETE + "::")).count(), equalTo(2L));
+		}
+	}
+
+	@Test
+	public void pull_shouldWakeUp_whenAnyPartitionIsPushedTo() throws Exception {
+		String qName = "test-queue";
+		QueueService partitioned = new FileQueueService(sequence, 1024 * 1024, false, FileQueueService.Fsync.NEVER, 1000, 1024,
+				Collections.singletonList(Paths.get(BASE_PATH)), 3);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Optional<Message>> waiting = executor.submit(() -> partitioned.pull(qUrlBase + qName, 10, TimeUnit.SECONDS));
+			Thread.sleep(100);
+			long pushedAt = System.nanoTime();
+			partitioned.push(qUrlBase + qName, "body");
+			assertThat(waiting.get(10, TimeUnit.SECONDS).orElse(null).getBody(), equalTo("body"));
+			assertThat(System.nanoTime() - pushedAt, lessThan(TimeUnit.SECONDS.toNanos(5)));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void pull_shouldMoveMessageToDeadLetterQueue_whenReceivedMaxReceiveCountTimes() {
+		String qName = "test-queue";
+		FileQueueService fileQueueService = (FileQueueService) queueService;
+		queueService.setQueueAttributes(qUrlBase + qName, Collections.singletonMap(QueueAttributes.REDRIVE_POLICY,
+				"{\"deadLetterTargetArn\":\"arn:aws:sqs:us-east-1:373529781950:test-queue-dlq\",\"maxReceiveCount\":\"2\"}"));
+		queueService.push(qUrlBase + qName, "poison");
+		queueService.push(qUrlBase + qName, "fine");
+
+		assertThat(fileQueueService.pull(qUrlBase + qName, 0).orElse(null).getAttributes().get(Record.APPROXIMATE_RECEIVE_COUNT), equalTo("1"));
+		Message second = new FileQueueService(sequence).pull(qUrlBase + qName, 0).orElse(null);
+		assertThat(second.getBody(), equalTo("poison"));
+		assertThat(second.getAttributes().get(Record.APPROXIMATE_RECEIVE_COUNT), equalTo("2"));
+
+		Message fine = fileQueueService.pull(qUrlBase + qName, 30).orElse(null);
+		assertThat(fine.getBody(), equalTo("fine"));
+		assertThat(fileQueueService.pull(qUrlBase + qName, 0).isPresent(), is(false));
+		Message dead = queueService.pull(qUrlBase + qName + "-dlq").orElse(null);
+		assertThat(dead.getBody(), equalTo("poison"));
+		assertThat(dead.getMessageId(), equalTo(second.getMessageId()));
+		assertThat(readAllStateLinesFromQueue(qName).stream().filter(line -> line.startsWith(StateLog.DELETE + "::")).count(), equalTo(1L));
+		queueService.delete(qUrlBase + qName, fine.getReceiptHandle());
+		assertThat(readAllStateLinesFromQueue(qName).stream().filter(line -> line.startsWith(StateLog.DELETE + "::")).count(), equalTo(2L));
+	}
+
+	@Test
+	public void push_shouldDropDuplicate_whenPushedThroughAnotherInstanceAfterDelete() {
+		String qName = "test-queue.fifo";
+		queueService.push(qUrlBase + qName, "first", "group-a", "dedup-1");
+		queueService.delete(qUrlBase + qName, queueService.pull(qUrlBase + qName).orElse(null).getReceiptHandle());
+
+		QueueService other = new FileQueueService(new UniversalUniqueIdGenerator());
+		other.push(qUrlBase + qName, "retried", "group-a", "dedup-1");
+		other.push(qUrlBase + qName, "second", "group-a", "dedup-2");
+
+		assertThat(queueService.pull(qUrlBase + qName).orElse(null).getBody(), equalTo("second"));
+		assertThat(readAllRecordsFromQueue(qName).size(), equalTo(2));
 	}
 
 	@Test
@@ -193,10 +461,36 @@ public class FileQueueServiceTest extends BaseTestClass {
 		FileUtils.deleteDirectory(qPath.toFile());
 	}
 
-	private List<String> readAllLinesFromQueue(String qName) {
-		Path messagePath = Paths.get(BASE_PATH, qName, "messages");
-		try {
-			return Files.lines(messagePath).filter(StringUtils::isNotBlank).collect(Collectors.toList());
+	private List<Record> readAllRecordsFromQueue(String qName) {
+		List<Record> records = new ArrayList<>();
+		try(SegmentedLog log = new SegmentedLog(Paths.get(BASE_PATH, qName, "segments"), Long.MAX_VALUE)) {
+			for(Long segmentId : log.segmentIds()) {
+				log.scan(segmentId, 0, (frame, offset, length) -> {
+					if(!RecordCodec.isSealed(frame)) {
+						records.add(RecordCodec.decode(frame));
+					}
+					return true;
+				});
+			}
+		}
+		return records;
+	}
+
+	private List<String> readAllStateLinesFromQueue(String qName) {
+		return readAllLines(new StateLog(Paths.get(BASE_PATH, qName)).path(0));
+	}
+
+	private List<Path> readAllSegmentsOfQueue(String qName) {
+		try(Stream<Path> segments = Files.list(Paths.get(BASE_PATH, qName, "segments"))) {
+			return segments.sorted().collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private List<String> readAllLines(Path path) {
+		try(Stream<String> lines = Files.lines(path)) {
+			return lines.filter(StringUtils::isNotBlank).collect(Collectors.toList());
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
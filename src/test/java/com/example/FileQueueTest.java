@@ -0,0 +1,384 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class FileQueueTest extends BaseTestClass {
+
+	private Path qPath = Paths.get(FileQueueServiceTest.BASE_PATH, "file-queue-test");
+	private FileQueue queue;
+	private int receiptHandles;
+
+	@Before
+	public void before() throws Exception {
+		FileQueueServiceTest.deleteAllSubDirectories(Paths.get(FileQueueServiceTest.BASE_PATH));
+		queue = new FileQueue(qPath, 100, 0);
+	}
+
+	@After
+	public void after() {
+		queue.close();
+	}
+
+	@Test
+	public void receive_shouldReturnMessagesInOrderOfPush_acrossSegments() {
+		for(int i = 0; i < 10; i++) {
+			queue.push("id-" + i, "body " + i);
+		}
+		for(int i = 0; i < 10; i++) {
+			assertThat(receive(30).orElse(null).getBody(), equalTo("body " + i));
+		}
+		assertThat(receive(30).isPresent(), is(false));
+	}
+
+	@Test
+	public void receive_shouldReturnBodyUnchanged_whenItContainsSeparatorsAndNewLines() {
+		String body = "first::second\nthird\r\n::";
+		queue.push("id-0", body);
+
+		FileQueue other = new FileQueue(qPath, 100, 0);
+		assertThat(other.receive(30, () -> "RH-other").orElse(null).getBody(), equalTo(body));
+		other.close();
+	}
+
+	@Test
+	public void receive_shouldSeeEveryPush_whenMappedAndUnmappedQueuesShareSegments() {
+		FileQueue mapped = new FileQueue(qPath, 100, true, 0);
+		for(int i = 0; i < 6; i++) {
+			(i % 2 == 0 ? mapped : queue).push("id-" + i, "body " + i);
+		}
+		for(int i = 0; i < 6; i++) {
+			Optional<Message> message = i % 2 == 0 ? receive(30) : mapped.receive(30, () -> "RH-" + receiptHandles++);
+			assertThat(message.orElse(null).getBody(), equalTo("body " + i));
+		}
+		assertThat(receive(30).isPresent(), is(false));
+		assertThat(mapped.receive(30, () -> "RH-" + receiptHandles++).isPresent(), is(false));
+		mapped.close();
+	}
+
+	@Test
+	public void receive_shouldReturnMessageAgain_onlyAfterItsVisibilityTimeoutExpired() throws Exception {
+		queue.push("id-0", "body 0");
+		String firstReceiptHandle = receive(1).get().getReceiptHandle();
+		assertThat(receive(1).isPresent(), is(false));
+
+		Thread.sleep(1000 + 2 * DeadlineScheduler.TICK_MILLIS);
+
+		Message again = receive(1).orElse(null);
+		assertThat(again.getBody(), equalTo("body 0"));
+		assertThat(again.getReceiptHandle(), not(equalTo(firstReceiptHandle)));
+	}
+
+	@Test
+	public void compact_shouldReclaimDeadSegmentsAndKeepLiveMessages() throws Exception {
+		for(int i = 0; i < 10; i++) {
+			queue.push("id-" + i, "body " + i);
+		}
+		List<Message> received = new ArrayList<>();
+		for(int i = 0; i < 10; i++) {
+			received.add(receive(30).orElse(null));
+		}
+		for(int i = 0; i < 8; i++) {
+			queue.delete(received.get(i).getReceiptHandle());
+		}
+		assertThat(queue.needsCompaction(), is(true));
+
+		queue.compact();
+
+		assertThat(Files.exists(new StateLog(qPath).path(1)), is(true));
+		assertThat(Files.exists(new StateLog(qPath).path(0)), is(false));
+		assertThat(queue.delete(received.get(8).getReceiptHandle()), is(true));
+
+		FileQueue reopened = new FileQueue(qPath, 100, 0);
+		assertThat(reopened.delete(received.get(8).getReceiptHandle()), is(false));
+		assertThat(reopened.delete(received.get(9).getReceiptHandle()), is(true));
+		reopened.close();
+	}
+
+	@Test
+	public void catchUp_shouldRebuild_whenAnotherInstanceCompactedTheStateLog() {
+		FileQueue other = new FileQueue(qPath, 100, 0);
+		for(int i = 0; i < 6; i++) {
+			queue.push("id-" + i, "body " + i);
+		}
+		for(int i = 0; i < 4; i++) {
+			queue.delete(receive(30).orElse(null).getReceiptHandle());
+		}
+		Message inFlight = receive(30).orElse(null);
+
+		other.compact();
+		queue.push("id-6", "body 6");
+
+		assertThat(receive(30).orElse(null).getBody(), equalTo("body 5"));
+		assertThat(receive(30).orElse(null).getBody(), equalTo("body 6"));
+		assertThat(receive(30).isPresent(), is(false));
+		assertThat(queue.delete(inFlight.getReceiptHandle()), is(true));
+		other.close();
+	}
+
+	@Test
+	public void open_shouldLoadEverySegment_whenReopened() {
+		for(int i = 0; i < 10; i++) {
+			queue.push("id-" + i, "body " + i);
+		}
+		receive(30);
+
+		FileQueue reopened = new FileQueue(qPath, 100, 0);
+		for(int i = 1; i < 10; i++) {
+			assertThat(reopened.receive(30, () -> "RH-" + receiptHandles++).orElse(null).getBody(), equalTo("body " + i));
+		}
+		assertThat(reopened.receive(30, () -> "RH-" + receiptHandles++).isPresent(), is(false));
+		reopened.close();
+	}
+
+	@Test
+	public void open_shouldIgnoreRecordTornByACrash_andOverwriteIt() throws Exception {
+		FileQueue crashed = new FileQueue(qPath, 1024 * 1024, 0);
+		crashed.push("id-0", "body 0");
+		crashed.push("id-1", "body 1");
+		crashed.close();
+		byte[] torn = RecordCodec.encode(Record.toRecord("id-torn", StringUtils.repeat('x', 500)));
+		Files.write(segment(0), Arrays.copyOf(torn, 300), StandardOpenOption.APPEND);
+
+		FileQueue recovered = new FileQueue(qPath, 1024 * 1024, 0);
+		recovered.push("id-2", "body 2");
+		recovered.push("id-3", "body 3");
+		recovered.close();
+
+		FileQueue reopened = new FileQueue(qPath, 1024 * 1024, 0);
+		for(int i = 0; i < 4; i++) {
+			assertThat(reopened.receive(30, () -> "RH-" + receiptHandles++).orElse(null).getBody(), equalTo("body " + i));
+		}
+		assertThat(reopened.receive(30, () -> "RH-" + receiptHandles++).isPresent(), is(false));
+		reopened.close();
+	}
+
+	@Test
+	public void open_shouldSkipCorruptRecord() throws Exception {
+		FileQueue corrupted = new FileQueue(qPath, 1024 * 1024, 0);
+		for(int i = 0; i < 3; i++) {
+			corrupted.push("id-" + i, "body " + i);
+		}
+		corrupted.close();
+		byte[] segment = Files.readAllBytes(segment(0));
+		int secondBody = new String(segment, StandardCharsets.ISO_8859_1).indexOf("body 1");
+		segment[secondBody] = 'B';
+		Files.write(segment(0), segment);
+
+		FileQueue reopened = new FileQueue(qPath, 1024 * 1024, 0);
+		assertThat(reopened.receive(30, () -> "RH-0").orElse(null).getBody(), equalTo("body 0"));
+		assertThat(reopened.receive(30, () -> "RH-2").orElse(null).getBody(), equalTo("body 2"));
+		assertThat(reopened.receive(30, () -> "RH-3").isPresent(), is(false));
+		reopened.close();
+	}
+
+	@Test
+	public void open_shouldIgnoreStateLineTornByACrash() throws Exception {
+		queue.push("id-0", "body 0");
+		queue.push("id-1", "body 1");
+		receive(30);
+		Files.write(new StateLog(qPath).path(0), (StateLog.DELETE + "::id-").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		FileQueue recovered = new FileQueue(qPath, 100, 0);
+		Message message = recovered.receive(30, () -> "RH-recovered").orElse(null);
+		assertThat(message.getBody(), equalTo("body 1"));
+		assertThat(recovered.delete(message.getReceiptHandle()), is(true));
+		recovered.close();
+
+		FileQueue reopened = new FileQueue(qPath, 100, 0);
+		assertThat(reopened.receive(30, () -> "RH-reopened").isPresent(), is(false));
+		assertThat(reopened.delete("RH-0"), is(true));
+		reopened.close();
+	}
+
+	@Test
+	public void open_shouldMigrateLegacyMessagesFile() throws Exception {
+		Files.createDirectories(qPath);
+		Record inFlight = Record.toRecord("id-1", "body 1");
+		inFlight.getMessage().setReceiptHandle("RH-1");
+		inFlight.setDelayInSec(30);
+		Record visible = Record.toRecord("id-2", "body 2");
+		Files.write(qPath.resolve("messages"), Arrays.asList(inFlight.toLine().trim(), visible.toLine().trim()));
+
+		assertThat(receive(30).orElse(null).getBody(), equalTo("body 2"));
+		assertThat(queue.delete("RH-1"), is(true));
+		assertThat(Files.exists(qPath.resolve("messages")), is(false));
+	}
+
+	@Test
+	public void open_shouldKeepTheVisibilityOfLegacyMessages_whenTheQueueHasADelay() throws Exception {
+		queue.setAttributes(Collections.singletonMap(QueueAttributes.DELAY_SECONDS, "60"));
+		Files.write(qPath.resolve("messages"), Collections.singletonList(Record.toRecord("id-1", "body 1").toLine().trim()));
+
+		FileQueue reopened = new FileQueue(qPath, 100, 0);
+		assertThat(reopened.receive(30, () -> "RH-1").orElse(null).getBody(), equalTo("body 1"));
+		reopened.close();
+	}
+
+	@Test
+	public void open_shouldNotDuplicateLegacyMessages_whenAMigrationCrashedBeforeDeletingTheFile() throws Exception {
+		Files.createDirectories(qPath);
+		Record inFlight = Record.toRecord("id-1", "body 1");
+		inFlight.getMessage().setReceiptHandle("RH-1");
+		inFlight.setDelayInSec(30);
+		List<String> lines = Arrays.asList(inFlight.toLine().trim(), Record.toRecord("id-2", "body 2").toLine().trim());
+		Files.write(qPath.resolve("messages"), lines);
+		assertThat(receive(30).orElse(null).getBody(), equalTo("body 2"));
+		Files.write(qPath.resolve("messages"), lines);
+
+		FileQueue reopened = new FileQueue(qPath, 100, 0);
+		assertThat(reopened.receive(30, () -> "RH-2").isPresent(), is(false));
+		assertThat(reopened.delete("RH-1"), is(true));
+		assertThat(Files.exists(qPath.resolve("messages")), is(false));
+		reopened.close();
+	}
+
+	private Path segment(long segmentId) {
+		return new SegmentedLog(qPath.resolve("segments"), 0).segmentPath(segmentId);
+	}
+
+	@Test
+	public void receive_shouldDeleteMessages_whenTheyOutlivedRetentionPeriod() {
+		long twoDaysAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2);
+		queue.push(Arrays.asList(Record.toRecord("id-0", "old", twoDaysAgo, twoDaysAgo), Record.toRecord("id-1", "new")));
+		queue.setAttributes(Collections.singletonMap(QueueAttributes.MESSAGE_RETENTION_PERIOD, "86400"));
+
+		assertThat(receive(30).orElse(null).getBody(), equalTo("new"));
+		assertThat(receive(30).isPresent(), is(false));
+		assertThat(readStateLines(), hasItem(StateLog.DELETE + "::id-0"));
+	}
+
+	@Test
+	public void expire_shouldDeleteOutlivedMessagesInBatches_andShareRetentionWithOtherProcesses() {
+		long twoDaysAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2);
+		for(int i = 0; i < 3; i++) {
+			queue.push(Collections.singletonList(Record.toRecord("id-" + i, "old " + i, twoDaysAgo, twoDaysAgo)));
+		}
+		queue.push("id-3", "new");
+		FileQueue other = new FileQueue(qPath, 100, 0);
+		other.setAttributes(Collections.singletonMap(QueueAttributes.MESSAGE_RETENTION_PERIOD, "86400"));
+		other.close();
+
+		assertThat(queue.expire(2), is(true));
+		assertThat(queue.expire(2), is(false));
+		FileQueue reopened = new FileQueue(qPath, 100, 0);
+		assertThat(reopened.attributes().retentionMillis(), equalTo(TimeUnit.DAYS.toMillis(1)));
+		assertThat(reopened.receive(30, () -> "RH-reopened").orElse(null).getBody(), equalTo("new"));
+		reopened.close();
+	}
+
+	@Test
+	public void purge_shouldDeleteEveryMessage_forEveryProcess() {
+		for(int i = 0; i < 5; i++) {
+			queue.push("id-" + i, "body " + i);
+		}
+		receive(30);
+		FileQueue other = new FileQueue(qPath, 100, 0);
+		assertThat(other.receive(30, () -> "RH-other").isPresent(), is(true));
+
+		queue.purge();
+		queue.push("id-5", "body 5");
+
+		assertThat(other.receive(0, () -> "RH-other-2").orElse(null).getBody(), equalTo("body 5"));
+		assertThat(other.delete("RH-other"), is(false));
+		other.close();
+		assertThat(queue.needsCompaction(), is(true));
+		queue.compact();
+		FileQueue reopened = new FileQueue(qPath, 100, 0);
+		assertThat(reopened.receive(0, () -> "RH-reopened").orElse(null).getBody(), equalTo("body 5"));
+		reopened.close();
+	}
+
+	@Test
+	public void compact_shouldKeepReceiveCounts() {
+		queue.push("id-0", "body 0");
+		queue.push("id-1", "body 1");
+		queue.delete(receive(0).orElse(null).getReceiptHandle());
+		receive(0);
+		receive(0);
+
+		queue.compact();
+		FileQueue reopened = new FileQueue(qPath, 100, 0);
+		Message message = reopened.receive(0, () -> "RH-reopened").orElse(null);
+		assertThat(message.getBody(), equalTo("body 1"));
+		assertThat(message.getAttributes().get(Record.APPROXIMATE_RECEIVE_COUNT), equalTo("3"));
+		reopened.close();
+	}
+
+	@Test
+	public void changeVisibility_shouldBeSeenByOtherProcesses_andKeepReceiveCount() {
+		queue.push("id-0", "body 0");
+		String receiptHandle = receive(30).orElse(null).getReceiptHandle();
+		FileQueue other = new FileQueue(qPath, 100, 0);
+		assertThat(other.receive(30, () -> "RH-other").isPresent(), is(false));
+
+		assertThat(queue.changeVisibility(Collections.singletonList(receiptHandle), 0), empty());
+		Message message = other.receive(30, () -> "RH-other").orElse(null);
+		assertThat(message.getBody(), equalTo("body 0"));
+		assertThat(message.getAttributes().get(Record.APPROXIMATE_RECEIVE_COUNT), equalTo("2"));
+		assertThat(queue.changeVisibility(Arrays.asList(receiptHandle, "RH-other"), 0), contains(receiptHandle));
+		other.close();
+	}
+
+	@Test
+	public void receive_shouldReturnDelayedMessage_onlyOnceItsDelayEnded_inEveryProcess() throws Exception {
+		queue.push(Arrays.asList(Record.toRecord("id-0", "delayed").withDelay(1), Record.toRecord("id-1", "body")));
+		FileQueue other = new FileQueue(qPath, 100, 0);
+		assertThat(other.receive(30, () -> "RH-other").orElse(null).getBody(), equalTo("body"));
+		assertThat(receive(30).isPresent(), is(false));
+
+		Thread.sleep(1000 + 2 * DeadlineScheduler.TICK_MILLIS);
+		assertThat(other.receive(30, () -> "RH-other").orElse(null).getBody(), equalTo("delayed"));
+		other.close();
+	}
+
+	@Test
+	public void compact_shouldKeepSegmentsWithDeduplicationIds_whileTheyAreInTheWindow() {
+		for(int i = 0; i < 4; i++) {
+			queue.push(Collections.singletonList(Record.toRecord("id-" + i, "body " + i).inGroup("group", "dedup-" + i)));
+		}
+		for(int i = 0; i < 4; i++) {
+			Message message = receive(30).orElse(null);
+			assertThat(message.getBody(), equalTo("body " + i));
+			assertThat(receive(30).isPresent(), is(false));
+			queue.delete(message.getReceiptHandle());
+		}
+
+		queue.compact();
+		FileQueue reopened = new FileQueue(qPath, 100, 0);
+		reopened.push(Collections.singletonList(Record.toRecord("id-4", "body 4").inGroup("group", "dedup-0")));
+		assertThat(reopened.receive(30, () -> "RH-reopened").isPresent(), is(false));
+		reopened.close();
+	}
+
+	private Optional<Message> receive(int visibilityTimeout) {
+		return queue.receive(visibilityTimeout, () -> "RH-" + receiptHandles++);
+	}
+
+	private List<String> readStateLines() {
+		try {
+			return Files.readAllLines(qPath.resolve("state-0.log"), StandardCharsets.UTF_8);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Entry point of the processes forked by FileQueueMultiProcessTest, sharing a queue through FileQueueService.
+ *
+ * Arguments are push or pull, the queue url, a control directory and the name of the worker, plus the number of
+ * messages to push. Workers create ready-name in the control directory and start once the test creates go. Pushers
+ * exit once done, pullers print the body of every message they receive and exit when the queue is empty after the
+ * test creates stop.
+ */
+public class FileQueueWorker extends BaseTestClass {
+
+	public static void main(String[] args) throws Exception {
+		String qUrl = args[1];
+		Path control = Paths.get(args[2]);
+		String name = args[3];
+		QueueService queueService = new FileQueueService(new UniversalUniqueIdGenerator());
+
+		Files.createFile(control.resolve("ready-" + name));
+		while(Files.notExists(control.resolve("go"))) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		if("push".equals(args[0])) {
+			int count = Integer.parseInt(args[4]);
+			for(int i = 0; i < count; i++) {
+				queueService.push(qUrl, name + "-" + i);
+			}
+		} else {
+			while(true) {
+				boolean stopping = Files.exists(control.resolve("stop"));
+				Optional<Message> message = queueService.pull(qUrl);
+				if(message.isPresent()) {
+					System.out.println(message.get().getBody());
+					queueService.delete(qUrl, message.get().getReceiptHandle());
+				} else if(stopping) {
+					break;
+				} else {
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+				}
+			}
+		}
+		System.out.flush();
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,105 @@
+package com.example;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class GroupCommitTest {
+
+	@Test
+	public void submit_shouldCommitRightAway_whenNothingElseIsCommitting() {
+		List<List<String>> commits = new ArrayList<>();
+		GroupCommit groupCommit = new GroupCommit(records -> commits.add(ids(records)));
+
+		groupCommit.submit(Collections.singletonList(Record.toRecord("id-1", "body 1")));
+		groupCommit.submit(Collections.singletonList(Record.toRecord("id-2", "body 2")));
+
+		assertThat(commits, equalTo(Arrays.asList(Collections.singletonList("id-1"), Collections.singletonList("id-2"))));
+	}
+
+	@Test
+	public void submit_shouldCommitPushesArrivingDuringACommitTogether() throws Exception {
+		List<List<String>> commits = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch firstCommitStarted = new CountDownLatch(1);
+		CountDownLatch releaseFirstCommit = new CountDownLatch(1);
+		GroupCommit groupCommit = new GroupCommit(records -> {
+			commits.add(ids(records));
+			firstCommitStarted.countDown();
+			await(releaseFirstCommit);
+		});
+		ExecutorService pushers = Executors.newFixedThreadPool(5);
+
+		Future<?> first = pushers.submit(() -> groupCommit.submit(Collections.singletonList(Record.toRecord("id-0", "body 0"))));
+		firstCommitStarted.await(5, TimeUnit.SECONDS);
+		List<Future<?>> waiting = new ArrayList<>();
+		for(int i = 1; i < 5; i++) {
+			String messageId = "id-" + i;
+			waiting.add(pushers.submit(() -> groupCommit.submit(Collections.singletonList(Record.toRecord(messageId, "body")))));
+		}
+		TimeUnit.MILLISECONDS.sleep(200);
+		releaseFirstCommit.countDown();
+		first.get(5, TimeUnit.SECONDS);
+		for(Future<?> push : waiting) {
+			push.get(5, TimeUnit.SECONDS);
+		}
+		pushers.shutdown();
+
+		assertThat(commits.size(), equalTo(2));
+		assertThat(commits.get(1), containsInAnyOrder("id-1", "id-2", "id-3", "id-4"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void submit_shouldThrow_whenCommitFails() {
+		GroupCommit groupCommit = new GroupCommit(records -> {
+			throw new IllegalStateException("disk full");
+		});
+
+		groupCommit.submit(Collections.singletonList(Record.toRecord("id-1", "body 1")));
+	}
+
+	@Test(timeout = 5000)
+	public void submit_shouldCommitLaterPushes_whenACommitThrewAnError() {
+		List<List<String>> commits = new ArrayList<>();
+		GroupCommit groupCommit = new GroupCommit(records -> {
+			if(commits.isEmpty()) {
+				commits.add(Collections.emptyList());
+				throw new OutOfMemoryError("mapped write");
+			}
+			commits.add(ids(records));
+		});
+		try {
+			groupCommit.submit(Collections.singletonList(Record.toRecord("id-1", "body 1")));
+			fail("The Error should have been thrown");
+		} catch (OutOfMemoryError expected) {
+		}
+
+		groupCommit.submit(Collections.singletonList(Record.toRecord("id-2", "body 2")));
+		assertThat(commits.get(1), contains("id-2"));
+	}
+
+	private static List<String> ids(List<Record> records) {
+		return records.stream().map(record -> record.getMessage().getMessageId()).collect(Collectors.toList());
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
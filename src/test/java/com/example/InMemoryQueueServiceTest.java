@@ -4,9 +4,15 @@ import com.amazonaws.services.sqs.model.Message;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
@@ -14,7 +20,7 @@ import static org.junit.Assert.assertThat;
 public class InMemoryQueueServiceTest extends BaseTestClass {
 
 	private QueueService queueService;
-	private ConcurrentHashMap<String, DelayQueue<Record>> messageStore;
+	private ConcurrentHashMap<String, InMemoryQueue> messageStore;
 	private String qUrlBase = "https://sqs.amazonaws.com/373529781950/";
 
 	@Before
@@ -65,7 +71,7 @@ public class InMemoryQueueServiceTest extends BaseTestClass {
 	@Test
 	public void pull_shouldReturnEmptyOptionalObject_whenQueueIsEmpty() {
 		String qName = "Test-Queue";
-		messageStore.put(qName, new DelayQueue<>());
+		messageStore.put(qName, new InMemoryQueue());
 		Optional<Message> message = queueService.pull(qUrlBase + qName);
 		assertThat(message.isPresent(), is(false));
 
@@ -84,8 +90,9 @@ public class InMemoryQueueServiceTest extends BaseTestClass {
 
 		Optional<Message> message = queueService.pull(qUrlBase + qName);
 
-		assertThat(messageStore.get(qName).size(), is(1));
-		assertThat(messageStore.get(qName).peek().getMessage(), equalTo(message.orElse(null)));
+		assertThat(message.isPresent(), is(true));
+		assertThat(messageStore.get(qName).visibleCount(), is(0L));
+		assertThat(messageStore.get(qName).inFlightCount(), is(1L));
 	}
 
 	@Test
@@ -110,7 +117,34 @@ public class InMemoryQueueServiceTest extends BaseTestClass {
 		Optional<Message> message = queueService.pull(qUrlBase + qName);
 
 		queueService.delete(qUrlBase + qName, message.orElse(null).getReceiptHandle());
-		assertThat(messageStore.get(qName).isEmpty(), is(true));
+		assertThat(messageStore.get(qName).visibleCount(), is(0L));
+		assertThat(messageStore.get(qName).inFlightCount(), is(0L));
+	}
+
+	@Test
+	public void delete_shouldRemoveTheMessage_whenItsVisibilityTimeoutHasExpired() {
+		String qName = "Test-Queue";
+		queueService.push(qUrlBase + qName, "Message Body 1");
+		Optional<Message> message = ((InMemoryQueueService)queueService).pull(qUrlBase + qName, 0);
+
+		queueService.delete(qUrlBase + qName, message.orElse(null).getReceiptHandle());
+		assertThat(queueService.pull(qUrlBase + qName).isPresent(), is(false));
+		assertThat(messageStore.get(qName).visibleCount(), is(0L));
+		assertThat(messageStore.get(qName).inFlightCount(), is(0L));
+	}
+
+	@Test
+	public void delete_shouldIgnoreStaleReceiptHandle() {
+		String qName = "Test-Queue";
+		queueService.push(qUrlBase + qName, "Message Body 1");
+		Optional<Message> firstReceive = ((InMemoryQueueService)queueService).pull(qUrlBase + qName, 0);
+		Optional<Message> secondReceive = queueService.pull(qUrlBase + qName);
+
+		queueService.delete(qUrlBase + qName, firstReceive.orElse(null).getReceiptHandle());
+		assertThat(messageStore.get(qName).inFlightCount(), is(1L));
+
+		queueService.delete(qUrlBase + qName, secondReceive.orElse(null).getReceiptHandle());
+		assertThat(messageStore.get(qName).inFlightCount(), is(0L));
 	}
 
 	@Test
@@ -130,4 +164,104 @@ public class InMemoryQueueServiceTest extends BaseTestClass {
 		assertThat(msg2.orElse(null).getBody(), equalTo(msg1.orElse(null).getBody()));
 		assertThat(msg2.orElse(null).getReceiptHandle(), not(equalTo(msg1.orElse(null).getReceiptHandle())));
 	}
+
+	@Test
+	public void pull_shouldReturnMessageAgain_afterVisibilityTimeoutExpires() throws Exception {
+		String qName = "Test-Queue";
+		queueService.push(qUrlBase + qName, "Message Body 1");
+		Optional<Message> msg1 = ((InMemoryQueueService)queueService).pull(qUrlBase + qName, 1);
+		assertThat(queueService.pull(qUrlBase + qName).isPresent(), is(false));
+
+		Thread.sleep(1100);
+		Optional<Message> msg2 = queueService.pull(qUrlBase + qName);
+		assertThat(msg2.isPresent(), is(true));
+		assertThat(msg2.orElse(null).getMessageId(), equalTo(msg1.orElse(null).getMessageId()));
+	}
+
+	@Test
+	public void pull_shouldMoveMessageToDeadLetterQueue_whenReceivedMaxReceiveCountTimes() {
+		String qName = "Test-Queue";
+		InMemoryQueueService inMemoryQueueService = (InMemoryQueueService) queueService;
+		queueService.setQueueAttributes(qUrlBase + qName, Collections.singletonMap(QueueAttributes.REDRIVE_POLICY,
+				"{\"deadLetterTargetArn\":\"arn:aws:sqs:us-east-1:373529781950:Test-Queue-DLQ\",\"maxReceiveCount\":2}"));
+		queueService.push(qUrlBase + qName, "poison");
+
+		assertThat(inMemoryQueueService.pull(qUrlBase + qName, 0).orElse(null).getAttributes().get(Record.APPROXIMATE_RECEIVE_COUNT), equalTo("1"));
+		Message second = inMemoryQueueService.pull(qUrlBase + qName, 0).orElse(null);
+		assertThat(second.getAttributes().get(Record.APPROXIMATE_RECEIVE_COUNT), equalTo("2"));
+
+		assertThat(inMemoryQueueService.pull(qUrlBase + qName, 0).isPresent(), is(false));
+		Message dead = queueService.pull(qUrlBase + "Test-Queue-DLQ").orElse(null);
+		assertThat(dead.getMessageId(), equalTo(second.getMessageId()));
+		assertThat(dead.getAttributes().get(Record.APPROXIMATE_RECEIVE_COUNT), equalTo("1"));
+		assertThat(messageStore.get(qName).visibleCount() + messageStore.get(qName).inFlightCount(), equalTo(0L));
+	}
+
+	@Test
+	public void pull_shouldReceiveEveryGroupInOrder_whenGroupsAreConsumedInParallel() throws Exception {
+		String qUrl = qUrlBase + "Test-Queue.fifo";
+		int groups = 20;
+		int messagesPerGroup = 50;
+		for(int i = 0; i < messagesPerGroup; i++) {
+			for(int group = 0; group < groups; group++) {
+				queueService.push(qUrl, Integer.toString(i), "group-" + group, null);
+			}
+		}
+		ConcurrentHashMap<String, Integer> lastReceived = new ConcurrentHashMap<>();
+		Set<String> groupsInFlight = ConcurrentHashMap.newKeySet();
+		AtomicInteger received = new AtomicInteger();
+		AtomicBoolean violated = new AtomicBoolean();
+		ExecutorService consumers = Executors.newFixedThreadPool(4);
+		for(int consumer = 0; consumer < 4; consumer++) {
+			consumers.execute(() -> {
+				while(received.get() < groups * messagesPerGroup) {
+					Message message = queueService.pull(qUrl).orElse(null);
+					if(message == null) {
+						continue;
+					}
+					String group = message.getAttributes().get(Record.MESSAGE_GROUP_ID);
+					int i = Integer.parseInt(message.getBody());
+					if(!groupsInFlight.add(group) || lastReceived.getOrDefault(group, -1) != i - 1) {
+						violated.set(true);
+					}
+					lastReceived.put(group, i);
+					groupsInFlight.remove(group);
+					queueService.delete(qUrl, message.getReceiptHandle());
+					received.incrementAndGet();
+				}
+			});
+		}
+		consumers.shutdown();
+		assertThat(consumers.awaitTermination(30, TimeUnit.SECONDS), is(true));
+
+		assertThat(violated.get(), is(false));
+		assertThat(lastReceived.size(), equalTo(groups));
+		assertThat(lastReceived.values().stream().allMatch(last -> last == messagesPerGroup - 1), is(true));
+	}
+
+	@Test
+	public void pull_shouldOnlyReceiveVisibleMessages_whenMostMessagesAreDelayed() {
+		String qName = "Test-Queue";
+		for(int i = 0; i < 100000; i++) {
+			queueService.push(qUrlBase + qName, "delayed " + i, QueueService.MAX_DELAY_SECONDS);
+		}
+		queueService.push(qUrlBase + qName, "visible");
+
+		assertThat(messageStore.get(qName).delayedCount(), is(100000L));
+		assertThat(messageStore.get(qName).visibleCount(), is(1L));
+		assertThat(queueService.pull(qUrlBase + qName).orElse(null).getBody(), equalTo("visible"));
+		assertThat(queueService.pull(qUrlBase + qName).isPresent(), is(false));
+	}
+
+	@Test
+	public void pull_shouldDropMessage_whenItOutlivedRetentionPeriod() {
+		String qName = "Test-Queue";
+		long twoDaysAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2);
+		queueService.setQueueAttributes(qUrlBase + qName, Collections.singletonMap(QueueAttributes.MESSAGE_RETENTION_PERIOD, "86400"));
+		messageStore.get(qName).push(Record.toRecord("old", "old body", twoDaysAgo, twoDaysAgo));
+		queueService.push(qUrlBase + qName, "new body");
+
+		assertThat(queueService.pull(qUrlBase + qName).orElse(null).getBody(), equalTo("new body"));
+		assertThat(messageStore.get(qName).visibleCount(), equalTo(0L));
+	}
 }
@@ -0,0 +1,40 @@
+package com.example;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void percentile_shouldBeWithinBucketPrecision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(long nanos = 1; nanos <= 1000000; nanos++) {
+			histogram.record(nanos * 1000);
+		}
+
+		assertThat(histogram.count(), is(1000000L));
+		assertThat(histogram.max(), is(1000000000L));
+		assertThat((double) histogram.percentile(50), closeTo(500000000, 500000000 / 32.0));
+		assertThat((double) histogram.percentile(99), closeTo(990000000, 990000000 / 32.0));
+		assertThat(histogram.percentile(100), is(1000000000L));
+	}
+
+	@Test
+	public void percentile_shouldBeExact_forSmallValues() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(long value = 0; value < 64; value++) {
+			histogram.record(value);
+		}
+
+		assertThat(histogram.percentile(50), is(31L));
+		assertThat(histogram.percentile(100), is(63L));
+	}
+
+	@Test
+	public void percentile_shouldBeZero_whenNothingWasRecorded() {
+		assertThat(new LatencyHistogram().percentile(99), is(0L));
+	}
+
+}
@@ -0,0 +1,220 @@
+package com.example;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.sqs.AmazonSQSAsyncClient;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.Message;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in for the SQS endpoint, backed by an InMemoryQueueService and counting the requests it gets per action.
+ * Speaks just enough of the SQS query protocol for SqsQueueService.
+ */
+class LocalSqsServer implements AutoCloseable {
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final QueueService queueService = new InMemoryQueueService(new ConcurrentHashMap<>());
+	private final ConcurrentHashMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+
+	LocalSqsServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	AmazonSQSClient client() {
+		AmazonSQSClient sqs = new AmazonSQSClient(new BasicAWSCredentials("access-key", "secret-key"));
+		sqs.setEndpoint(endpoint());
+		return sqs;
+	}
+
+	AmazonSQSAsyncClient asyncClient() {
+		AmazonSQSAsyncClient sqs = new AmazonSQSAsyncClient(new BasicAWSCredentials("access-key", "secret-key"));
+		sqs.setEndpoint(endpoint());
+		return sqs;
+	}
+
+	String queueUrl(String qName) {
+		return endpoint() + "/373529781950/" + qName;
+	}
+
+	int requestCount(String action) {
+		AtomicInteger count = requestCounts.get(action);
+		return count == null ? 0 : count.get();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private String endpoint() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		Map<String, String> params = parse(IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8));
+		String qUrl = exchange.getRequestURI().getPath();
+		String action = params.get("Action");
+		requestCounts.computeIfAbsent(action, name -> new AtomicInteger()).incrementAndGet();
+
+		StringBuilder result = new StringBuilder();
+		switch(action) {
+			case "SendMessage":
+				if(params.containsKey("MessageGroupId")) {
+					queueService.push(qUrl, params.get("MessageBody"), params.get("MessageGroupId"), params.get("MessageDeduplicationId"));
+				} else if(params.containsKey("DelaySeconds")) {
+					queueService.push(qUrl, params.get("MessageBody"), Integer.parseInt(params.get("DelaySeconds")));
+				} else {
+					queueService.push(qUrl, params.get("MessageBody"));
+				}
+				result.append(sendResult(params.get("MessageBody")));
+				break;
+			case "SendMessageBatch":
+				List<String> bodies = new ArrayList<>();
+				for(int i = 1; params.containsKey("SendMessageBatchRequestEntry." + i + ".Id"); i++) {
+					String body = params.get("SendMessageBatchRequestEntry." + i + ".MessageBody");
+					bodies.add(body);
+					result.append("<SendMessageBatchResultEntry><Id>").append(params.get("SendMessageBatchRequestEntry." + i + ".Id")).append("</Id>")
+							.append(sendResult(body)).append("</SendMessageBatchResultEntry>");
+				}
+				queueService.pushBatch(qUrl, bodies);
+				break;
+			case "ReceiveMessage":
+				int maxMessages = Integer.parseInt(params.getOrDefault("MaxNumberOfMessages", "1"));
+				int waitTime = Integer.parseInt(params.getOrDefault("WaitTimeSeconds", "0"));
+				List<Message> messages = new ArrayList<>();
+				if(waitTime > 0) {
+					queueService.pull(qUrl, waitTime, TimeUnit.SECONDS).ifPresent(messages::add);
+				} else {
+					messages.addAll(queueService.pullBatch(qUrl, maxMessages));
+				}
+				for(Message message : messages) {
+					result.append("<Message><MessageId>").append(message.getMessageId()).append("</MessageId>")
+							.append("<ReceiptHandle>").append(message.getReceiptHandle()).append("</ReceiptHandle>")
+							.append("<MD5OfBody>").append(DigestUtils.md5Hex(message.getBody())).append("</MD5OfBody>")
+							.append("<Body>").append(escapeXml(message.getBody())).append("</Body></Message>");
+				}
+				break;
+			case "DeleteMessage":
+				queueService.delete(qUrl, params.get("ReceiptHandle"));
+				break;
+			case "DeleteMessageBatch":
+				List<String> receiptHandles = new ArrayList<>();
+				for(int i = 1; params.containsKey("DeleteMessageBatchRequestEntry." + i + ".Id"); i++) {
+					receiptHandles.add(params.get("DeleteMessageBatchRequestEntry." + i + ".ReceiptHandle"));
+					result.append("<DeleteMessageBatchResultEntry><Id>").append(params.get("DeleteMessageBatchRequestEntry." + i + ".Id"))
+							.append("</Id></DeleteMessageBatchResultEntry>");
+				}
+				queueService.deleteBatch(qUrl, receiptHandles);
+				break;
+			case "ChangeMessageVisibility":
+				if(!queueService.changeMessageVisibility(qUrl, params.get("ReceiptHandle"), Integer.parseInt(params.get("VisibilityTimeout")))) {
+					respondError(exchange, "AWS.SimpleQueueService.MessageNotInflight");
+					return;
+				}
+				break;
+			case "ChangeMessageVisibilityBatch":
+				List<String> changed = new ArrayList<>();
+				List<String> changedIds = new ArrayList<>();
+				for(int i = 1; params.containsKey("ChangeMessageVisibilityBatchRequestEntry." + i + ".Id"); i++) {
+					changed.add(params.get("ChangeMessageVisibilityBatchRequestEntry." + i + ".ReceiptHandle"));
+					changedIds.add(params.get("ChangeMessageVisibilityBatchRequestEntry." + i + ".Id"));
+				}
+				// the batch carries one timeout for all entries as SqsQueueService sends it
+				List<String> failed = queueService.changeMessageVisibilityBatch(qUrl, changed,
+						Integer.parseInt(params.get("ChangeMessageVisibilityBatchRequestEntry.1.VisibilityTimeout")));
+				for(int i = 0; i < changed.size(); i++) {
+					String entry = failed.contains(changed.get(i)) ? "BatchResultErrorEntry" : "ChangeMessageVisibilityBatchResultEntry";
+					result.append("<").append(entry).append("><Id>").append(changedIds.get(i)).append("</Id>");
+					if(failed.contains(changed.get(i))) {
+						result.append("<SenderFault>true</SenderFault><Code>ReceiptHandleIsInvalid</Code><Message>Not in flight</Message>");
+					}
+					result.append("</").append(entry).append(">");
+				}
+				break;
+			case "SetQueueAttributes":
+				Map<String, String> attributes = new HashMap<>();
+				for(int i = 1; params.containsKey("Attribute." + i + ".Name"); i++) {
+					attributes.put(params.get("Attribute." + i + ".Name"), params.get("Attribute." + i + ".Value"));
+				}
+				queueService.setQueueAttributes(qUrl, attributes);
+				break;
+			case "GetQueueAttributes":
+				// answers with every attribute whichever were asked for
+				queueService.getQueueAttributes(qUrl).forEach((name, value) -> result.append("<Attribute><Name>").append(name)
+						.append("</Name><Value>").append(escapeXml(value)).append("</Value></Attribute>"));
+				break;
+			case "PurgeQueue":
+				queueService.purge(qUrl);
+				break;
+			default:
+				exchange.sendResponseHeaders(400, -1);
+				exchange.close();
+				return;
+		}
+		respond(exchange, "<" + action + "Response><" + action + "Result>" + result + "</" + action + "Result>"
+				+ "<ResponseMetadata><RequestId>" + UUID.randomUUID() + "</RequestId></ResponseMetadata></" + action + "Response>");
+	}
+
+	private static void respondError(HttpExchange exchange, String code) throws IOException {
+		byte[] bytes = ("<ErrorResponse><Error><Type>Sender</Type><Code>" + code + "</Code><Message>" + code + "</Message></Error>"
+				+ "<RequestId>" + UUID.randomUUID() + "</RequestId></ErrorResponse>").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "text/xml");
+		exchange.sendResponseHeaders(400, bytes.length);
+		try(OutputStream body = exchange.getResponseBody()) {
+			body.write(bytes);
+		}
+	}
+
+	private static String escapeXml(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;").replace("'", "&apos;");
+	}
+
+	private static String sendResult(String body) {
+		return "<MessageId>" + UUID.randomUUID() + "</MessageId><MD5OfMessageBody>" + DigestUtils.md5Hex(body) + "</MD5OfMessageBody>";
+	}
+
+	private static void respond(HttpExchange exchange, String xml) throws IOException {
+		byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "text/xml");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try(OutputStream body = exchange.getResponseBody()) {
+			body.write(bytes);
+		}
+	}
+
+	private static Map<String, String> parse(String form) throws IOException {
+		Map<String, String> params = new HashMap<>();
+		for(String pair : form.split("&")) {
+			int separator = pair.indexOf('=');
+			if(separator > 0) {
+				params.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"), URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+}
@@ -0,0 +1,89 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ReflectionException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class MetricsQueueServiceTest extends BaseTestClass {
+
+	private MBeanServer server = MBeanServerFactory.newMBeanServer();
+	private JmxMetricsRegistry registry = new JmxMetricsRegistry(server, "test");
+	private String qName = "metrics-queue";
+	private String qUrl = "https://sqs.amazonaws.com/373529781950/" + qName;
+
+	@Before
+	public void before() throws Exception {
+		FileQueueServiceTest.deleteAllSubDirectories(Paths.get(FileQueueServiceTest.BASE_PATH));
+	}
+
+	@After
+	public void after() {
+		registry.close();
+	}
+
+	@Test
+	public void calls_shouldBeCountedAndTimedPerQueue() throws Exception {
+		QueueService queueService = new MetricsQueueService(new InMemoryQueueService(new ConcurrentHashMap<>()), registry);
+		queueService.pushBatch(qUrl, Arrays.asList("body 1", "body 2", "body 3"));
+		Message message = queueService.pull(qUrl).orElse(null);
+		queueService.pullBatch(qUrl, 10);
+		queueService.pull(qUrl);
+		queueService.delete(qUrl, message.getReceiptHandle());
+
+		assertThat(attribute(qName, "messagesPushed"), is(3L));
+		assertThat(attribute(qName, "messagesReceived"), is(3L));
+		assertThat(attribute(qName, "messagesDeleted"), is(1L));
+		assertThat(attribute(qName, "receives"), is(3L));
+		assertThat(attribute(qName, "emptyReceives"), is(1L));
+		assertThat(attribute(qName, "receiveLatencyCount"), is(3L));
+		assertThat(attribute(qName, "pushLatencyMax"), greaterThan(0L));
+		assertThat(attribute(qName, "visibleMessages"), is(0L));
+		assertThat(attribute(qName, "inFlightMessages"), is(2L));
+	}
+
+	@Test
+	public void fileQueueService_shouldMeterLockWaitsAndBytes() throws Exception {
+		QueueService queueService = new MetricsQueueService(new FileQueueService(new UniversalUniqueIdGenerator()), registry);
+		queueService.push(qUrl, "body 1");
+		queueService.push(qUrl, "body 2");
+		queueService.pull(qUrl);
+		queueService.delete(qUrl, "unknown");
+
+		assertThat(attribute(null, "unknownReceiptHandles"), is(1L));
+		assertThat(attribute(null, "lockWaitCount"), greaterThan(0L));
+		assertThat(attribute(null, "bytesWritten"), greaterThan(0L));
+		assertThat(attribute(null, "bytesRead"), greaterThan(0L));
+		assertThat(attribute(qName, "visibleMessages"), is(1L));
+		assertThat(attribute(qName, "inFlightMessages"), is(1L));
+	}
+
+	@Test
+	public void invoke_shouldThrowReflectionException_whenAnOperationIsCalled() throws Exception {
+		QueueService queueService = new MetricsQueueService(new InMemoryQueueService(new ConcurrentHashMap<>()), registry);
+		queueService.push(qUrl, "body 1");
+
+		try {
+			server.invoke(registry.objectName(qName), "reset", new Object[0], new String[0]);
+			fail("Expected a ReflectionException");
+		} catch (ReflectionException e) {
+			assertThat(e.getTargetException(), instanceOf(NoSuchMethodException.class));
+		}
+	}
+
+	private long attribute(String scope, String name) throws Exception {
+		return (Long) server.getAttribute(registry.objectName(scope), name);
+	}
+
+}
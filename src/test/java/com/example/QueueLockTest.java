@@ -0,0 +1,122 @@
+package com.example;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class QueueLockTest extends BaseTestClass {
+
+	private Path lockDir = Paths.get(FileQueueServiceTest.BASE_PATH, "lock-test");
+	private QueueLock lock;
+
+	@Before
+	public void before() throws Exception {
+		FileQueueServiceTest.deleteAllSubDirectories(Paths.get(FileQueueServiceTest.BASE_PATH));
+		lock = QueueLock.forPath(lockDir.resolve("queue.lock"));
+	}
+
+	@Test
+	public void forPath_shouldReturnSameLock_forSameFile() {
+		assertThat(QueueLock.forPath(lockDir.resolve("../lock-test/queue.lock")), sameInstance(lock));
+	}
+
+	@Test
+	public void lock_shouldBeReentrant() {
+		lock.lock(1, TimeUnit.SECONDS);
+		lock.lock(1, TimeUnit.SECONDS);
+		lock.unlock();
+		assertThat(lock.isHeldByCurrentThread(), is(true));
+		lock.unlock();
+		assertThat(lock.isHeldByCurrentThread(), is(false));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void lock_shouldTimeOut_whenHeldByAnotherThread() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		CountDownLatch locked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		executor.execute(() -> {
+			lock.lock(1, TimeUnit.SECONDS);
+			locked.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException ignored) {
+			}
+			lock.unlock();
+		});
+		locked.await();
+		try {
+			lock.lock(50, TimeUnit.MILLISECONDS);
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void lock_shouldBeAcquired_afterOtherThreadReleasesIt() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		lock.lock(1, TimeUnit.SECONDS);
+		Future<Boolean> other = executor.submit(() -> {
+			lock.lock(5, TimeUnit.SECONDS);
+			lock.unlock();
+			return true;
+		});
+		Thread.sleep(20);
+		lock.unlock();
+		assertThat(other.get(5, TimeUnit.SECONDS), is(true));
+		executor.shutdown();
+	}
+
+	@Test
+	public void lock_shouldRecreateLockFile_whenDeleted() throws Exception {
+		lock.lock(1, TimeUnit.SECONDS);
+		lock.unlock();
+		FileQueueServiceTest.deleteAllSubDirectories(Paths.get(FileQueueServiceTest.BASE_PATH));
+
+		lock.lock(1, TimeUnit.SECONDS);
+		assertThat(Files.exists(lockDir.resolve("queue.lock")), is(true));
+		lock.unlock();
+	}
+
+	@Test
+	public void lock_shouldSkipTicket_whenItsProcessDiedWaiting() throws Exception {
+		lock.lock(1, TimeUnit.SECONDS);
+		lock.unlock();
+		// a process that drew the next ticket and died before its turn
+		try(FileChannel channel = FileChannel.open(lockDir.resolve("queue.lock"), READ, WRITE)) {
+			ByteBuffer nextTicket = ByteBuffer.allocate(8);
+			channel.read(nextTicket, 0);
+			nextTicket.putLong(0, nextTicket.getLong(0) + 1).rewind();
+			channel.write(nextTicket, 0);
+		}
+
+		lock.lock(5, TimeUnit.SECONDS);
+		assertThat(lock.isHeldByCurrentThread(), is(true));
+		lock.unlock();
+	}
+
+	@Test
+	public void recoverLegacyLock_shouldRemoveLeftOverLockDirectory() throws Exception {
+		Path legacy = lockDir.resolve("lock");
+		Files.createDirectories(legacy);
+		QueueLock.recoverLegacyLock(legacy);
+		assertThat(Files.exists(legacy), is(false));
+	}
+
+}
@@ -14,6 +14,8 @@ import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -31,7 +33,7 @@ public class QueueServiceTest extends BaseTestClass {
 
 	@Parameterized.Parameters
 	public static Collection<String> getParameters() {
-		return Arrays.asList("InMemoryQueueService", "FileQueueService");
+		return Arrays.asList("InMemoryQueueService", "FileQueueService", "MappedFileQueueService", "ShardedFileQueueService");
 	}
 
 	private String queueServiceImplClass;
@@ -54,6 +56,15 @@ public class QueueServiceTest extends BaseTestClass {
 			this.queueService = new FileQueueService(new UniversalUniqueIdGenerator());
 			FileQueueServiceTest.deleteAllSubDirectories(Paths.get(FileQueueServiceTest.BASE_PATH));
 		}
+		if(queueServiceImplClass.equals("MappedFileQueueService")) {
+			this.queueService = new FileQueueService(new UniversalUniqueIdGenerator(), 1024 * 1024, true);
+			FileQueueServiceTest.deleteAllSubDirectories(Paths.get(FileQueueServiceTest.BASE_PATH));
+		}
+		if(queueServiceImplClass.equals("ShardedFileQueueService")) {
+			this.queueService = new FileQueueService(new UniversalUniqueIdGenerator(), 1024 * 1024, false, FileQueueService.Fsync.NEVER, 1000, 1024,
+					Arrays.asList(Paths.get(FileQueueServiceTest.BASE_PATH, "shard-0"), Paths.get(FileQueueServiceTest.BASE_PATH, "shard-1")), 1);
+			FileQueueServiceTest.deleteAllSubDirectories(Paths.get(FileQueueServiceTest.BASE_PATH));
+		}
 	}
 
 	@Test
@@ -132,6 +143,52 @@ public class QueueServiceTest extends BaseTestClass {
 		queueService.delete(qUrl2, msg4.orElse(null).getReceiptHandle());
 	}
 
+	@Test
+	public void testBatch() {
+		queueService.pushBatch(qUrl, Arrays.asList("body 1", "body 2", "body 3"));
+
+		List<Message> batch1 = queueService.pullBatch(qUrl, 2);
+		assertThat(batch1.stream().map(Message::getBody).collect(Collectors.toList()), contains("body 1", "body 2"));
+
+		List<Message> batch2 = queueService.pullBatch(qUrl, QueueService.MAX_BATCH_SIZE);
+		assertThat(batch2.stream().map(Message::getBody).collect(Collectors.toList()), contains("body 3"));
+		assertThat(queueService.pullBatch(qUrl, QueueService.MAX_BATCH_SIZE), is(empty()));
+
+		queueService.deleteBatch(qUrl, batch1.stream().map(Message::getReceiptHandle).collect(Collectors.toList()));
+		queueService.delete(qUrl, batch2.get(0).getReceiptHandle());
+		assertThat(queueService.pull(qUrl).isPresent(), is(false));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBatch_tooManyMessages() {
+		queueService.pullBatch(qUrl, QueueService.MAX_BATCH_SIZE + 1);
+	}
+
+	@Test
+	public void testLongPolling() throws Exception {
+		ExecutorService producer = Executors.newSingleThreadExecutor();
+		producer.submit(() -> {
+			TimeUnit.MILLISECONDS.sleep(200);
+			queueService.push(qUrl, "pushed while waiting");
+			return null;
+		});
+		long started = System.nanoTime();
+		Optional<Message> message = queueService.pull(qUrl, 5, TimeUnit.SECONDS);
+		producer.shutdown();
+
+		assertThat(message.orElse(null).getBody(), equalTo("pushed while waiting"));
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), lessThan(2000L));
+	}
+
+	@Test
+	public void testLongPolling_emptyQueue() {
+		long started = System.nanoTime();
+		Optional<Message> message = queueService.pull(qUrl, 300, TimeUnit.MILLISECONDS);
+
+		assertThat(message.isPresent(), is(false));
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), greaterThanOrEqualTo(300L));
+	}
+
 	@Test
 	public void testWithMultipleThreads() throws InterruptedException {
 		Set<Message> messages = Collections.newSetFromMap(new ConcurrentHashMap<Message, Boolean>());
@@ -157,4 +214,185 @@ public class QueueServiceTest extends BaseTestClass {
 		Set<String> handlers = messages.stream().map(Message::getReceiptHandle).collect(Collectors.toSet());
 		assertThat(handlers.size(), equalTo(10));
 	}
+
+	@Test
+	public void testPurge() {
+		queueService.push(qUrl, "body 1");
+		queueService.push(qUrl, "body 2");
+		Message inFlight = queueService.pull(qUrl).orElse(null);
+
+		queueService.purge(qUrl);
+
+		assertThat(queueService.pull(qUrl).isPresent(), is(false));
+		queueService.delete(qUrl, inFlight.getReceiptHandle());
+		queueService.push(qUrl, "body 3");
+		assertThat(queueService.pull(qUrl).orElse(null).getBody(), equalTo("body 3"));
+	}
+
+	@Test
+	public void testFifo_groupIsBlockedWhileAMessageOfItIsInFlight() {
+		String fifoUrl = qUrl + QueueService.FIFO_SUFFIX;
+		queueService.push(fifoUrl, "a1", "group-a", null);
+		queueService.push(fifoUrl, "a2", "group-a", null);
+		queueService.push(fifoUrl, "b1", "group-b", null);
+
+		Message a1 = queueService.pull(fifoUrl).orElse(null);
+		assertThat(a1.getBody(), equalTo("a1"));
+		assertThat(a1.getAttributes().get(Record.MESSAGE_GROUP_ID), equalTo("group-a"));
+		Message b1 = queueService.pull(fifoUrl).orElse(null);
+		assertThat(b1.getBody(), equalTo("b1"));
+		assertThat(queueService.pull(fifoUrl).isPresent(), is(false));
+
+		queueService.delete(fifoUrl, a1.getReceiptHandle());
+		assertThat(queueService.pull(fifoUrl).orElse(null).getBody(), equalTo("a2"));
+	}
+
+	@Test
+	public void testFifo_pushWithSameDeduplicationIdIsDropped() {
+		String fifoUrl = qUrl + QueueService.FIFO_SUFFIX;
+		queueService.push(fifoUrl, "first", "group-a", "dedup-1");
+		queueService.push(fifoUrl, "retried", "group-a", "dedup-1");
+		queueService.push(fifoUrl, "second", "group-b", "dedup-2");
+
+		List<Message> messages = queueService.pullBatch(fifoUrl, 10);
+		assertThat(messages.stream().map(Message::getBody).collect(Collectors.toList()), containsInAnyOrder("first", "second"));
+		queueService.deleteBatch(fifoUrl, messages.stream().map(Message::getReceiptHandle).collect(Collectors.toList()));
+		queueService.push(fifoUrl, "retried after delete", "group-a", "dedup-1");
+		assertThat(queueService.pull(fifoUrl).isPresent(), is(false));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFifo_pushWithoutGroupIsRejected() {
+		queueService.push(qUrl + QueueService.FIFO_SUFFIX, "body");
+	}
+
+	@Test
+	public void testDelay_messageBecomesVisibleOnceItsDelayEnded() throws Exception {
+		queueService.push(qUrl, "delayed", 1);
+		queueService.push(qUrl, "body");
+		assertThat(queueService.pull(qUrl).orElse(null).getBody(), equalTo("body"));
+		assertThat(queueService.pull(qUrl).isPresent(), is(false));
+
+		Thread.sleep(1000 + 2 * DeadlineScheduler.TICK_MILLIS);
+		assertThat(queueService.pull(qUrl).orElse(null).getBody(), equalTo("delayed"));
+	}
+
+	@Test
+	public void testDelay_queueDelayAppliesToPushesWithoutADelayOfTheirOwn() throws Exception {
+		queueService.setQueueAttributes(qUrl, Collections.singletonMap(QueueAttributes.DELAY_SECONDS, "1"));
+		queueService.push(qUrl, "body 1");
+		queueService.pushBatch(qUrl, Collections.singletonList("body 2"));
+		queueService.push(qUrl, "undelayed", 0);
+		assertThat(queueService.pull(qUrl).orElse(null).getBody(), equalTo("undelayed"));
+		assertThat(queueService.pull(qUrl).isPresent(), is(false));
+
+		Thread.sleep(1000 + 2 * DeadlineScheduler.TICK_MILLIS);
+		assertThat(queueService.pullBatch(qUrl, 10).stream().map(Message::getBody).collect(Collectors.toList()), containsInAnyOrder("body 1", "body 2"));
+	}
+
+	@Test
+	public void testDelay_fifoGroupWaitsForItsDelayedMessages() throws Exception {
+		String fifoUrl = qUrlBase + "delayed.fifo";
+		queueService.setQueueAttributes(fifoUrl, Collections.singletonMap(QueueAttributes.DELAY_SECONDS, "1"));
+		queueService.push(fifoUrl, "first", "group", null);
+		queueService.push(fifoUrl, "second", "group", null);
+		assertThat(queueService.pull(fifoUrl).isPresent(), is(false));
+
+		Thread.sleep(1000 + 2 * DeadlineScheduler.TICK_MILLIS);
+		Message first = queueService.pull(fifoUrl).orElse(null);
+		assertThat(first.getBody(), equalTo("first"));
+		assertThat(queueService.pull(fifoUrl).isPresent(), is(false));
+		queueService.delete(fifoUrl, first.getReceiptHandle());
+		assertThat(queueService.pull(fifoUrl).orElse(null).getBody(), equalTo("second"));
+	}
+
+	@Test
+	public void testDelay_fifoGroupWaitsForAnEarlierDelayedMessage_whenTheQueueDelayWasLowered() throws Exception {
+		String fifoUrl = qUrlBase + "lowered.fifo";
+		queueService.setQueueAttributes(fifoUrl, Collections.singletonMap(QueueAttributes.DELAY_SECONDS, "1"));
+		queueService.push(fifoUrl, "first", "group", null);
+		queueService.setQueueAttributes(fifoUrl, Collections.singletonMap(QueueAttributes.DELAY_SECONDS, "0"));
+		queueService.push(fifoUrl, "second", "group", null);
+		queueService.push(fifoUrl, "other", "other group", null);
+		assertThat(queueService.pullBatch(fifoUrl, 10).stream().map(Message::getBody).collect(Collectors.toList()), contains("other"));
+
+		Thread.sleep(1000 + 2 * DeadlineScheduler.TICK_MILLIS);
+		List<Message> received = queueService.pullBatch(fifoUrl, 10);
+		assertThat(received.stream().map(Message::getBody).collect(Collectors.toList()), contains("first", "second"));
+	}
+
+	@Test
+	public void testDelay_purgeDeletesDelayedMessages() throws Exception {
+		queueService.push(qUrl, "delayed", 1);
+		queueService.purge(qUrl);
+
+		Thread.sleep(1000 + 2 * DeadlineScheduler.TICK_MILLIS);
+		assertThat(queueService.pull(qUrl).isPresent(), is(false));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDelay_invalidDelay() {
+		queueService.push(qUrl, "body", QueueService.MAX_DELAY_SECONDS + 1);
+	}
+
+	@Test
+	public void testGetQueueAttributes_countsVisibleInFlightAndDelayedMessages() throws Exception {
+		queueService.setQueueAttributes(qUrl, Collections.singletonMap(QueueAttributes.MESSAGE_RETENTION_PERIOD, "600"));
+		queueService.pushBatch(qUrl, Arrays.asList("body 1", "body 2", "body 3"));
+		queueService.push(qUrl, "delayed", 60);
+		Message received = queueService.pull(qUrl).orElse(null);
+		queueService.pull(qUrl);
+		queueService.delete(qUrl, received.getReceiptHandle());
+		Thread.sleep(1000);
+
+		Map<String, String> attributes = queueService.getQueueAttributes(qUrl);
+		assertThat(attributes.get(QueueAttributes.APPROXIMATE_NUMBER_OF_MESSAGES), equalTo("1"));
+		assertThat(attributes.get(QueueAttributes.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE), equalTo("1"));
+		assertThat(attributes.get(QueueAttributes.APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED), equalTo("1"));
+		assertThat(Integer.parseInt(attributes.get(QueueAttributes.APPROXIMATE_AGE_OF_OLDEST_MESSAGE)), greaterThanOrEqualTo(1));
+		assertThat(attributes.get(QueueAttributes.MESSAGE_RETENTION_PERIOD), equalTo("600"));
+	}
+
+	@Test
+	public void testGetQueueAttributes_emptyQueue() {
+		Map<String, String> attributes = queueService.getQueueAttributes(qUrlBase + "never-pushed-to");
+		assertThat(attributes.get(QueueAttributes.APPROXIMATE_NUMBER_OF_MESSAGES), equalTo("0"));
+		assertThat(attributes.get(QueueAttributes.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE), equalTo("0"));
+		assertThat(attributes.get(QueueAttributes.APPROXIMATE_AGE_OF_OLDEST_MESSAGE), equalTo("0"));
+	}
+
+	@Test
+	public void testChangeMessageVisibility() {
+		queueService.push(qUrl, "body 1");
+		Message received = queueService.pull(qUrl).orElse(null);
+		assertThat(queueService.pull(qUrl).isPresent(), is(false));
+
+		assertThat(queueService.changeMessageVisibility(qUrl, received.getReceiptHandle(), 0), is(true));
+		Message again = queueService.pull(qUrl).orElse(null);
+		assertThat(again.getBody(), equalTo("body 1"));
+		assertThat(queueService.changeMessageVisibility(qUrl, received.getReceiptHandle(), 60), is(false));
+		assertThat(queueService.changeMessageVisibility(qUrl, again.getReceiptHandle(), 60), is(true));
+		assertThat(queueService.pull(qUrl).isPresent(), is(false));
+	}
+
+	@Test
+	public void testChangeMessageVisibilityBatch_returnsFailedReceiptHandles() {
+		queueService.pushBatch(qUrl, Arrays.asList("body 1", "body 2"));
+		List<Message> received = queueService.pullBatch(qUrl, 2);
+		List<String> receiptHandles = received.stream().map(Message::getReceiptHandle).collect(Collectors.toList());
+		receiptHandles.add("RH-unknown");
+
+		assertThat(queueService.changeMessageVisibilityBatch(qUrl, receiptHandles, 0), contains("RH-unknown"));
+		assertThat(queueService.pullBatch(qUrl, 10).size(), is(2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testChangeMessageVisibility_invalidTimeout() {
+		queueService.changeMessageVisibility(qUrl, "RH-unknown", QueueService.MAX_VISIBILITY_TIMEOUT_SECONDS + 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetQueueAttributes_invalidRetentionPeriod() {
+		queueService.setQueueAttributes(qUrl, Collections.singletonMap(QueueAttributes.MESSAGE_RETENTION_PERIOD, "59"));
+	}
 }
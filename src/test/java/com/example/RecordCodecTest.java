@@ -0,0 +1,133 @@
+package com.example;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RecordCodecTest extends BaseTestClass {
+
+	@Test
+	public void decode_shouldReturnEncodedRecord() {
+		Record record = Record.toRecord("id-1", "body with :: and\nnew line ünïcödé", 1000L, 2000L);
+
+		Record decoded = RecordCodec.decode(ByteBuffer.wrap(RecordCodec.encode(record)));
+
+		assertThat(decoded.getMessage().getMessageId(), equalTo("id-1"));
+		assertThat(decoded.getMessage().getBody(), equalTo("body with :: and\nnew line ünïcödé"));
+		assertThat(decoded.getCreationTime(), equalTo(1000L));
+		assertThat(decoded.getVisibleFromTime(), equalTo(2000L));
+	}
+
+	@Test
+	public void decode_shouldReturnGroupAndDeduplicationId_whenRecordIsInAGroup() {
+		Record grouped = Record.toRecord("id-1", "body", 1000L, 2000L).inGroup("group-1", "dedup-1");
+		Record undeduplicated = Record.toRecord("id-2", "body 2", 1000L, 2000L).inGroup("group-1", null);
+
+		Record decoded = RecordCodec.decode(ByteBuffer.wrap(RecordCodec.encode(grouped)));
+		Record decodedUndeduplicated = RecordCodec.decode(ByteBuffer.wrap(RecordCodec.encode(undeduplicated)));
+
+		assertThat(decoded.getMessage().getMessageId(), equalTo("id-1"));
+		assertThat(decoded.getMessage().getBody(), equalTo("body"));
+		assertThat(decoded.getMessageGroupId(), equalTo("group-1"));
+		assertThat(decoded.getDeduplicationId(), equalTo("dedup-1"));
+		assertThat(decodedUndeduplicated.getMessage().getBody(), equalTo("body 2"));
+		assertThat(decodedUndeduplicated.getDeduplicationId(), nullValue());
+		assertThat(RecordCodec.decode(ByteBuffer.wrap(RecordCodec.encode(Record.toRecord("id-3", "body 3")))).getMessageGroupId(), nullValue());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void decode_shouldFail_whenChecksumDoesNotMatch() {
+		byte[] frame = RecordCodec.encode(Record.toRecord("id-1", "body", 1000L, 2000L));
+		frame[frame.length - 1] ^= 1;
+
+		RecordCodec.decode(ByteBuffer.wrap(frame));
+	}
+
+	@Test
+	public void scan_shouldStopBeforeIncompleteRecord() throws Exception {
+		Path dir = Paths.get(FileQueueServiceTest.BASE_PATH, "record-codec-test");
+		FileQueueServiceTest.deleteAllSubDirectories(Paths.get(FileQueueServiceTest.BASE_PATH));
+		byte[] first = RecordCodec.encode(Record.toRecord("id-1", "body 1", 1000L, 2000L));
+		byte[] second = RecordCodec.encode(Record.toRecord("id-2", "body 2", 1000L, 2000L));
+		try(SegmentedLog log = new SegmentedLog(dir, Long.MAX_VALUE)) {
+			log.append(0, 0, first);
+			Files.write(log.segmentPath(0), Arrays.copyOf(second, second.length - 3), APPEND);
+
+			List<String> messageIds = new ArrayList<>();
+			long scannedTo = log.scan(0, 0, (frame, offset, length) -> messageIds.add(RecordCodec.messageId(frame)));
+
+			assertThat(messageIds, contains("id-1"));
+			assertThat(scannedTo, equalTo((long) first.length));
+		}
+	}
+
+	@Test
+	public void frameLength_shouldReportCorruptLength_whenPrefixCanNotBeAFrame() {
+		assertThat(RecordCodec.frameLength(ByteBuffer.allocate(4).putInt(0, -7)), equalTo(RecordCodec.CORRUPT_LENGTH));
+		assertThat(RecordCodec.frameLength(ByteBuffer.allocate(4).putInt(0, 3)), equalTo(RecordCodec.CORRUPT_LENGTH));
+	}
+
+	@Test
+	public void scan_shouldSkipRecordWithNegativeLength_inTheMiddleOfASegment() throws Exception {
+		scan_shouldSkipRecordWithCorruptLength(-1, false);
+		scan_shouldSkipRecordWithCorruptLength(-1, true);
+	}
+
+	@Test
+	public void scan_shouldSkipRecordWhoseLengthRunsPastTheFile_inTheMiddleOfASegment() throws Exception {
+		scan_shouldSkipRecordWithCorruptLength(Integer.MAX_VALUE - 100, false);
+		scan_shouldSkipRecordWithCorruptLength(Integer.MAX_VALUE - 100, true);
+	}
+
+	@Test
+	public void scan_shouldStopAtCorruptLength_atTheEndOfTheData() throws Exception {
+		Path dir = Paths.get(FileQueueServiceTest.BASE_PATH, "record-codec-test");
+		FileQueueServiceTest.deleteAllSubDirectories(Paths.get(FileQueueServiceTest.BASE_PATH));
+		byte[] first = RecordCodec.encode(Record.toRecord("id-1", "body 1", 1000L, 2000L));
+		byte[] torn = RecordCodec.encode(Record.toRecord("id-2", "body 2", 1000L, 2000L));
+		ByteBuffer.wrap(torn).putInt(0, 1 << 20);
+		try(SegmentedLog log = new SegmentedLog(dir, Long.MAX_VALUE)) {
+			log.append(0, 0, first);
+			Files.write(log.segmentPath(0), torn, APPEND);
+
+			List<String> messageIds = new ArrayList<>();
+			long scannedTo = log.scan(0, 0, (frame, offset, length) -> messageIds.add(RecordCodec.messageId(frame)));
+
+			assertThat(messageIds, contains("id-1"));
+			assertThat(scannedTo, equalTo((long) first.length));
+			assertThat(log.corruptFrames(), equalTo(0L));
+		}
+	}
+
+	private void scan_shouldSkipRecordWithCorruptLength(int corruptLength, boolean mapped) throws Exception {
+		Path dir = Paths.get(FileQueueServiceTest.BASE_PATH, "record-codec-test");
+		FileQueueServiceTest.deleteAllSubDirectories(Paths.get(FileQueueServiceTest.BASE_PATH));
+		byte[] first = RecordCodec.encode(Record.toRecord("id-1", "body 1", 1000L, 2000L));
+		byte[] corrupt = RecordCodec.encode(Record.toRecord("id-2", "body 2", 1000L, 2000L));
+		byte[] third = RecordCodec.encode(Record.toRecord("id-3", "body 3", 1000L, 2000L));
+		ByteBuffer.wrap(corrupt).putInt(0, corruptLength);
+		Files.createDirectories(dir);
+		ByteBuffer segment = ByteBuffer.allocate(first.length + corrupt.length + third.length + 4).put(first).put(corrupt).put(third);
+		try(SegmentedLog log = new SegmentedLog(dir, 1024 * 1024, mapped)) {
+			Files.write(log.segmentPath(0), segment.array());
+
+			List<String> messageIds = new ArrayList<>();
+			long scannedTo = log.scan(0, 0, (frame, offset, length) -> messageIds.add(RecordCodec.messageId(frame)));
+
+			assertThat(messageIds, contains("id-1", "id-3"));
+			assertThat(scannedTo, equalTo((long) first.length + corrupt.length + third.length));
+			assertThat(log.corruptFrames(), equalTo(1L));
+		}
+	}
+
+}
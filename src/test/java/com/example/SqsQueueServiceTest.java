@@ -1,21 +1,36 @@
 package com.example;
 
 import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
 import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
 import com.amazonaws.services.sqs.model.ListQueuesResult;
 import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.PurgeQueueRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -38,6 +53,50 @@ public class SqsQueueServiceTest extends BaseTestClass {
 		verify(sqs, times(1)).sendMessage(anyString(), anyString());
 	}
 
+	@Test
+	public void push_shouldSendGroupAndDeduplicationId_whenPushingToFifoQueue() throws Exception {
+		try(LocalSqsServer server = new LocalSqsServer()) {
+			QueueService local = new SqsQueueService(server.client());
+			String qUrl = server.queueUrl("test-queue.fifo");
+			local.push(qUrl, "first", "group-a", "dedup-1");
+			local.push(qUrl, "retried", "group-a", "dedup-1");
+			local.push(qUrl, "second", "group-a", "dedup-2");
+
+			assertThat(local.pull(qUrl).get().getBody(), is("first"));
+			assertThat(local.pull(qUrl).isPresent(), is(false));
+		}
+	}
+
+	@Test
+	public void changeMessageVisibility_shouldReportReceiptHandlesNotInFlight() throws Exception {
+		try(LocalSqsServer server = new LocalSqsServer()) {
+			QueueService local = new SqsQueueService(server.client());
+			String qUrl = server.queueUrl("test-queue");
+			local.push(qUrl, "body");
+			String receiptHandle = local.pull(qUrl).get().getReceiptHandle();
+
+			assertThat(local.changeMessageVisibilityBatch(qUrl, Arrays.asList(receiptHandle, "RH-unknown"), 60), contains("RH-unknown"));
+			assertThat(local.changeMessageVisibility(qUrl, receiptHandle, 0), is(true));
+			assertThat(local.changeMessageVisibility(qUrl, receiptHandle, 0), is(false));
+			assertThat(local.pull(qUrl).get().getBody(), is("body"));
+		}
+	}
+
+	@Test
+	public void getQueueAttributes_shouldReturnApproximateCountsFromSQS() throws Exception {
+		try(LocalSqsServer server = new LocalSqsServer()) {
+			QueueService local = new SqsQueueService(server.client());
+			String qUrl = server.queueUrl("test-queue");
+			local.pushBatch(qUrl, Arrays.asList("body 1", "body 2"));
+			local.pull(qUrl);
+
+			Map<String, String> attributes = local.getQueueAttributes(qUrl);
+			assertThat(attributes.get("ApproximateNumberOfMessages"), is("1"));
+			assertThat(attributes.get("ApproximateNumberOfMessagesNotVisible"), is("1"));
+			assertThat(server.requestCount("GetQueueAttributes"), is(1));
+		}
+	}
+
 	@Test
 	public void pull_shouldInvokeReceiveMessageOnSQS() {
 		when(sqs.receiveMessage(anyString())).thenReturn(new ReceiveMessageResult().withMessages(new Message()));
@@ -64,4 +123,82 @@ public class SqsQueueServiceTest extends BaseTestClass {
 		verify(sqs, times(1)).deleteMessage(anyString(), anyString());
 	}
 
+	@Test
+	public void pull_shouldPassWaitTimeSecondsToSQS() {
+		when(sqs.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(new ReceiveMessageResult().withMessages(new Message()));
+
+		Optional<Message> message = queueService.pull("qUrl", 20, TimeUnit.SECONDS);
+
+		ArgumentCaptor<ReceiveMessageRequest> request = ArgumentCaptor.forClass(ReceiveMessageRequest.class);
+		verify(sqs, times(1)).receiveMessage(request.capture());
+		assertThat(request.getValue().getWaitTimeSeconds(), is(20));
+		assertThat(message.isPresent(), is(true));
+	}
+
+	@Test
+	public void push_shouldPassDelaySecondsToSQS() {
+		queueService.push("qUrl", "dummyMessage", 5);
+
+		ArgumentCaptor<SendMessageRequest> request = ArgumentCaptor.forClass(SendMessageRequest.class);
+		verify(sqs, times(1)).sendMessage(request.capture());
+		assertThat(request.getValue().getDelaySeconds(), is(5));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void pull_shouldRejectWaitTimeAboveSQSLimit() {
+		queueService.pull("qUrl", 21, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void pushBatch_shouldInvokeSendMessageBatchOnSQSOnce() {
+		when(sqs.sendMessageBatch(anyString(), anyListOf(SendMessageBatchRequestEntry.class))).thenReturn(new SendMessageBatchResult());
+
+		queueService.pushBatch("qUrl", Arrays.asList("body 1", "body 2"));
+
+		verify(sqs, times(1)).sendMessageBatch(anyString(), anyListOf(SendMessageBatchRequestEntry.class));
+		verify(sqs, never()).sendMessage(anyString(), anyString());
+	}
+
+	@Test
+	public void pullBatch_shouldPassMaxNumberOfMessagesToSQS() {
+		when(sqs.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(new ReceiveMessageResult().withMessages(new Message(), new Message()));
+
+		List<Message> messages = queueService.pullBatch("qUrl", 5);
+
+		ArgumentCaptor<ReceiveMessageRequest> request = ArgumentCaptor.forClass(ReceiveMessageRequest.class);
+		verify(sqs, times(1)).receiveMessage(request.capture());
+		assertThat(request.getValue().getMaxNumberOfMessages(), is(5));
+		assertThat(messages.size(), is(2));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void deleteBatch_shouldFail_whenSQSReportsFailedEntries() {
+		when(sqs.deleteMessageBatch(anyString(), anyListOf(DeleteMessageBatchRequestEntry.class)))
+				.thenReturn(new DeleteMessageBatchResult().withFailed(new BatchResultErrorEntry().withId("0").withCode("ReceiptHandleIsInvalid")));
+
+		queueService.deleteBatch("qUrl", Collections.singletonList("receiptHandler"));
+	}
+
+	@Test
+	public void deleteBatch_shouldTellRetryableFromPermanentFailures_bySenderFault() {
+		when(sqs.deleteMessageBatch(anyString(), anyListOf(DeleteMessageBatchRequestEntry.class)))
+				.thenReturn(new DeleteMessageBatchResult().withFailed(
+						new BatchResultErrorEntry().withId("0").withCode("ReceiptHandleIsInvalid").withSenderFault(true),
+						new BatchResultErrorEntry().withId("2").withCode("InternalError").withSenderFault(false)));
+
+		try {
+			queueService.deleteBatch("qUrl", Arrays.asList("receiptHandler 0", "receiptHandler 1", "receiptHandler 2"));
+			fail("Expected the failed entries to be reported");
+		} catch (BatchEntriesFailedException e) {
+			assertThat(e.permanent(), contains(0));
+			assertThat(e.retryable(), contains(2));
+		}
+	}
+
+
+	@Test
+	public void purge_shouldInvokePurgeQueueOnSQS() {
+		queueService.purge("qUrl");
+		verify(sqs, times(1)).purgeQueue(new PurgeQueueRequest("qUrl"));
+	}
 }
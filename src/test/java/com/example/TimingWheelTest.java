@@ -0,0 +1,71 @@
+package com.example;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class TimingWheelTest {
+
+	private List<String> expired;
+	private List<Long> expiredAt;
+	private TimingWheel<String> wheel;
+
+	@Before
+	public void before() {
+		expired = new ArrayList<>();
+		expiredAt = new ArrayList<>();
+		wheel = new TimingWheel<>(10, 8, 0, (item, now) -> {
+			expired.add(item);
+			expiredAt.add(now);
+		});
+	}
+
+	@Test
+	public void advance_shouldNotFireBeforeDeadline() {
+		wheel.schedule("a", 55);
+		wheel.advance(50);
+		assertThat(expired, is(empty()));
+
+		wheel.advance(60);
+		assertThat(expired, contains("a"));
+		assertThat(expiredAt.get(0), greaterThanOrEqualTo(55L));
+	}
+
+	@Test
+	public void advance_shouldFireInDeadlineOrder_acrossRevolutions() {
+		wheel.schedule("late", 250);
+		wheel.schedule("early", 30);
+		wheel.schedule("middle", 95);
+
+		wheel.advance(100);
+		assertThat(expired, contains("early", "middle"));
+
+		wheel.advance(240);
+		assertThat(expired, contains("early", "middle"));
+
+		wheel.advance(250);
+		assertThat(expired, contains("early", "middle", "late"));
+	}
+
+	@Test
+	public void advance_shouldFireImmediately_whenDeadlineAlreadyPassed() {
+		wheel.advance(100);
+		wheel.schedule("overdue", 20);
+		wheel.advance(100);
+		assertThat(expired, contains("overdue"));
+	}
+
+	@Test
+	public void advance_shouldFireOnlyOnce() {
+		wheel.schedule("a", 10);
+		wheel.advance(10);
+		wheel.advance(1000);
+		assertThat(expired, contains("a"));
+	}
+
+}
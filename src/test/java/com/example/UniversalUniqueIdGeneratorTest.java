@@ -10,6 +10,11 @@ import org.junit.Test;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.Matchers.*;
 import static com.example.UniversalUniqueIdGenerator.*;
@@ -44,7 +49,47 @@ public class UniversalUniqueIdGeneratorTest extends BaseTestClass {
 		Long firstRead = currentSequenceNumberInFile();
 		idGenerator.nextValue();
 		Long secondRead = currentSequenceNumberInFile();
-		assertThat(secondRead, equalTo(firstRead + TOTAL_CACHE));
+		assertThat(secondRead, equalTo(firstRead + MIN_BATCH_SIZE));
+	}
+
+	@Test
+	public void nextValue_shouldReturnSequenceNumberInBase36_whenCompact() throws Exception {
+		Long currentSequenceNumberInFile = currentSequenceNumberInFile();
+		String nextValue = new UniversalUniqueIdGenerator(true).nextValue();
+		assertThat(Long.parseLong(nextValue, Character.MAX_RADIX), equalTo(currentSequenceNumberInFile));
+	}
+
+	@Test
+	public void nextLong_shouldReserveNextBatchBeforeCurrentOneRunsOut() throws Exception {
+		long first = idGenerator.nextLong();
+		for(int i = 1; i <= MIN_BATCH_SIZE / 2; i++) {
+			idGenerator.nextLong();
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while(currentSequenceNumberInFile() == first + MIN_BATCH_SIZE && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		// used up within a fraction of a second, so the next batch is larger
+		assertThat(currentSequenceNumberInFile(), greaterThan(first + 2 * MIN_BATCH_SIZE));
+	}
+
+	@Test
+	public void nextLong_shouldNeverReturnTheSameValueTwice_acrossThreadsAndGenerators() throws Exception {
+		UniversalUniqueIdGenerator other = new UniversalUniqueIdGenerator();
+		Set<Long> values = ConcurrentHashMap.newKeySet();
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		for(int t = 0; t < 8; t++) {
+			UniversalUniqueIdGenerator generator = t % 2 == 0 ? idGenerator : other;
+			threads.submit(() -> {
+				for(int i = 0; i < 10000; i++) {
+					assertThat(values.add(generator.nextLong()), is(true));
+				}
+			});
+		}
+		threads.shutdown();
+		threads.awaitTermination(30, TimeUnit.SECONDS);
+
+		assertThat(values.size(), equalTo(80000));
 	}
 
 	private Long currentSequenceNumberInFile() throws Exception {
@@ -54,4 +99,4 @@ public class UniversalUniqueIdGeneratorTest extends BaseTestClass {
 												.findFirst().orElse(null);
 
 	}
-}
\ No newline at end of file
+}
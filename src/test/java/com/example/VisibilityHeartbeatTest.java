@@ -0,0 +1,87 @@
+package com.example;
+
+import com.amazonaws.services.sqs.model.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class VisibilityHeartbeatTest extends BaseTestClass {
+
+	private InMemoryQueueService queueService = new InMemoryQueueService(new ConcurrentHashMap<>());
+	private String qUrl = "https://sqs.amazonaws.com/373529781950/heartbeat-queue";
+	private VisibilityHeartbeat heartbeat;
+
+	@Before
+	public void before() {
+		heartbeat = new VisibilityHeartbeat(queueService, 1, 200);
+	}
+
+	@After
+	public void after() {
+		heartbeat.close();
+	}
+
+	@Test
+	public void track_shouldKeepMessagesInvisible_pastTheirVisibilityTimeout() throws Exception {
+		for(int i = 0; i < 15; i++) {
+			queueService.push(qUrl, "body " + i);
+		}
+		for(int i = 0; i < 15; i++) {
+			heartbeat.track(qUrl, queueService.pull(qUrl, 1).orElse(null));
+		}
+
+		Thread.sleep(2000);
+		assertThat(queueService.pull(qUrl).isPresent(), is(false));
+	}
+
+	@Test
+	public void untrack_shouldLetTheLeaseEnd() throws Exception {
+		queueService.push(qUrl, "body");
+		Message message = queueService.pull(qUrl, 1).orElse(null);
+		heartbeat.track(qUrl, message);
+		heartbeat.untrack(qUrl, message.getReceiptHandle());
+		assertThat(heartbeat.isHeld(qUrl, message.getReceiptHandle()), is(false));
+
+		Thread.sleep(1000 + 2 * DeadlineScheduler.TICK_MILLIS);
+		assertThat(queueService.pull(qUrl).orElse(null).getBody(), equalTo("body"));
+	}
+
+	@Test
+	public void beat_shouldDropLostLeases() throws Exception {
+		try(VisibilityHeartbeat idle = new VisibilityHeartbeat(queueService, 1, 60000)) {
+			queueService.push(qUrl, "body");
+			Message message = queueService.pull(qUrl, 1).orElse(null);
+			idle.track(qUrl, message);
+			assertThat(idle.isHeld(qUrl, message.getReceiptHandle()), is(true));
+
+			Thread.sleep(1000 + 2 * DeadlineScheduler.TICK_MILLIS);
+			idle.beat();
+			assertThat(idle.isHeld(qUrl, message.getReceiptHandle()), is(false));
+		}
+	}
+
+	@Test
+	public void beat_shouldDropLeases_whenTheExtensionFails() {
+		InMemoryQueueService failing = new InMemoryQueueService(new ConcurrentHashMap<>()) {
+			@Override
+			public List<String> changeMessageVisibilityBatch(String qUrl, List<String> receiptHandlers, int visibilityTimeout) {
+				throw new IllegalStateException("Unavailable");
+			}
+		};
+		try(VisibilityHeartbeat idle = new VisibilityHeartbeat(failing, 1, 60000)) {
+			failing.push(qUrl, "body");
+			Message message = failing.pull(qUrl, 1).orElse(null);
+			idle.track(qUrl, message);
+
+			idle.beat();
+			assertThat(idle.isHeld(qUrl, message.getReceiptHandle()), is(false));
+		}
+	}
+
+}